@@ -26,7 +26,6 @@ import javax.jcr.Session;
 
 import java.util.Objects;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
 
 /**
@@ -34,7 +33,7 @@ import org.apache.commons.lang3.Strings;
  */
 abstract class AbstractItem implements Item {
 
-    protected final ItemData itemData;
+    protected ItemData itemData;
     private final Session session;
 
     protected AbstractItem(final ItemData itemData, final Session session) {
@@ -44,17 +43,21 @@ abstract class AbstractItem implements Item {
 
     @Override
     public String getName() throws RepositoryException {
-        return this.itemData.getName();
+        return getItemData().getName();
     }
 
     @Override
     public String getPath() throws RepositoryException {
-        return this.itemData.getPath();
+        return getItemData().getPath();
     }
 
     @Override
     public Node getParent() throws RepositoryException {
-        return (Node) getSession().getItem(ResourceUtil.getParent(getPath()));
+        final ItemPath parentPath = getItemData().getItemPath().getParent();
+        if (parentPath == null) {
+            throw new ItemNotFoundException();
+        }
+        return (Node) getMockedSession().getItem(parentPath);
     }
 
     @Override
@@ -64,12 +67,12 @@ abstract class AbstractItem implements Item {
 
     @Override
     public boolean isModified() {
-        return itemData.isChanged();
+        return getItemData().isChanged();
     }
 
     @Override
     public boolean isNew() {
-        return itemData.isNew();
+        return getItemData().isNew();
     }
 
     @Override
@@ -77,7 +80,7 @@ abstract class AbstractItem implements Item {
         if (depth < 0 || depth > getDepth()) {
             throw new ItemNotFoundException();
         }
-        return this.session.getItem(ResourceUtil.getParent(getPath(), getDepth() - depth));
+        return getMockedSession().getItem(getItemData().getItemPath().getAncestor(depth));
     }
 
     protected String makeAbsolutePath(final String relativePath) throws RepositoryException {
@@ -89,6 +92,44 @@ abstract class AbstractItem implements Item {
         return ResourceUtil.normalize(absolutePath);
     }
 
+    /**
+     * Resolves a relative path against the path of this item. A plain name is appended
+     * to the path of this item without building and parsing a path string.
+     * @param relativePath Relative or absolute path
+     * @return Normalized item path
+     * @throws RepositoryException if the path points above the root node
+     */
+    protected ItemPath makeItemPath(final String relativePath) throws RepositoryException {
+        if (!relativePath.isEmpty()
+                && relativePath.indexOf('/') < 0
+                && !".".equals(relativePath)
+                && !"..".equals(relativePath)) {
+            return getItemData().getItemPath().child(relativePath);
+        }
+        final String absolutePath = makeAbsolutePath(relativePath);
+        if (absolutePath == null) {
+            throw new RepositoryException(String.format("Invalid path: %s.", relativePath));
+        }
+        return ItemPath.of(absolutePath);
+    }
+
+    /**
+     * @return Up-to-date item data of this item
+     */
+    protected ItemData getItemData() {
+        this.itemData = getMockedSession().currentItemData(this.itemData);
+        return this.itemData;
+    }
+
+    /**
+     * Registers a modification of this item.
+     * @return Item data to modify, copied first if it is shared with a repository snapshot
+     */
+    protected ItemData getItemDataForUpdate() {
+        this.itemData = getMockedSession().trackChange(this.itemData);
+        return this.itemData;
+    }
+
     protected MockSession getMockedSession() {
         return (MockSession) this.session;
     }
@@ -100,11 +141,7 @@ abstract class AbstractItem implements Item {
 
     @Override
     public int getDepth() throws RepositoryException {
-        if (Strings.CS.equals("/", getPath())) {
-            return 0;
-        } else {
-            return StringUtils.countMatches(getPath(), "/");
-        }
+        return getItemData().getItemPath().getDepth();
     }
 
     @Override
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the binaries of a repository. Binaries up to the threshold size are held
+ * on the heap, larger ones are spilled to temporary files.
+ * <p>
+ * Binaries are addressed by the SHA-256 hash of their content, so storing the same
+ * content again returns the binary stored before as long as it is still referenced.
+ * Binaries are weakly referenced by the store, so the garbage collector keeps track
+ * of the properties, values and streams using a binary.
+ * </p>
+ * <p>
+ * A temporary file is deleted once its binary is no longer referenced by any property,
+ * value or stream. On platforms that allow deleting a mapped file, all files are deleted
+ * as soon as no repository using the store has a live session, the binaries stay readable
+ * through their mappings. Files that are left over are deleted on JVM exit.
+ * </p>
+ */
+class BinaryStore {
+
+    /**
+     * Default size in bytes up to which binaries are held on the heap
+     */
+    static final int DEFAULT_THRESHOLD = 64 * 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryStore.class);
+    private static final Cleaner CLEANER = Cleaner.create();
+    // a mapped file cannot be deleted on Windows until the mapping was garbage collected
+    private static final boolean DELETE_MAPPED_FILES = !SystemUtils.IS_OS_WINDOWS;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static Path tempDirectory;
+
+    private volatile int threshold = DEFAULT_THRESHOLD;
+    // binaries by content hash, guarded by the store
+    private final Map<ByteBuffer, Entry> binaries = new HashMap<>();
+    private final ReferenceQueue<MockBinary> queue = new ReferenceQueue<>();
+    // number of repositories with live sessions using the store, guarded by the store
+    private int users;
+
+    /**
+     * @return Size in bytes up to which binaries are held on the heap
+     */
+    int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold Size in bytes up to which binaries are held on the heap
+     */
+    void setThreshold(final int threshold) {
+        if (threshold < 0 || threshold == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid binary threshold: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param binary Binary
+     * @return Binary of this store with the same content, or the given binary if it is one already.
+     *     Binaries of other stores are stored again, so that their files do not depend on the other store.
+     * @throws RepositoryException if the binary cannot be read or stored
+     */
+    MockBinary store(final Binary binary) throws RepositoryException {
+        if (binary instanceof MockBinary && ((MockBinary) binary).getStore() == this) {
+            return (MockBinary) binary;
+        }
+        return store(binary.getStream());
+    }
+
+    /**
+     * Reads the stream to its end and closes it.
+     * @param stream Stream
+     * @return Binary with the content of the stream, shared with other properties of the same content
+     * @throws RepositoryException if the stream cannot be read or stored
+     */
+    MockBinary store(final InputStream stream) throws RepositoryException {
+        final MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(stream, digest)) {
+            final int limit = threshold;
+            final byte[] head = in.readNBytes(limit + 1);
+            if (head.length <= limit) {
+                final ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+                final MockBinary existing = get(hash);
+                return existing != null ? existing : put(hash, new MockBinary.Inline(head), null);
+            }
+            final Path file = Files.createTempFile(getTempDirectory(), "binary", ".bin");
+            try {
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    out.write(head);
+                    in.transferTo(out);
+                }
+                final ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+                final MockBinary existing = get(hash);
+                if (existing != null) {
+                    Files.delete(file);
+                    return existing;
+                }
+                return put(hash, new MockBinary.FileBacked(file, CLEANER), file);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(file);
+                throw ex;
+            }
+        } catch (IOException ex) {
+            throw new RepositoryException("Storing binary failed.", ex);
+        }
+    }
+
+    /**
+     * @return Number of distinct binaries that are still referenced
+     */
+    synchronized int size() {
+        purge();
+        return binaries.size();
+    }
+
+    /**
+     * @return Number of temporary files of referenced binaries that were not deleted yet
+     */
+    synchronized int fileCount() {
+        purge();
+        int count = 0;
+        for (Entry entry : binaries.values()) {
+            if (entry.file != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private synchronized MockBinary get(final ByteBuffer hash) {
+        purge();
+        final Entry entry = binaries.get(hash);
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * Adds a binary, unless another thread added one of the same content in the meantime.
+     * @param hash Content hash
+     * @param binary New binary
+     * @param file Temporary file of the binary, or null if it is held on the heap
+     * @return Binary to use
+     */
+    private synchronized MockBinary put(final ByteBuffer hash, final MockBinary binary, final Path file) {
+        final MockBinary existing = get(hash);
+        if (existing != null) {
+            return existing;
+        }
+        binaries.put(hash, new Entry(hash, binary, file, queue));
+        binary.setStore(this);
+        return binary;
+    }
+
+    /**
+     * Registers a repository whose first session logged in. The store is shared by the
+     * repositories created from the snapshots of a repository.
+     */
+    synchronized void acquire() {
+        users++;
+    }
+
+    /**
+     * Unregisters a repository whose last session logged out. The temporary files are
+     * deleted once no repository using the store has a live session.
+     */
+    synchronized void release() {
+        if (users > 0 && --users == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Deletes the temporary files of all binaries, if the platform allows deleting a mapped
+     * file. The binaries stay readable through their memory mappings. Otherwise a file is
+     * deleted once its binary is no longer referenced.
+     */
+    synchronized void close() {
+        if (!DELETE_MAPPED_FILES) {
+            return;
+        }
+        purge();
+        for (Entry entry : binaries.values()) {
+            if (entry.file != null && deleteFile(entry.file)) {
+                entry.file = null;
+            }
+        }
+    }
+
+    /**
+     * @param file Temporary file
+     * @return true if the file was deleted or did not exist
+     */
+    static boolean deleteFile(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException ex) {
+            LOG.warn("Unable to delete temporary binary file {}", file, ex);
+            return false;
+        }
+    }
+
+    private void purge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            binaries.remove(entry.hash, entry);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static synchronized Path getTempDirectory() throws IOException {
+        if (tempDirectory == null) {
+            final Path directory = Files.createTempDirectory("jcr-mock-binaries");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteDirectory(directory)));
+            tempDirectory = directory;
+        }
+        return tempDirectory;
+    }
+
+    private static void deleteDirectory(final Path directory) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                deleteFile(file);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Unable to list temporary binary directory {}", directory, ex);
+        }
+        deleteFile(directory);
+    }
+
+    private static final class Entry extends WeakReference<MockBinary> {
+
+        private final ByteBuffer hash;
+        // temporary file until it was deleted, guarded by the store
+        private Path file;
+
+        Entry(ByteBuffer hash, MockBinary binary, Path file, ReferenceQueue<MockBinary> queue) {
+            super(binary, queue);
+            this.hash = hash;
+            this.file = file;
+        }
+    }
+}
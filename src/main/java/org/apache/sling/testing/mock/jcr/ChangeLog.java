@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.RepositoryException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Transient changes of a session since the last save. Modified records are
+ * registered together with a copy of their previous state, and structural
+ * changes are recorded as undo actions, so that saving or reverting the
+ * changes costs time proportional to their number. The paths of all changed
+ * items are recorded as well, to apply the changes to another item store.
+ * <p>
+ * Sessions sharing an item store change the same records. The versions of the
+ * records after the last change of this session are recorded, so that reverting
+ * fails instead of overwriting changes another session made in the meantime.
+ * </p>
+ */
+class ChangeLog {
+
+    // modified records mapped to a copy of their previous state, or null for new records
+    private final Map<ItemData, ItemData> changedItems = new IdentityHashMap<>();
+    private final Deque<UndoAction> undoActions = new ArrayDeque<>();
+    // paths of added, modified and removed items, and of nodes with reordered children,
+    // read by other sessions when purging the query indexes of an isolated repository
+    private final Set<ItemPath> changedPaths = ConcurrentHashMap.newKeySet();
+    private final Set<ItemPath> orderedPaths = new HashSet<>();
+    // versions of the modified and added records after the last change of this session,
+    // kept unchanged if another session changed a record in between
+    private final Map<ItemData, Integer> versions = new IdentityHashMap<>();
+    // subtree versions of the added records after the last item this session added below them
+    private final Map<ItemData, Integer> subtreeVersions = new IdentityHashMap<>();
+    private final List<ItemData> removedItems = new ArrayList<>();
+
+    /**
+     * @return true if there are no pending changes
+     */
+    boolean isEmpty() {
+        return changedItems.isEmpty() && undoActions.isEmpty();
+    }
+
+    /**
+     * Registers a record that is about to be modified.
+     * @param itemData Item record
+     */
+    void itemChanged(ItemData itemData) {
+        changedPaths.add(itemData.getItemPath());
+        if (!changedItems.containsKey(itemData)) {
+            changedItems.put(itemData, ItemData.cloneItemAtNewPath(itemData.getItemPath(), itemData));
+        }
+        final Integer expected = versions.get(itemData);
+        final int version = itemData.nextVersion();
+        if (expected == null || expected == version - 1) {
+            versions.put(itemData, version);
+        }
+    }
+
+    /**
+     * Registers a record that was added to the store.
+     * @param itemData Added record
+     * @param replaced Record of the same kind that was replaced at the same path, or null
+     */
+    void itemAdded(ItemData itemData, ItemData replaced) {
+        changedPaths.add(itemData.getItemPath());
+        changedItems.putIfAbsent(itemData, null);
+        versions.put(itemData, itemData.getVersion());
+        subtreeVersions.put(itemData, itemData.getSubtreeVersion());
+        if (replaced != null) {
+            undoActions.push((store, restored) -> {
+                store.add(replaced);
+                restored.accept(replaced);
+            });
+        } else {
+            undoActions.push((store, restored) -> store.remove(itemData));
+        }
+    }
+
+    /**
+     * Counts an item this session added below a record.
+     * @param ancestor Record of an ancestor of the added item
+     */
+    void descendantAdded(ItemData ancestor) {
+        final Integer expected = subtreeVersions.get(ancestor);
+        final int version = ancestor.nextSubtreeVersion();
+        if (expected != null && expected == version - 1) {
+            subtreeVersions.put(ancestor, version);
+        }
+    }
+
+    /**
+     * Registers a record that was removed from the store together with its descendants.
+     * @param itemData Removed record
+     * @param nextSibling Sibling that followed the removed record, or null
+     */
+    void itemRemoved(ItemData itemData, ItemData nextSibling) {
+        changedPaths.add(itemData.getItemPath());
+        removedItems.add(itemData);
+        undoActions.push((store, restored) -> {
+            store.add(itemData);
+            store.orderBefore(itemData, nextSibling);
+            restored.accept(itemData);
+        });
+    }
+
+    /**
+     * Registers a record that was moved to another position among its siblings.
+     * @param itemData Moved record
+     * @param nextSibling Sibling that followed the record before it was moved, or null
+     */
+    void itemOrdered(ItemData itemData, ItemData nextSibling) {
+        orderedPaths.add(itemData.getItemPath().getParent());
+        undoActions.push((store, restored) -> store.orderBefore(itemData, nextSibling));
+    }
+
+    /**
+     * Marks all changed records as saved and clears the log.
+     * @param store Item store the changes were applied to
+     */
+    void commit(ItemStore store) {
+        for (ItemData itemData : changedItems.keySet()) {
+            final ItemData writable = store.writable(itemData);
+            writable.setIsNew(false);
+            writable.setIsChanged(false);
+        }
+        clear();
+    }
+
+    /**
+     * Undoes all structural changes in reverse order, restores the previous state
+     * of all modified records and clears the log.
+     * @param store Item store the changes were applied to
+     * @param restored Receives the records that were added again together with their descendants,
+     *     and the property records whose values were restored
+     * @throws InvalidItemStateException if another session changed a modified or added record,
+     *     added items below an added record, or added or removed items at the place of a removed record
+     * @throws RepositoryException if a change cannot be undone
+     */
+    void revert(ItemStore store, Consumer<ItemData> restored) throws RepositoryException {
+        // check before undoing anything, so that the changes are kept if reverting fails
+        checkRevertible(store);
+        while (!undoActions.isEmpty()) {
+            undoActions.pop().undo(store, restored);
+        }
+        for (Map.Entry<ItemData, ItemData> entry : changedItems.entrySet()) {
+            if (entry.getValue() != null) {
+                final ItemData writable = store.writable(entry.getKey());
+                writable.restoreState(entry.getValue());
+                if (writable.isProperty()) {
+                    restored.accept(writable);
+                }
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Checks that the records this session changed are still in the state it left them in.
+     * Records that are no longer in the store were removed or replaced, reverting them does
+     * not affect other sessions.
+     * @param store Item store the changes were applied to
+     * @throws InvalidItemStateException if another session changed an item
+     */
+    private void checkRevertible(ItemStore store) throws InvalidItemStateException {
+        for (Map.Entry<ItemData, Integer> entry : versions.entrySet()) {
+            final ItemData itemData = entry.getKey();
+            if (store.get(itemData.getItemPath()) == itemData
+                    && itemData.getVersion() != entry.getValue()
+                    && isOverwritten(itemData)) {
+                throw new InvalidItemStateException(
+                        "Unable to discard changes, item was modified by another session: " + itemData.getPath());
+            }
+        }
+        for (Map.Entry<ItemData, Integer> entry : subtreeVersions.entrySet()) {
+            final ItemData itemData = entry.getKey();
+            if (store.get(itemData.getItemPath()) == itemData && itemData.getSubtreeVersion() != entry.getValue()) {
+                throw new InvalidItemStateException(
+                        "Unable to discard changes, items were added by another session below: " + itemData.getPath());
+            }
+        }
+        final Set<ItemPath> removedPaths = new HashSet<>();
+        for (ItemData itemData : removedItems) {
+            removedPaths.add(itemData.getItemPath());
+        }
+        for (ItemData itemData : removedItems) {
+            final ItemData current = store.get(itemData.getItemPath());
+            if (current != null && !subtreeVersions.containsKey(current)) {
+                throw new InvalidItemStateException(
+                        "Unable to discard changes, item was added by another session: " + itemData.getPath());
+            }
+            // the parent must still exist, unless this session removed it or one of its ancestors
+            ItemPath ancestor = itemData.getItemPath().getParent();
+            while (ancestor != null && !removedPaths.contains(ancestor) && store.get(ancestor) == null) {
+                ancestor = ancestor.getParent();
+            }
+            if (ancestor != null
+                    && !removedPaths.contains(ancestor)
+                    && !ancestor.equals(itemData.getItemPath().getParent())) {
+                throw new InvalidItemStateException(
+                        "Unable to discard changes, parent was removed by another session: " + itemData.getPath());
+            }
+        }
+    }
+
+    /**
+     * @param itemData Record another session changed after this session
+     * @return true if reverting the record would overwrite a change of the other session
+     */
+    private boolean isOverwritten(ItemData itemData) {
+        if (itemData.isProperty()) {
+            return true;
+        }
+        // nodes are marked as changed when their properties are changed, only the node type is restored
+        final ItemData previous = changedItems.get(itemData);
+        return previous != null && !Objects.equals(previous.getNodeType(), itemData.getNodeType());
+    }
+
+    /**
+     * @return Paths of all added, modified and removed items
+     */
+    Collection<ItemPath> getChangedPaths() {
+        return changedPaths;
+    }
+
+    /**
+     * @param path Item path
+     * @return true if the item at the path or one of its ancestors has pending changes
+     */
+    boolean isChanged(final ItemPath path) {
+        for (ItemPath current = path; current != null; current = current.getParent()) {
+            if (changedPaths.contains(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Paths of all nodes whose child nodes were reordered
+     */
+    Collection<ItemPath> getOrderedPaths() {
+        return orderedPaths;
+    }
+
+    /**
+     * Discards all changes without undoing them.
+     */
+    void clear() {
+        changedItems.clear();
+        undoActions.clear();
+        changedPaths.clear();
+        orderedPaths.clear();
+        versions.clear();
+        subtreeVersions.clear();
+        removedItems.clear();
+    }
+
+    @FunctionalInterface
+    private interface UndoAction {
+        void undo(ItemStore store, Consumer<ItemData> restored) throws RepositoryException;
+    }
+}
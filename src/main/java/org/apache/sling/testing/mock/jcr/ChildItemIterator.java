@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.RangeIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over a snapshot of child item records. The node and property objects
+ * are only created when they are requested, size and skipping take constant time.
+ */
+class ChildItemIterator implements RangeIterator {
+
+    static final ItemData[] NO_ITEMS = new ItemData[0];
+
+    private final ItemData[] items;
+    private final MockSession session;
+    private int position;
+
+    /**
+     * @param items Child item records, not copied
+     * @param session Session
+     */
+    ChildItemIterator(final ItemData[] items, final MockSession session) {
+        this.items = items;
+        this.session = session;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < items.length;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return session.toItem(items[position++]);
+    }
+
+    @Override
+    public void skip(final long skipNum) {
+        if (skipNum < 0) {
+            throw new IllegalArgumentException("Skip count must not be negative: " + skipNum);
+        }
+        if (skipNum > items.length - position) {
+            position = items.length;
+            throw new NoSuchElementException();
+        }
+        position += (int) skipNum;
+    }
+
+    @Override
+    public long getSize() {
+        return items.length;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+}
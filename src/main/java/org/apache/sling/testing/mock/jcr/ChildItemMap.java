@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ordered map of child item records keyed by name. Entries are kept in a doubly
+ * linked list, so an entry can be moved before any other entry in constant time.
+ * <p>
+ * Iterators are weakly consistent: they never fail because of changes, but may miss
+ * entries added or moved before their current position. A map created for a concurrent
+ * repository also allows lookups and iteration to run concurrently with changes,
+ * which are serialized on the map.
+ * </p>
+ */
+class ChildItemMap extends AbstractMap<String, ItemData> {
+
+    /**
+     * Empty map of records without children, which cannot be changed.
+     */
+    static final ChildItemMap EMPTY = new ChildItemMap(Collections.emptyMap());
+
+    private final Map<String, Link> links;
+    private volatile Link head;
+    private volatile Link tail;
+
+    ChildItemMap() {
+        this(new HashMap<>());
+    }
+
+    private ChildItemMap(Map<String, Link> links) {
+        this.links = links;
+    }
+
+    /**
+     * @param concurrent true if the map is accessed by sessions on several threads
+     * @return New empty map
+     */
+    static ChildItemMap create(boolean concurrent) {
+        return concurrent ? new Concurrent() : new ChildItemMap();
+    }
+
+    /**
+     * @return New map of the same kind with the same entries in the same order
+     */
+    ChildItemMap copy() {
+        final ChildItemMap copy = create(this instanceof Concurrent);
+        copy.putAll(this);
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return links.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return links.containsKey(key);
+    }
+
+    @Override
+    public ItemData get(Object key) {
+        final Link link = links.get(key);
+        return link != null ? link.item : null;
+    }
+
+    /**
+     * Replaces the record of an existing entry in place, or appends a new entry.
+     */
+    @Override
+    public ItemData put(String key, ItemData value) {
+        final Link existing = links.get(key);
+        if (existing != null) {
+            return existing.setValue(value);
+        }
+        final Link link = new Link(key, value);
+        links.put(key, link);
+        linkBefore(link, null);
+        return null;
+    }
+
+    @Override
+    public ItemData remove(Object key) {
+        final Link link = links.remove(key);
+        if (link == null) {
+            return null;
+        }
+        unlink(link);
+        return link.item;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        final Link link = links.get(key);
+        if (link == null || !link.item.equals(value)) {
+            return false;
+        }
+        links.remove(key);
+        unlink(link);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        links.clear();
+        head = null;
+        tail = null;
+    }
+
+    /**
+     * @param key Name of an entry
+     * @return Record of the entry following the given one, or null
+     */
+    ItemData next(String key) {
+        final Link link = links.get(key);
+        return link != null && link.next != null ? link.next.item : null;
+    }
+
+    /**
+     * Moves an entry before another one.
+     * @param key Name of the entry to move
+     * @param beforeKey Name of the entry to move before, or null to move the entry to the end
+     * @return false if there is no entry with the given name
+     */
+    boolean orderBefore(String key, String beforeKey) {
+        final Link link = links.get(key);
+        if (link == null) {
+            return false;
+        }
+        final Link before = beforeKey != null ? links.get(beforeKey) : null;
+        if (before != link) {
+            unlink(link);
+            // a new link keeps iterators positioned on the old one on their path
+            final Link moved = new Link(key, link.item);
+            links.put(key, moved);
+            linkBefore(moved, before);
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Entry<String, ItemData>> entrySet() {
+        return new AbstractSet<Entry<String, ItemData>>() {
+            @Override
+            public int size() {
+                return links.size();
+            }
+
+            @Override
+            public Iterator<Entry<String, ItemData>> iterator() {
+                return new LinkIterator();
+            }
+        };
+    }
+
+    /**
+     * Removes an entry if it is still mapped to the given link.
+     */
+    void removeLink(Link link) {
+        if (links.get(link.name) == link) {
+            links.remove(link.name);
+            unlink(link);
+        }
+    }
+
+    private void linkBefore(Link link, Link before) {
+        if (before == null) {
+            link.prev = tail;
+            link.next = null;
+            if (tail != null) {
+                tail.next = link;
+            } else {
+                head = link;
+            }
+            tail = link;
+        } else {
+            link.prev = before.prev;
+            link.next = before;
+            if (before.prev != null) {
+                before.prev.next = link;
+            } else {
+                head = link;
+            }
+            before.prev = link;
+        }
+    }
+
+    private void unlink(Link link) {
+        if (link.prev != null) {
+            link.prev.next = link.next;
+        } else {
+            head = link.next;
+        }
+        if (link.next != null) {
+            link.next.prev = link.prev;
+        } else {
+            tail = link.prev;
+        }
+        // the next link is kept, so iterators positioned on the unlinked one can continue
+        link.prev = null;
+    }
+
+    /**
+     * Map for concurrent repositories, changes are serialized on the map.
+     */
+    private static final class Concurrent extends ChildItemMap {
+
+        Concurrent() {
+            super(new ConcurrentHashMap<>());
+        }
+
+        @Override
+        public synchronized ItemData put(String key, ItemData value) {
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized ItemData remove(Object key) {
+            return super.remove(key);
+        }
+
+        @Override
+        public synchronized boolean remove(Object key, Object value) {
+            return super.remove(key, value);
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+        }
+
+        @Override
+        synchronized boolean orderBefore(String key, String beforeKey) {
+            return super.orderBefore(key, beforeKey);
+        }
+
+        @Override
+        synchronized void removeLink(Link link) {
+            super.removeLink(link);
+        }
+    }
+
+    private static final class Link implements Entry<String, ItemData> {
+
+        private final String name;
+        private volatile ItemData item;
+        private volatile Link prev;
+        private volatile Link next;
+
+        Link(String name, ItemData item) {
+            this.name = name;
+            this.item = item;
+        }
+
+        @Override
+        public String getKey() {
+            return name;
+        }
+
+        @Override
+        public ItemData getValue() {
+            return item;
+        }
+
+        @Override
+        public ItemData setValue(ItemData value) {
+            final ItemData old = item;
+            item = value;
+            return old;
+        }
+    }
+
+    private final class LinkIterator implements Iterator<Entry<String, ItemData>> {
+
+        private Link next = head;
+        private Link current;
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, ItemData> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = next.next;
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            removeLink(current);
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.query.InvalidQueryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Full-text search expression of CONTAINS and jcr:contains. Terms separated by spaces must all
+ * match, OR separates alternatives, a term in double quotes is a phrase, and a term prefixed
+ * with - must not match. Text is split into lower case tokens of letters and digits, so that
+ * matching ignores case and punctuation.
+ */
+final class FullTextExpression {
+
+    /**
+     * Score of a text that does not match.
+     */
+    static final double NO_MATCH = -1;
+
+    // alternatives, each a list of terms that must all match
+    private final List<List<Term>> clauses;
+
+    private FullTextExpression(final List<List<Term>> clauses) {
+        this.clauses = clauses;
+    }
+
+    /**
+     * @param expression Full-text search expression
+     * @return Parsed expression
+     * @throws InvalidQueryException if the expression has no term
+     */
+    static FullTextExpression parse(final String expression) throws InvalidQueryException {
+        final List<List<Term>> clauses = new ArrayList<>();
+        List<Term> clause = new ArrayList<>();
+        int pos = 0;
+        while (pos < expression.length()) {
+            if (Character.isWhitespace(expression.charAt(pos))) {
+                pos++;
+                continue;
+            }
+            final boolean negated = expression.charAt(pos) == '-';
+            final int start = negated ? pos + 1 : pos;
+            final StringBuilder text = new StringBuilder();
+            final boolean phrase = start < expression.length() && expression.charAt(start) == '"';
+            pos = phrase ? start + 1 : start;
+            while (pos < expression.length()) {
+                final char c = expression.charAt(pos);
+                if (phrase ? c == '"' : Character.isWhitespace(c)) {
+                    break;
+                } else if (c == '\\' && pos + 1 < expression.length()) {
+                    pos++;
+                }
+                text.append(expression.charAt(pos++));
+            }
+            if (phrase) {
+                // skip the closing quote
+                pos++;
+            }
+            if (!phrase && !negated && "OR".equals(text.toString())) {
+                if (!clause.isEmpty()) {
+                    clauses.add(clause);
+                    clause = new ArrayList<>();
+                }
+                continue;
+            }
+            final List<String> tokens = tokenize(text.toString());
+            if (!tokens.isEmpty()) {
+                clause.add(new Term(tokens, negated));
+            }
+        }
+        if (!clause.isEmpty()) {
+            clauses.add(clause);
+        }
+        if (clauses.isEmpty()) {
+            throw new InvalidQueryException("Full-text search expression has no term: " + expression);
+        }
+        return new FullTextExpression(clauses);
+    }
+
+    /**
+     * @param text Text
+     * @return Lower case tokens of letters and digits
+     */
+    static List<String> tokenize(final String text) {
+        List<String> tokens = null;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            final boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                if (tokens == null) {
+                    tokens = new ArrayList<>();
+                }
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+                start = -1;
+            }
+        }
+        return tokens != null ? tokens : Collections.emptyList();
+    }
+
+    /**
+     * @return Alternatives, each a list of terms that must all match
+     */
+    List<List<Term>> getClauses() {
+        return clauses;
+    }
+
+    /**
+     * The score is the number of occurrences of the terms that are not negated, summed over the
+     * alternatives that match.
+     * @param texts Tokens of each text of a node, phrases do not span texts
+     * @return Score, or {@link #NO_MATCH} if the texts do not match
+     */
+    double score(final List<List<String>> texts) {
+        double score = NO_MATCH;
+        for (List<Term> clause : clauses) {
+            final double clauseScore = score(clause, texts);
+            if (clauseScore != NO_MATCH) {
+                score = score == NO_MATCH ? clauseScore : score + clauseScore;
+            }
+        }
+        return score;
+    }
+
+    private static double score(final List<Term> clause, final List<List<String>> texts) {
+        double score = 0;
+        for (Term term : clause) {
+            final int count = term.count(texts);
+            if (term.negated ? count > 0 : count == 0) {
+                return NO_MATCH;
+            }
+            score += count;
+        }
+        return score;
+    }
+
+    /**
+     * Word or phrase of a full-text search expression.
+     */
+    static final class Term {
+
+        private final List<String> tokens;
+        private final boolean negated;
+
+        Term(List<String> tokens, boolean negated) {
+            this.tokens = tokens;
+            this.negated = negated;
+        }
+
+        /**
+         * @return Tokens, more than one for a phrase
+         */
+        List<String> getTokens() {
+            return tokens;
+        }
+
+        /**
+         * @return true if the term must not match
+         */
+        boolean isNegated() {
+            return negated;
+        }
+
+        private int count(final List<List<String>> texts) {
+            int count = 0;
+            for (List<String> text : texts) {
+                for (int i = 0; i + tokens.size() <= text.size(); i++) {
+                    if (text.subList(i, i + tokens.size()).equals(tokens)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index of the tokens of all property values, mapping each token to the paths of the
+ * properties having it. Binary values are not tokenized, their properties are candidates for
+ * every lookup. Like a {@link PropertyIndex}, it may list properties that no longer have a token,
+ * so callers have to check the candidates.
+ */
+final class FullTextIndex {
+
+    private final Map<String, Set<ItemPath>> tokens = new ConcurrentHashMap<>();
+    // properties with binary values, always candidates
+    private final Set<ItemPath> binaries = ConcurrentHashMap.newKeySet();
+
+    FullTextIndex() {
+        // empty index
+    }
+
+    /**
+     * Creates a copy of the given index.
+     * @param other Full-text index
+     */
+    FullTextIndex(final FullTextIndex other) {
+        other.tokens.forEach((token, paths) -> {
+            final Set<ItemPath> copy = ConcurrentHashMap.newKeySet();
+            copy.addAll(paths);
+            tokens.put(token, copy);
+        });
+        binaries.addAll(other.binaries);
+    }
+
+    /**
+     * @param propertyPath Path of the property
+     * @param values Values of the property
+     */
+    void add(final ItemPath propertyPath, final Value[] values) {
+        if (hasBinary(values)) {
+            binaries.add(propertyPath);
+        }
+        for (String token : getTokens(values)) {
+            // the set is updated within compute, so that it is not removed concurrently when empty
+            tokens.compute(token, (key, paths) -> {
+                final Set<ItemPath> result = paths != null ? paths : ConcurrentHashMap.newKeySet();
+                result.add(propertyPath);
+                return result;
+            });
+        }
+    }
+
+    /**
+     * @param propertyPath Path of the property
+     * @param values Values of the property that are no longer set
+     */
+    void remove(final ItemPath propertyPath, final Value[] values) {
+        binaries.remove(propertyPath);
+        for (String token : getTokens(values)) {
+            tokens.computeIfPresent(token, (key, paths) -> {
+                paths.remove(propertyPath);
+                return paths.isEmpty() ? null : paths;
+            });
+        }
+    }
+
+    /**
+     * Removes the entries of tokens that none of the retained values has.
+     * @param propertyPath Path of the property
+     * @param values Values of the property that were removed
+     * @param retained Values the property still has in other stores
+     * @return true if no entry of the removed values had to be kept
+     */
+    boolean remove(final ItemPath propertyPath, final Value[] values, final Collection<Value[]> retained) {
+        final Set<String> retainedTokens = new HashSet<>();
+        boolean retainedBinary = false;
+        for (Value[] retainedValues : retained) {
+            retainedTokens.addAll(getTokens(retainedValues));
+            retainedBinary |= hasBinary(retainedValues);
+        }
+        boolean result = !(retainedBinary && hasBinary(values));
+        if (!retainedBinary) {
+            binaries.remove(propertyPath);
+        }
+        for (String token : getTokens(values)) {
+            if (retainedTokens.contains(token)) {
+                result = false;
+                continue;
+            }
+            tokens.computeIfPresent(token, (key, paths) -> {
+                paths.remove(propertyPath);
+                return paths.isEmpty() ? null : paths;
+            });
+        }
+        return result;
+    }
+
+    private static boolean hasBinary(final Value[] values) {
+        for (Value value : values) {
+            if (value != null && value.getType() == PropertyType.BINARY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> getTokens(final Value[] values) {
+        final Set<String> result = new HashSet<>();
+        for (Value value : values) {
+            if (value == null || value.getType() == PropertyType.BINARY) {
+                continue;
+            }
+            try {
+                result.addAll(FullTextExpression.tokenize(value.getString()));
+            } catch (RepositoryException ex) {
+                // values without a string representation have no tokens
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param expression Full-text search expression
+     * @param propertyName Name of the searched property, or null for all properties
+     * @return Paths of the nodes that may match the expression, or null if an alternative of the
+     *     expression only has negated terms
+     */
+    Set<ItemPath> lookup(final FullTextExpression expression, final String propertyName) {
+        final Set<ItemPath> result = new HashSet<>();
+        for (List<FullTextExpression.Term> clause : expression.getClauses()) {
+            Set<ItemPath> candidates = null;
+            for (FullTextExpression.Term term : clause) {
+                if (term.isNegated()) {
+                    continue;
+                }
+                // a phrase is only found in properties having all of its tokens
+                for (String token : term.getTokens()) {
+                    final Set<ItemPath> nodes = getNodes(token, propertyName);
+                    if (candidates == null) {
+                        candidates = nodes;
+                    } else {
+                        candidates.retainAll(nodes);
+                    }
+                }
+            }
+            if (candidates == null) {
+                return null;
+            }
+            result.addAll(candidates);
+        }
+        return result;
+    }
+
+    private Set<ItemPath> getNodes(final String token, final String propertyName) {
+        final Set<ItemPath> result = new HashSet<>();
+        addNodes(result, tokens.getOrDefault(token, Set.of()), propertyName);
+        addNodes(result, binaries, propertyName);
+        return result;
+    }
+
+    private static void addNodes(final Set<ItemPath> nodes, final Set<ItemPath> properties, final String propertyName) {
+        for (ItemPath property : properties) {
+            if (propertyName == null || propertyName.equals(property.getName())) {
+                nodes.add(property.getParent());
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Hash map stored as a persistent hash array mapped trie. Forking a map takes
+ * constant time: both maps share all trie nodes afterwards, and a change copies
+ * only the nodes on the path to the changed entry.
+ * <p>
+ * Nodes created by a map since it was last forked are modified in place. In
+ * concurrent mode nodes are never modified after they have been published, so
+ * lookups need no locking and changes are applied by replacing the root atomically.
+ * </p>
+ */
+class HashTrieMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_SHIFT = 30;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<HashTrieMap, Object> ROOT =
+            AtomicReferenceFieldUpdater.newUpdater(HashTrieMap.class, Object.class, "root");
+
+    private final boolean concurrent;
+    // BitmapNode, CollisionNode or null if the map is empty
+    private volatile Object root;
+    // owner marker of the nodes that may be modified in place, null in concurrent mode
+    private Object edit;
+
+    /**
+     * @param concurrent true if the map is accessed by several threads
+     */
+    HashTrieMap(boolean concurrent) {
+        this(null, concurrent);
+    }
+
+    private HashTrieMap(Object root, boolean concurrent) {
+        this.root = root;
+        this.concurrent = concurrent;
+        this.edit = concurrent ? null : new Object();
+    }
+
+    /**
+     * @param key Key
+     * @return Value or null if there is no entry with the given key
+     */
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        return (V) find(root, 0, hash(key), key);
+    }
+
+    /**
+     * @param key Key
+     * @param value Value, must not be null
+     */
+    void put(K key, V value) {
+        final int hash = hash(key);
+        if (!concurrent) {
+            root = assoc(root, edit, 0, hash, key, value);
+            return;
+        }
+        Object current;
+        Object next;
+        do {
+            current = root;
+            next = assoc(current, null, 0, hash, key, value);
+        } while (current != next && !ROOT.compareAndSet(this, current, next));
+    }
+
+    /**
+     * Removes the entry for the given key if it is currently mapped to the given value instance.
+     * @param key Key
+     * @param value Expected value
+     */
+    void remove(K key, V value) {
+        final int hash = hash(key);
+        if (!concurrent) {
+            root = without(root, edit, 0, hash, key, value);
+            return;
+        }
+        Object current;
+        Object next;
+        do {
+            current = root;
+            next = without(current, null, 0, hash, key, value);
+        } while (current != next && !ROOT.compareAndSet(this, current, next));
+    }
+
+    /**
+     * Creates a copy of this map in constant time. Both maps copy the shared nodes before changing them.
+     * @return Map with the same entries
+     */
+    synchronized HashTrieMap<K, V> fork() {
+        if (!concurrent) {
+            edit = new Object();
+        }
+        return new HashTrieMap<>(root, concurrent);
+    }
+
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        // spread the high bits, as the trie consumes the hash from the lowest bits
+        return h ^ (h >>> 16);
+    }
+
+    private static Object find(Object node, int shift, int hash, Object key) {
+        while (node instanceof BitmapNode) {
+            final BitmapNode bitmapNode = (BitmapNode) node;
+            final int bit = bit(hash, shift);
+            if ((bitmapNode.bitmap & bit) == 0) {
+                return null;
+            }
+            final int index = 2 * bitmapNode.index(bit);
+            final Object entryKey = bitmapNode.array[index];
+            if (entryKey != null) {
+                return key.equals(entryKey) ? bitmapNode.array[index + 1] : null;
+            }
+            node = bitmapNode.array[index + 1];
+            shift += BITS;
+        }
+        if (node instanceof CollisionNode) {
+            final CollisionNode collisionNode = (CollisionNode) node;
+            final int index = collisionNode.indexOf(key);
+            return index >= 0 ? collisionNode.array[index + 1] : null;
+        }
+        return null;
+    }
+
+    private static Object assoc(Object node, Object edit, int shift, int hash, Object key, Object value) {
+        if (node == null) {
+            return new BitmapNode(edit, bit(hash, shift), new Object[] {key, value});
+        }
+        if (node instanceof CollisionNode) {
+            return ((CollisionNode) node).assoc(edit, key, value);
+        }
+        final BitmapNode bitmapNode = (BitmapNode) node;
+        final int bit = bit(hash, shift);
+        final int index = 2 * bitmapNode.index(bit);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            final Object[] array = new Object[bitmapNode.array.length + 2];
+            System.arraycopy(bitmapNode.array, 0, array, 0, index);
+            array[index] = key;
+            array[index + 1] = value;
+            System.arraycopy(bitmapNode.array, index, array, index + 2, bitmapNode.array.length - index);
+            final BitmapNode target = bitmapNode.editable(edit, false);
+            target.bitmap = bitmapNode.bitmap | bit;
+            target.array = array;
+            return target;
+        }
+        final Object entryKey = bitmapNode.array[index];
+        final Object entryValue = bitmapNode.array[index + 1];
+        if (entryKey == null) {
+            final Object child = assoc(entryValue, edit, shift + BITS, hash, key, value);
+            return child == entryValue ? bitmapNode : bitmapNode.set(edit, index, null, child);
+        }
+        if (key.equals(entryKey)) {
+            return entryValue == value ? bitmapNode : bitmapNode.set(edit, index, entryKey, value);
+        }
+        final Object child = createNode(edit, shift + BITS, entryKey, entryValue, hash, key, value);
+        return bitmapNode.set(edit, index, null, child);
+    }
+
+    private static Object createNode(
+            Object edit, int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+        final int hash1 = hash(key1);
+        if (shift > MAX_SHIFT) {
+            return new CollisionNode(edit, new Object[] {key1, value1, key2, value2});
+        }
+        final Object node = assoc(null, edit, shift, hash1, key1, value1);
+        return assoc(node, edit, shift, hash2, key2, value2);
+    }
+
+    private static Object without(Object node, Object edit, int shift, int hash, Object key, Object value) {
+        if (node == null) {
+            return null;
+        }
+        if (node instanceof CollisionNode) {
+            return ((CollisionNode) node).without(edit, key, value);
+        }
+        final BitmapNode bitmapNode = (BitmapNode) node;
+        final int bit = bit(hash, shift);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            return bitmapNode;
+        }
+        final int index = 2 * bitmapNode.index(bit);
+        final Object entryKey = bitmapNode.array[index];
+        final Object entryValue = bitmapNode.array[index + 1];
+        if (entryKey == null) {
+            final Object child = without(entryValue, edit, shift + BITS, hash, key, value);
+            if (child == entryValue) {
+                return bitmapNode;
+            }
+            if (child != null) {
+                return bitmapNode.set(edit, index, null, child);
+            }
+        } else if (!key.equals(entryKey) || entryValue != value) {
+            return bitmapNode;
+        }
+        if (bitmapNode.bitmap == bit) {
+            return null;
+        }
+        final Object[] array = new Object[bitmapNode.array.length - 2];
+        System.arraycopy(bitmapNode.array, 0, array, 0, index);
+        System.arraycopy(bitmapNode.array, index + 2, array, index, array.length - index);
+        final BitmapNode target = bitmapNode.editable(edit, false);
+        target.bitmap = bitmapNode.bitmap ^ bit;
+        target.array = array;
+        return target;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * Trie node with up to 32 slots, each holding a key and value or a child node.
+     */
+    private static final class BitmapNode {
+
+        private final Object edit;
+        private int bitmap;
+        // key and value for each slot, or null and the child node
+        private Object[] array;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        BitmapNode editable(Object edit, boolean copyArray) {
+            if (edit != null && this.edit == edit) {
+                return this;
+            }
+            return new BitmapNode(edit, bitmap, copyArray ? array.clone() : array);
+        }
+
+        BitmapNode set(Object edit, int index, Object key, Object value) {
+            final BitmapNode target = editable(edit, true);
+            target.array[index] = key;
+            target.array[index + 1] = value;
+            return target;
+        }
+    }
+
+    /**
+     * Node holding all keys with the same hash code.
+     */
+    private static final class CollisionNode {
+
+        private final Object edit;
+        // keys and values
+        private Object[] array;
+
+        CollisionNode(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+
+        int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        CollisionNode assoc(Object edit, Object key, Object value) {
+            final int index = indexOf(key);
+            final Object[] newArray;
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                newArray = array.clone();
+                newArray[index + 1] = value;
+            } else {
+                newArray = Arrays.copyOf(array, array.length + 2);
+                newArray[array.length] = key;
+                newArray[array.length + 1] = value;
+            }
+            return editable(edit, newArray);
+        }
+
+        CollisionNode without(Object edit, Object key, Object value) {
+            final int index = indexOf(key);
+            if (index < 0 || array[index + 1] != value) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            final Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+            return editable(edit, newArray);
+        }
+
+        private CollisionNode editable(Object edit, Object[] newArray) {
+            if (edit != null && this.edit == edit) {
+                array = newArray;
+                return this;
+            }
+            return new CollisionNode(edit, newArray);
+        }
+    }
+}
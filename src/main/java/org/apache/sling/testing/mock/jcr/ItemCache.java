@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.Item;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identity cache for the node and property objects of a session, so that repeated
+ * lookups of an item return the same object. Objects are softly referenced and are
+ * dropped by the garbage collector under memory pressure.
+ * <p>
+ * A cached object is only returned if it is still backed by the current record at
+ * its path. This covers items below a removed or moved node, so only the entry of
+ * the removed or moved item itself is dropped explicitly.
+ * </p>
+ */
+class ItemCache {
+
+    private final Map<ItemPath, Entry> entries = new HashMap<>();
+    private final ReferenceQueue<AbstractItem> queue = new ReferenceQueue<>();
+    private long hits;
+    private long misses;
+
+    /**
+     * @param itemData Current item record
+     * @param session Session
+     * @return Cached or new object for the item
+     */
+    Item get(ItemData itemData, MockSession session) {
+        purge();
+        final ItemPath path = itemData.getItemPath();
+        final Entry entry = entries.get(path);
+        final AbstractItem cached = entry != null ? entry.get() : null;
+        if (cached != null && cached.getItemData() == itemData) {
+            hits++;
+            return cached;
+        }
+        misses++;
+        final AbstractItem item = (AbstractItem) itemData.getItem(session);
+        entries.put(path, new Entry(path, item, queue));
+        return item;
+    }
+
+    /**
+     * Drops the entry of an item that was removed or moved.
+     * @param path Item path
+     */
+    void invalidate(ItemPath path) {
+        entries.remove(path);
+    }
+
+    /**
+     * Drops all entries.
+     */
+    void clear() {
+        entries.clear();
+        purge();
+    }
+
+    /**
+     * @return Hit and miss counters and the current number of entries
+     */
+    MockItemCacheStatistics getStatistics() {
+        purge();
+        return new MockItemCacheStatistics(hits, misses, entries.size());
+    }
+
+    private void purge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            entries.remove(entry.path, entry);
+        }
+    }
+
+    private static final class Entry extends SoftReference<AbstractItem> {
+
+        private final ItemPath path;
+
+        Entry(ItemPath path, AbstractItem item, ReferenceQueue<AbstractItem> queue) {
+            super(item, queue);
+            this.path = path;
+        }
+    }
+}
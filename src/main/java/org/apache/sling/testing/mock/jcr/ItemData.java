@@ -19,30 +19,55 @@
 package org.apache.sling.testing.mock.jcr;
 
 import javax.jcr.Item;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 import javax.jcr.nodetype.NodeType;
 
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jackrabbit.value.ValueFactoryImpl;
 
 /**
  * Holds node and property item data independently from session.
+ * <p>
+ * Single long, double, boolean, string and date values are stored in compact
+ * form, without a {@link Value} object. Single binary values are stored as the
+ * {@link MockBinary} created by the {@link BinaryStore} of the repository. Values
+ * are only created when they are requested. Multiple values and values of other
+ * types are stored as they are.
+ * </p>
  */
 class ItemData {
 
-    private final String path;
-    private final String name;
+    private static final Map<TimeZone, TimeZone> TIME_ZONES = new ConcurrentHashMap<>();
+
+    private final ItemPath path;
     private final boolean isNode;
     private final String uuid;
-    private NodeType nodeType;
-    private Value[] values;
-    private boolean isMultiple;
-    private boolean isNew;
-    private boolean isChanged;
+    // ordered child node and property records of nodes, created when the first child is added
+    private volatile ChildItemMap childNodes;
+    private volatile ChildItemMap properties;
+    // volatile, so that sessions on other threads see changes without locking
+    private volatile NodeType nodeType;
+    // Long, Double, Boolean, String, CompactDate, MockBinary or Value for a single value, Value[] for multiple values
+    private volatile Object value;
+    private volatile boolean isNew;
+    private volatile boolean isChanged;
+    // generation of the item store that may modify this record in place, null for records not added yet
+    private volatile Object owner;
+    // counts the changes of the record and the items added below it, guarded by the record
+    private int version;
+    private int subtreeVersion;
 
-    private ItemData(String path, boolean isNode, String uuid, NodeType nodeType) {
+    private ItemData(ItemPath path, boolean isNode, String uuid, NodeType nodeType) {
         this.path = path;
-        this.name = ResourceUtil.getName(path);
         this.uuid = uuid;
         this.isNode = isNode;
         this.nodeType = nodeType;
@@ -51,29 +76,38 @@ class ItemData {
     }
 
     /**
-     * Copy constructor
+     * Copy constructor. Child node and property records are not copied.
      *
      * @param destPath the destination path of the copied item data
      * @param itemData the source item data to copy
      */
-    private ItemData(String destPath, ItemData itemData) {
+    private ItemData(ItemPath destPath, ItemData itemData) {
         this.path = destPath;
-        this.name = ResourceUtil.getName(path);
         this.isNode = itemData.isNode;
         this.uuid = itemData.uuid;
         this.nodeType = itemData.nodeType;
-        this.values = itemData.values;
-        this.isMultiple = itemData.isMultiple;
+        this.value = itemData.value;
         this.isNew = itemData.isNew;
         this.isChanged = itemData.isChanged;
+        synchronized (itemData) {
+            this.version = itemData.version;
+            this.subtreeVersion = itemData.subtreeVersion;
+        }
     }
 
     public String getPath() {
+        return path.toString();
+    }
+
+    /**
+     * @return Item path
+     */
+    ItemPath getItemPath() {
         return path;
     }
 
     public String getName() {
-        return name;
+        return path.getName();
     }
 
     public boolean isNode() {
@@ -102,36 +136,219 @@ class ItemData {
         this.nodeType = nodeType;
     }
 
-    public Value[] getValues() {
-        if (!isProperty()) {
+    /**
+     * @return Ordered map of child node records, keyed by name
+     */
+    ChildItemMap getChildNodes() {
+        if (!isNode()) {
             throw new UnsupportedOperationException();
         }
-        return values;
+        final ChildItemMap map = childNodes;
+        return map != null ? map : ChildItemMap.EMPTY;
     }
 
-    public void setValues(Value[] values) {
-        if (!isProperty()) {
+    /**
+     * @return Ordered map of property records, keyed by name
+     */
+    ChildItemMap getProperties() {
+        if (!isNode()) {
             throw new UnsupportedOperationException();
         }
-        this.values = values;
-        this.isChanged = true;
+        final ChildItemMap map = properties;
+        return map != null ? map : ChildItemMap.EMPTY;
     }
 
-    public boolean isMultiple() {
+    /**
+     * @param concurrent true if the record belongs to a concurrent repository
+     * @return Ordered map of child node records to add records to, created if there is none yet
+     */
+    ChildItemMap getOrCreateChildNodes(boolean concurrent) {
+        if (!isNode()) {
+            throw new UnsupportedOperationException();
+        }
+        ChildItemMap map = childNodes;
+        if (map == null && !concurrent) {
+            map = new ChildItemMap();
+            childNodes = map;
+        } else if (map == null) {
+            // another thread may add the first child of a shared record while copying it
+            synchronized (this) {
+                map = childNodes;
+                if (map == null) {
+                    map = ChildItemMap.create(concurrent);
+                    childNodes = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @param concurrent true if the record belongs to a concurrent repository
+     * @return Ordered map of property records to add records to, created if there is none yet
+     */
+    ChildItemMap getOrCreateProperties(boolean concurrent) {
+        if (!isNode()) {
+            throw new UnsupportedOperationException();
+        }
+        ChildItemMap map = properties;
+        if (map == null && !concurrent) {
+            map = new ChildItemMap();
+            properties = map;
+        } else if (map == null) {
+            // another thread may add the first child of a shared record while copying it
+            synchronized (this) {
+                map = properties;
+                if (map == null) {
+                    map = ChildItemMap.create(concurrent);
+                    properties = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return Values, a single value is returned as array of one value, or null if no value was set
+     */
+    public Value[] getValues() {
+        final Object current = getStoredValue();
+        if (current == null || current instanceof Value[]) {
+            return (Value[]) current;
+        }
+        return new Value[] {toValue(current)};
+    }
+
+    /**
+     * Stores multiple values.
+     * @param values Values
+     */
+    public void setValues(Value[] values) {
+        setStoredValue(values);
+    }
+
+    /**
+     * Stores a single value, in compact form if its type allows it.
+     * @param value Value
+     */
+    public void setValue(Value value) {
+        setStoredValue(compact(value));
+    }
+
+    void setValue(long value) {
+        setStoredValue(value);
+    }
+
+    void setValue(double value) {
+        setStoredValue(value);
+    }
+
+    void setValue(boolean value) {
+        setStoredValue(value);
+    }
+
+    void setValue(String value) {
+        setStoredValue(value);
+    }
+
+    void setValue(MockBinary value) {
+        setStoredValue(value);
+    }
+
+    /**
+     * Returns the stored value without creating a {@link Value} object.
+     * @return Long, Double, Boolean, String, {@link CompactDate} or {@link MockBinary} for a compact single value, Value
+     *     for another single value, Value[] for multiple values, or null if no value was set
+     */
+    Object getStoredValue() {
         if (!isProperty()) {
             throw new UnsupportedOperationException();
         }
-        return isMultiple;
+        return value;
     }
 
-    public void setMultiple(boolean isMultiple) {
+    private void setStoredValue(Object value) {
         if (!isProperty()) {
             throw new UnsupportedOperationException();
         }
-        this.isMultiple = isMultiple;
+        this.value = value;
         this.isChanged = true;
     }
 
+    public boolean isMultiple() {
+        return getStoredValue() instanceof Value[];
+    }
+
+    /**
+     * @return Property type of the (first) value, or {@link PropertyType#UNDEFINED} if there is none
+     */
+    int getType() {
+        final Object current = getStoredValue();
+        if (current instanceof String) {
+            return PropertyType.STRING;
+        } else if (current instanceof Long) {
+            return PropertyType.LONG;
+        } else if (current instanceof Double) {
+            return PropertyType.DOUBLE;
+        } else if (current instanceof Boolean) {
+            return PropertyType.BOOLEAN;
+        } else if (current instanceof CompactDate) {
+            return PropertyType.DATE;
+        } else if (current instanceof MockBinary) {
+            return PropertyType.BINARY;
+        } else if (current instanceof Value) {
+            return ((Value) current).getType();
+        } else if (current instanceof Value[] && ((Value[]) current).length > 0) {
+            return ((Value[]) current)[0].getType();
+        }
+        return PropertyType.UNDEFINED;
+    }
+
+    Object getOwner() {
+        return owner;
+    }
+
+    void setOwner(Object owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * @return Number of changes of this record
+     */
+    synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Counts a change of this record.
+     * @return Version after the change
+     */
+    synchronized int nextVersion() {
+        return ++version;
+    }
+
+    /**
+     * @return Number of items added below this record
+     */
+    synchronized int getSubtreeVersion() {
+        return subtreeVersion;
+    }
+
+    /**
+     * Counts an item added below this record.
+     * @return Subtree version after the addition
+     */
+    synchronized int nextSubtreeVersion() {
+        return ++subtreeVersion;
+    }
+
+    /**
+     * @return true if the record was added to an item store
+     */
+    boolean isAttached() {
+        return owner != null;
+    }
+
     public Item getItem(Session session) {
         if (isNode) {
             return new MockNode(this, session);
@@ -156,6 +373,17 @@ class ItemData {
         this.isChanged = isChanged;
     }
 
+    /**
+     * Resets the node type, values and state flags to those of the given copy.
+     * @param copy Copy of this item data taken before it was modified
+     */
+    void restoreState(ItemData copy) {
+        this.nodeType = copy.nodeType;
+        this.value = copy.value;
+        this.isNew = copy.isNew;
+        this.isChanged = copy.isChanged;
+    }
+
     @Override
     public int hashCode() {
         return path.hashCode();
@@ -169,15 +397,142 @@ class ItemData {
         return false;
     }
 
-    public static ItemData cloneItemAtNewPath(String destPath, ItemData itemData) {
+    public static ItemData cloneItemAtNewPath(ItemPath destPath, ItemData itemData) {
         return new ItemData(destPath, itemData);
     }
 
-    public static ItemData newNode(String path, NodeType nodeType) {
+    /**
+     * Creates an unowned copy at the same path that references the same child records in the same order.
+     * The child maps are copied, which takes time proportional to the number of child records.
+     * @param itemData the source item data to copy
+     * @return Copy of the item data
+     */
+    static ItemData copyOf(ItemData itemData) {
+        final ItemData copy = new ItemData(itemData.path, itemData);
+        final ChildItemMap childNodes = itemData.childNodes;
+        final ChildItemMap properties = itemData.properties;
+        copy.childNodes = childNodes != null ? childNodes.copy() : null;
+        copy.properties = properties != null ? properties.copy() : null;
+        return copy;
+    }
+
+    /**
+     * Converts a single value to its compact form.
+     * @param value Value
+     * @return Compact value, or the given value if its type has no compact form
+     */
+    private static Object compact(Value value) {
+        try {
+            switch (value.getType()) {
+                case PropertyType.STRING:
+                    return value.getString();
+                case PropertyType.LONG:
+                    return value.getLong();
+                case PropertyType.DOUBLE:
+                    return value.getDouble();
+                case PropertyType.BOOLEAN:
+                    return value.getBoolean();
+                case PropertyType.DATE:
+                    return new CompactDate(value.getDate());
+                default:
+                    return value;
+            }
+        } catch (RepositoryException | IllegalStateException ex) {
+            // the value cannot be read anymore, keep it as it is
+            return value;
+        }
+    }
+
+    /**
+     * Creates a value object for a single stored value.
+     * @param storedValue Single value as returned by {@link #getStoredValue()}
+     * @return Value
+     */
+    static Value toValue(Object storedValue) {
+        final ValueFactory valueFactory = ValueFactoryImpl.getInstance();
+        if (storedValue instanceof String) {
+            return valueFactory.createValue((String) storedValue);
+        } else if (storedValue instanceof Long) {
+            return valueFactory.createValue((Long) storedValue);
+        } else if (storedValue instanceof Double) {
+            return valueFactory.createValue((Double) storedValue);
+        } else if (storedValue instanceof Boolean) {
+            return valueFactory.createValue((Boolean) storedValue);
+        } else if (storedValue instanceof CompactDate) {
+            return valueFactory.createValue(((CompactDate) storedValue).toCalendar());
+        } else if (storedValue instanceof MockBinary) {
+            return valueFactory.createValue((MockBinary) storedValue);
+        }
+        return (Value) storedValue;
+    }
+
+    /**
+     * Returns the length of a single value as defined by {@link javax.jcr.Property#getLength()}:
+     * the size in bytes for binaries, the length of the string representation otherwise.
+     * Binaries are not read, and strings, longs and booleans are not converted.
+     * @param storedValue Single value as returned by {@link #getStoredValue()}, or one of multiple values
+     * @return Length
+     * @throws RepositoryException if the value cannot be converted to a string
+     */
+    static long getLength(Object storedValue) throws RepositoryException {
+        if (storedValue instanceof String) {
+            return ((String) storedValue).length();
+        } else if (storedValue instanceof MockBinary) {
+            return ((MockBinary) storedValue).getSize();
+        } else if (storedValue instanceof Long) {
+            return getDecimalLength((Long) storedValue);
+        } else if (storedValue instanceof Boolean) {
+            return (Boolean) storedValue ? 4 : 5;
+        } else if (storedValue instanceof Value && ((Value) storedValue).getType() == PropertyType.BINARY) {
+            return ((Value) storedValue).getBinary().getSize();
+        }
+        return toValue(storedValue).getString().length();
+    }
+
+    /**
+     * @param value Long value
+     * @return Number of characters of the decimal representation, including the sign
+     */
+    private static int getDecimalLength(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        int length = value < 0 ? 2 : 1;
+        for (long rest = Math.abs(value); rest >= 10; rest /= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    public static ItemData newNode(ItemPath path, NodeType nodeType) {
         return new ItemData(path, true, UUID.randomUUID().toString(), nodeType);
     }
 
-    public static ItemData newProperty(String path) {
+    public static ItemData newProperty(ItemPath path) {
         return new ItemData(path, false, null, null);
     }
+
+    /**
+     * Date value stored as epoch milliseconds and a shared time zone instance.
+     */
+    static final class CompactDate {
+
+        private final long timeInMillis;
+        private final TimeZone timeZone;
+
+        CompactDate(Calendar calendar) {
+            final TimeZone zone = (TimeZone) calendar.getTimeZone().clone();
+            this.timeInMillis = calendar.getTimeInMillis();
+            this.timeZone = TIME_ZONES.computeIfAbsent(zone, key -> key);
+        }
+
+        /**
+         * @return New calendar with the stored time and time zone
+         */
+        Calendar toCalendar() {
+            final Calendar calendar = Calendar.getInstance((TimeZone) timeZone.clone());
+            calendar.setTimeInMillis(timeInMillis);
+            return calendar;
+        }
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+/**
+ * Immutable absolute item path. Each path holds its last segment and a pointer
+ * to its parent path, so the paths of sibling and descendant items share their
+ * common prefix. The segment names of item records are canonicalized by the
+ * name table of the repository, the depth and the hash code are computed once,
+ * and the parent, name and ancestors are available without parsing a path string.
+ * <p>
+ * The path string is built on demand and is not retained.
+ * </p>
+ */
+final class ItemPath {
+
+    /**
+     * Root path.
+     */
+    static final ItemPath ROOT = new ItemPath(null, "");
+
+    private final ItemPath parent;
+    private final String name;
+    private final int depth;
+    private final int hash;
+
+    private ItemPath(ItemPath parent, String name) {
+        this.parent = parent;
+        this.name = name;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.hash = parent == null ? 0 : 31 * parent.hash + name.hashCode();
+    }
+
+    /**
+     * @param path Normalized absolute path
+     * @return Item path
+     * @throws IllegalArgumentException if the path is not absolute
+     */
+    static ItemPath of(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            throw new IllegalArgumentException("Path is not absolute: " + path);
+        }
+        ItemPath result = ROOT;
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                result = result.child(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /**
+     * @param childName Name of a child item, must not contain a slash
+     * @return Path of the child item
+     */
+    ItemPath child(String childName) {
+        return new ItemPath(this, childName);
+    }
+
+    /**
+     * @return Parent path, or null for the root path
+     */
+    ItemPath getParent() {
+        return parent;
+    }
+
+    /**
+     * @return Last segment, the empty string for the root path
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return Number of segments, 0 for the root path
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @param ancestorDepth Depth of the ancestor
+     * @return Ancestor path at the given depth, this path for its own depth, or null if there is no such ancestor
+     */
+    ItemPath getAncestor(int ancestorDepth) {
+        if (ancestorDepth < 0 || ancestorDepth > depth) {
+            return null;
+        }
+        ItemPath ancestor = this;
+        while (ancestor.depth > ancestorDepth) {
+            ancestor = ancestor.parent;
+        }
+        return ancestor;
+    }
+
+    /**
+     * @param other Item path
+     * @return true if this path is a descendant of the given path, but not the same path
+     */
+    boolean isDescendantOf(ItemPath other) {
+        return depth > other.depth && other.equals(getAncestor(other.depth));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ItemPath)) {
+            return false;
+        }
+        ItemPath path = this;
+        ItemPath other = (ItemPath) obj;
+        if (path.hash != other.hash || path.depth != other.depth) {
+            return false;
+        }
+        // paths of item records share their prefixes, which ends the comparison early
+        while (path != other) {
+            if (!path.name.equals(other.name)) {
+                return false;
+            }
+            path = path.parent;
+            other = other.parent;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (parent == null) {
+            return "/";
+        }
+        final StringBuilder builder = new StringBuilder();
+        appendTo(builder);
+        return builder.toString();
+    }
+
+    private void appendTo(StringBuilder builder) {
+        if (parent.parent != null) {
+            parent.appendTo(builder);
+        }
+        builder.append('/').append(name);
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Tree-shaped store for the {@link ItemData} records of a repository. Each node
+ * record holds its child nodes and properties in ordered maps, so structural
+ * operations only touch the affected subtree. A path index and an identifier
+ * index allow direct lookup of items by absolute path and of nodes by identifier.
+ * The path index is keyed by {@link ItemPath}, so records do not hold path strings.
+ * <p>
+ * A store can be forked in constant time. Records and the persistent index tries
+ * are shared between the forks. A record is only modified in place by the store
+ * that owns it, all other stores copy a record and its ancestors before modifying it.
+ * Copying a node record copies its maps of child records, while the child records
+ * themselves stay shared. So the first change below a node in a fork takes time and
+ * memory proportional to the number of children of the node and of its ancestors.
+ * </p>
+ * <p>
+ * In concurrent mode lookups need no locking, while structural changes are
+ * serialized per parent node by striped locks. Changes that affect a whole
+ * subtree, like replacing, removing or moving a node, acquire all locks.
+ * </p>
+ */
+class ItemStore {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private volatile ItemData root;
+    private final HashTrieMap<ItemPath, ItemData> itemsByPath;
+    private final HashTrieMap<String, ItemData> nodesByIdentifier;
+    private final StripedLock locks;
+    // owner marker of the records this store may modify in place
+    private volatile Object generation = new Object();
+
+    ItemStore() {
+        this(false);
+    }
+
+    /**
+     * @param concurrent true if the store is accessed by sessions on several threads
+     */
+    ItemStore(boolean concurrent) {
+        this.itemsByPath = new HashTrieMap<>(concurrent);
+        this.nodesByIdentifier = new HashTrieMap<>(concurrent);
+        this.locks = concurrent ? new StripedLock(LOCK_STRIPES) : StripedLock.NONE;
+        this.root = ItemData.newNode(ItemPath.ROOT, MockNodeTypes.NT_UNSTRUCTURED);
+        this.root.setIsNew(false);
+        attach(root);
+    }
+
+    private ItemStore(ItemStore store) {
+        this.itemsByPath = store.itemsByPath.fork();
+        this.nodesByIdentifier = store.nodesByIdentifier.fork();
+        this.locks = store.isConcurrent() ? new StripedLock(LOCK_STRIPES) : StripedLock.NONE;
+        this.root = store.root;
+    }
+
+    /**
+     * Creates a store with the same content. All existing records are shared by
+     * both stores afterwards and are copied by either store before modifying them.
+     * @return New store
+     */
+    ItemStore fork() {
+        try (StripedLock.Held held = locks.lockAll()) {
+            synchronized (this) {
+                generation = new Object();
+                return new ItemStore(this);
+            }
+        }
+    }
+
+    /**
+     * @return true if the store may be accessed by sessions on several threads
+     */
+    boolean isConcurrent() {
+        return locks != StripedLock.NONE;
+    }
+
+    /**
+     * @return Root node record
+     */
+    ItemData getRoot() {
+        return root;
+    }
+
+    /**
+     * Looks up an item by walking the child maps from the root with the segments of the path,
+     * without building an item path.
+     * @param path Normalized path
+     * @return Item record or null if the path is not absolute or the item does not exist
+     */
+    ItemData get(String path) {
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+        ItemData current = root;
+        int start = 1;
+        while (current != null && start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                final String name = path.substring(start, end);
+                final ItemData node = current.getChildNodes().get(name);
+                if (node == null && end == path.length()) {
+                    return current.getProperties().get(name);
+                }
+                current = node;
+            }
+            start = end + 1;
+        }
+        return current;
+    }
+
+    /**
+     * @param path Item path
+     * @return Item record or null if it does not exist
+     */
+    ItemData get(ItemPath path) {
+        return path != null ? itemsByPath.get(path) : null;
+    }
+
+    /**
+     * @param identifier Node identifier
+     * @return Node record or null if it does not exist
+     */
+    ItemData getByIdentifier(String identifier) {
+        return nodesByIdentifier.get(identifier);
+    }
+
+    /**
+     * @param itemData Item record
+     * @return true if the record is not shared with another store and may be modified in place
+     */
+    boolean owns(ItemData itemData) {
+        return itemData.getOwner() == null || itemData.getOwner() == generation;
+    }
+
+    /**
+     * Returns the current record of an item that may be out of date because it
+     * was copied before a modification.
+     * @param itemData Item record
+     * @return Record at the same path if it represents the same item, otherwise the given record
+     */
+    ItemData current(ItemData itemData) {
+        if (owns(itemData)) {
+            return itemData;
+        }
+        final ItemData current = itemsByPath.get(itemData.getItemPath());
+        return current != null && isSameItem(current, itemData) ? current : itemData;
+    }
+
+    /**
+     * Returns a record that may be modified in place. A shared record is copied
+     * first, together with all its shared ancestors.
+     * @param itemData Item record
+     * @return Record owned by this store, or a detached copy if the given record was removed from the store
+     */
+    ItemData writable(ItemData itemData) {
+        if (owns(itemData)) {
+            return itemData;
+        }
+        synchronized (this) {
+            return copyOnWrite(itemData);
+        }
+    }
+
+    private ItemData copyOnWrite(ItemData itemData) {
+        if (owns(itemData)) {
+            return itemData;
+        }
+        final ItemData current = itemsByPath.get(itemData.getItemPath());
+        if (current != itemData) {
+            return current != null && isSameItem(current, itemData) ? copyOnWrite(current) : ItemData.copyOf(itemData);
+        }
+        final ItemData copy = ItemData.copyOf(itemData);
+        copy.setOwner(generation);
+        final ItemPath parentPath = copy.getItemPath().getParent();
+        if (parentPath == null) {
+            root = copy;
+        } else {
+            final ItemData parent = copyOnWrite(itemsByPath.get(parentPath));
+            siblingsForUpdate(parent, copy).put(copy.getName(), copy);
+        }
+        index(copy);
+        return copy;
+    }
+
+    /**
+     * Adds or replaces an item below its parent node. If a node is replaced by
+     * another node its existing children are kept.
+     * @param itemData Item record, including any descendants already linked to it
+     * @throws PathNotFoundException if the parent node does not exist
+     */
+    void add(ItemData itemData) throws RepositoryException {
+        final ItemPath parentPath = itemData.getItemPath().getParent();
+        StripedLock.Held held = locks.lock(parentPath);
+        try {
+            if (itemsByPath.get(itemData.getItemPath()) != null) {
+                // replacing an item affects its subtree
+                held.close();
+                held = locks.lockAll();
+                synchronized (this) {
+                    addLocked(itemData, parentPath);
+                }
+            } else {
+                addLocked(itemData, parentPath);
+            }
+        } finally {
+            held.close();
+        }
+    }
+
+    private void addLocked(ItemData itemData, ItemPath parentPath) throws RepositoryException {
+        final ItemData parent = get(parentPath);
+        if (parent == null || !parent.isNode()) {
+            throw new PathNotFoundException(String.format("No parent node found at: %s.", parentPath));
+        }
+
+        final ItemData existing = itemsByPath.get(itemData.getItemPath());
+        if (existing != null) {
+            if (existing.isNode() && itemData.isNode()) {
+                // a shared record is only re-added when a replacement is undone, it still holds the original children
+                if (owns(itemData)) {
+                    if (!existing.getChildNodes().isEmpty()) {
+                        itemData.getOrCreateChildNodes(isConcurrent()).putAll(existing.getChildNodes());
+                    }
+                    if (!existing.getProperties().isEmpty()) {
+                        itemData.getOrCreateProperties(isConcurrent()).putAll(existing.getProperties());
+                    }
+                }
+                unindex(existing);
+            } else if (existing.isNode() != itemData.isNode()) {
+                remove(existing);
+            }
+        }
+
+        siblingsForUpdate(writable(parent), itemData).put(itemData.getName(), itemData);
+        forEachInSubtree(itemData, this::attach);
+    }
+
+    /**
+     * Removes an item and all its descendants.
+     * @param itemData Item record
+     */
+    void remove(ItemData itemData) {
+        try (StripedLock.Held held = locks.lockAll()) {
+            synchronized (this) {
+                final ItemData parent = get(itemData.getItemPath().getParent());
+                if (parent != null) {
+                    siblings(writable(parent), itemData).remove(itemData.getName(), itemData);
+                }
+                forEachInSubtree(itemData, this::unindex);
+            }
+        }
+    }
+
+    /**
+     * Moves a node and all its descendants to a new path. The node is added as last child of its new parent.
+     * @param source Node record
+     * @param destPath Destination path
+     * @return Node record at the new path
+     * @throws PathNotFoundException if the destination parent node does not exist
+     */
+    ItemData move(ItemData source, ItemPath destPath) throws RepositoryException {
+        if (destPath.isDescendantOf(source.getItemPath())) {
+            throw new RepositoryException("The destination path must not be a descendant of the source path");
+        }
+        try (StripedLock.Held held = locks.lockAll()) {
+            final ItemData destParent = get(destPath.getParent());
+            if (destParent == null || !destParent.isNode()) {
+                throw new PathNotFoundException("The destination parent path does not exist");
+            }
+            remove(source);
+            final ItemData moved = cloneSubtreeAtNewPath(destPath, source);
+            add(moved);
+            return moved;
+        }
+    }
+
+    /**
+     * Applies changes made in a fork of an older version of this store. For each changed
+     * path the item in the other store replaces the item in this store, or the item is removed
+     * if it does not exist in the other store. Changes made in this store to other paths are kept.
+     * @param source Store the changes were made in
+     * @param changedPaths Paths of the added, modified and removed items
+     * @param orderedPaths Paths of the nodes whose child nodes were reordered
+     * @throws InvalidItemStateException if the parent of a changed item no longer exists in this store
+     */
+    void apply(ItemStore source, Collection<ItemPath> changedPaths, Collection<ItemPath> orderedPaths)
+            throws RepositoryException {
+        final List<ItemPath> paths = new ArrayList<>(changedPaths);
+        paths.sort(Comparator.comparingInt(ItemPath::getDepth));
+        for (ItemPath path : paths) {
+            final ItemData changed = source.get(path);
+            final ItemData current = get(path);
+            if (changed == current) {
+                continue;
+            }
+            if (changed == null) {
+                remove(current);
+                continue;
+            }
+            final ItemPath parentPath = path.getParent();
+            final ItemData parent = get(parentPath);
+            if (parentPath != null && (parent == null || !parent.isNode())) {
+                throw new InvalidItemStateException(
+                        String.format("Parent of %s was removed by another session.", path));
+            }
+            if (current != null && changed.isNode() && isSameItem(current, changed)) {
+                // keep the child items of the node in this store, changed child items have their own path
+                writable(current).restoreState(changed);
+            } else {
+                add(changed);
+            }
+        }
+        for (ItemPath path : orderedPaths) {
+            final ItemData changed = source.get(path);
+            final ItemData current = get(path);
+            if (changed != null && current != null && changed != current && isSameItem(current, changed)) {
+                reorderChildNodes(writable(current).getChildNodes(), changed.getChildNodes());
+            }
+        }
+    }
+
+    /**
+     * Puts the child nodes that exist in both maps into the order of the changed map,
+     * at the positions they occupy in the target map.
+     */
+    private static void reorderChildNodes(ChildItemMap target, ChildItemMap changed) {
+        final List<String> commonNames = new ArrayList<>();
+        for (String name : changed.keySet()) {
+            if (target.containsKey(name)) {
+                commonNames.add(name);
+            }
+        }
+        final Iterator<String> commonNamesInOrder = commonNames.iterator();
+        final List<String> names = new ArrayList<>(target.size());
+        for (String name : target.keySet()) {
+            names.add(changed.containsKey(name) ? commonNamesInOrder.next() : name);
+        }
+        for (String name : names) {
+            target.orderBefore(name, null);
+        }
+    }
+
+    /**
+     * @param itemData Item record
+     * @return Record of the next sibling of the same kind, or null if the item is the last one
+     */
+    ItemData nextSibling(ItemData itemData) {
+        final ItemData parent = get(itemData.getItemPath().getParent());
+        return parent != null ? siblings(parent, itemData).next(itemData.getName()) : null;
+    }
+
+    /**
+     * Moves an item before the given sibling. Only the position of the moved item is changed.
+     * @param source Item record to move
+     * @param destination Sibling record, or null to move the item to the end of the list
+     */
+    void orderBefore(ItemData source, ItemData destination) {
+        final ItemPath parentPath = source.getItemPath().getParent();
+        try (StripedLock.Held held = locks.lock(parentPath)) {
+            final ItemData parent = get(parentPath);
+            if (parent == null) {
+                return;
+            }
+            final ChildItemMap siblings = siblings(writable(parent), source);
+            String beforeName = null;
+            if (destination != null) {
+                final ItemData sibling = siblings.get(destination.getName());
+                if (sibling != null
+                        && (sibling == destination || !owns(destination) && isSameItem(sibling, destination))) {
+                    beforeName = destination.getName();
+                }
+            }
+            siblings.orderBefore(source.getName(), beforeName);
+        }
+    }
+
+    private void attach(ItemData itemData) {
+        if (itemData.getOwner() == null) {
+            itemData.setOwner(generation);
+        }
+        index(itemData);
+    }
+
+    private void index(ItemData itemData) {
+        itemsByPath.put(itemData.getItemPath(), itemData);
+        if (itemData.isNode()) {
+            nodesByIdentifier.put(itemData.getUuid(), itemData);
+        }
+    }
+
+    private void unindex(ItemData itemData) {
+        itemsByPath.remove(itemData.getItemPath(), itemData);
+        if (itemData.isNode()) {
+            nodesByIdentifier.remove(itemData.getUuid(), itemData);
+        }
+    }
+
+    private static boolean isSameItem(ItemData itemData, ItemData other) {
+        if (itemData.isNode()) {
+            return other.isNode() && itemData.getUuid().equals(other.getUuid());
+        }
+        return other.isProperty();
+    }
+
+    private static ChildItemMap siblings(ItemData parent, ItemData child) {
+        return child.isNode() ? parent.getChildNodes() : parent.getProperties();
+    }
+
+    private ChildItemMap siblingsForUpdate(ItemData parent, ItemData child) {
+        return child.isNode()
+                ? parent.getOrCreateChildNodes(isConcurrent())
+                : parent.getOrCreateProperties(isConcurrent());
+    }
+
+    private ItemData cloneSubtreeAtNewPath(ItemPath destPath, ItemData itemData) {
+        final ItemData clone = ItemData.cloneItemAtNewPath(destPath, itemData);
+        if (itemData.isNode()) {
+            for (ItemData property : itemData.getProperties().values()) {
+                clone.getOrCreateProperties(isConcurrent())
+                        .put(
+                                property.getName(),
+                                ItemData.cloneItemAtNewPath(destPath.child(property.getName()), property));
+            }
+            for (ItemData childNode : itemData.getChildNodes().values()) {
+                clone.getOrCreateChildNodes(isConcurrent())
+                        .put(
+                                childNode.getName(),
+                                cloneSubtreeAtNewPath(destPath.child(childNode.getName()), childNode));
+            }
+        }
+        return clone;
+    }
+
+    /**
+     * Visits the given item and all its descendants, parents before children.
+     */
+    static void forEachInSubtree(ItemData itemData, Consumer<ItemData> action) {
+        final Deque<ItemData> pending = new ArrayDeque<>();
+        pending.push(itemData);
+        while (!pending.isEmpty()) {
+            final ItemData item = pending.pop();
+            action.accept(item);
+            if (item.isNode()) {
+                item.getProperties().values().forEach(action);
+                item.getChildNodes().values().forEach(pending::push);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.Binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+
+/**
+ * Mock {@link Binary} implementation. Binaries are immutable and may be shared by
+ * several properties, so {@link #dispose()} does nothing.
+ * <p>
+ * Small binaries are held on the heap, larger ones in a memory-mapped temporary file
+ * created by {@link BinaryStore}. The file is deleted once the binary is no longer referenced,
+ * or earlier by the store, see {@link BinaryStore}.
+ * </p>
+ */
+abstract class MockBinary implements Binary {
+
+    // store that created the binary, null until it was added to a store
+    private volatile BinaryStore store;
+
+    /**
+     * @return Store that created the binary, or null
+     */
+    BinaryStore getStore() {
+        return store;
+    }
+
+    void setStore(BinaryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public abstract long getSize();
+
+    @Override
+    public int read(final byte[] b, final long position) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+        if (position >= getSize()) {
+            return -1;
+        }
+        final int length = (int) Math.min(b.length, getSize() - position);
+        return read(b, 0, length, position);
+    }
+
+    /**
+     * Reads bytes from the given position. The range must lie within the binary.
+     * @param b Target array
+     * @param offset Offset in the target array
+     * @param length Number of bytes to read
+     * @param position Position in the binary
+     * @return Number of bytes read
+     * @throws IOException if reading fails
+     */
+    abstract int read(byte[] b, int offset, int length, long position) throws IOException;
+
+    /**
+     * Reads a single byte. The position must lie within the binary.
+     * @param position Position in the binary
+     * @return Byte as an unsigned value
+     */
+    abstract int read(long position);
+
+    @Override
+    public InputStream getStream() {
+        return new BinaryInputStream(this);
+    }
+
+    @Override
+    public void dispose() {
+        // binaries are shared and cleaned up once they are no longer referenced
+    }
+
+    /**
+     * Binary held in a byte array.
+     */
+    static final class Inline extends MockBinary {
+
+        private final byte[] data;
+
+        Inline(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long getSize() {
+            return data.length;
+        }
+
+        @Override
+        int read(final byte[] b, final int offset, final int length, final long position) {
+            System.arraycopy(data, (int) position, b, offset, length);
+            return length;
+        }
+
+        @Override
+        int read(final long position) {
+            return data[(int) position] & 0xff;
+        }
+
+        @Override
+        public InputStream getStream() {
+            return new ByteArrayInputStream(data);
+        }
+    }
+
+    /**
+     * Binary held in a memory-mapped temporary file. Reads copy directly from the mapped
+     * file to the target array, without reading the file into the heap first. Files larger
+     * than {@link #SEGMENT_SIZE} are mapped in several segments.
+     */
+    static final class FileBacked extends MockBinary {
+
+        static final int SEGMENT_SIZE = 1 << 30;
+
+        private final int segmentSize;
+        private final ByteBuffer[] segments;
+        private final long size;
+
+        FileBacked(final Path file, final Cleaner cleaner) throws IOException {
+            this(file, cleaner, SEGMENT_SIZE);
+        }
+
+        /**
+         * @param file Temporary file, deleted once this binary is no longer referenced
+         * @param cleaner Cleaner to register the deletion with
+         * @param segmentSize Maximum size of a mapped segment
+         * @throws IOException if the file cannot be mapped
+         */
+        FileBacked(final Path file, final Cleaner cleaner, final int segmentSize) throws IOException {
+            this.segmentSize = segmentSize;
+            try (FileChannel channel = FileChannel.open(file)) {
+                this.size = channel.size();
+                this.segments = new ByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+                for (int i = 0; i < segments.length; i++) {
+                    final long start = (long) i * segmentSize;
+                    segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+                }
+            }
+            // the mapping stays valid after the channel is closed
+            cleaner.register(this, new Cleanup(file));
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        int read(final byte[] b, final int offset, final int length, final long position) {
+            int count = 0;
+            while (count < length) {
+                final long current = position + count;
+                // duplicate, so that concurrent reads do not share a buffer position
+                final ByteBuffer segment = segments[(int) (current / segmentSize)].duplicate();
+                segment.position((int) (current % segmentSize));
+                final int chunk = Math.min(length - count, segment.remaining());
+                segment.get(b, offset + count, chunk);
+                count += chunk;
+            }
+            return count;
+        }
+
+        @Override
+        int read(final long position) {
+            // absolute get, which does not change the position of the shared buffer
+            return segments[(int) (position / segmentSize)].get((int) (position % segmentSize)) & 0xff;
+        }
+    }
+
+    /**
+     * Deletes the file of a binary that is no longer referenced. It must not reference
+     * the binary itself. The mapped segments are only referenced by the binary, so they
+     * are unreachable when this runs, but they are unmapped by the garbage collector at
+     * some later point. Platforms that do not allow deleting a mapped file fail the
+     * deletion, which is logged, and the file is deleted on JVM exit.
+     */
+    private static final class Cleanup implements Runnable {
+
+        private final Path file;
+
+        Cleanup(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            BinaryStore.deleteFile(file);
+        }
+    }
+
+    /**
+     * Stream reading a binary from its start. It keeps the binary referenced while it is open.
+     */
+    private static final class BinaryInputStream extends InputStream {
+
+        private final MockBinary binary;
+        private long position;
+        private long mark;
+
+        BinaryInputStream(MockBinary binary) {
+            this.binary = binary;
+        }
+
+        @Override
+        public int read() {
+            return position < binary.getSize() ? binary.read(position++) : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final long remaining = binary.getSize() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int count = binary.read(b, off, (int) Math.min(len, remaining), position);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long count = Math.max(0, Math.min(n, binary.getSize() - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, binary.getSize() - position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(final int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+    }
+}
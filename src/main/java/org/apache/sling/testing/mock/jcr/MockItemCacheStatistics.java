@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Counters of the item cache of a mocked session.
+ * Use {@link MockJcr#setItemCacheEnabled(javax.jcr.Session, boolean)} to enable the cache and
+ * {@link MockJcr#getItemCacheStatistics(javax.jcr.Session)} to read the counters.
+ */
+@ProviderType
+public final class MockItemCacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final int size;
+
+    MockItemCacheStatistics(long hits, long misses, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+    }
+
+    /**
+     * @return Number of lookups that returned a cached item
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that created a new item
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Ratio of hits to all lookups, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0d;
+    }
+
+    /**
+     * @return Number of cached items
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "MockItemCacheStatistics[hits=" + hits + ",misses=" + misses + ",size=" + size + "]";
+    }
+}
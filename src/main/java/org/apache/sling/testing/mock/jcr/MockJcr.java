@@ -70,6 +70,55 @@ public final class MockJcr {
         return new MockRepository();
     }
 
+    /**
+     * Create a new mocked in-memory JCR repository that can be used by sessions on
+     * several threads at the same time. Reads need no locking, and structural changes
+     * below different parent nodes can run in parallel. Each session should still be
+     * used by only one thread at a time.
+     * @return JCR repository
+     */
+    public static @NotNull Repository newConcurrentRepository() {
+        return new MockRepository(true, false);
+    }
+
+    /**
+     * Create a new mocked in-memory JCR repository in which each session works on its
+     * own consistent snapshot of the content. Changes of other sessions become visible
+     * after {@link Session#save()} or {@link Session#refresh(boolean)}, and saving commits
+     * the changes of a session atomically. Snapshots share all unchanged items, so sessions
+     * are cheap to open, and they can run on several threads without blocking readers.
+     * The first change of a session below a node copies the node and its ancestors, including
+     * their lists of child items, which takes time proportional to the number of children.
+     * @return JCR repository
+     */
+    public static @NotNull Repository newIsolatedRepository() {
+        return new MockRepository(true, true);
+    }
+
+    /**
+     * Create a new mocked in-memory JCR repository with the content, node types and
+     * namespaces of the given snapshot. This takes constant time: the content is shared
+     * with the snapshot, and only the items modified in the new repository and their
+     * ancestors are copied. Copying a node copies its list of child items, so the first
+     * change below a node with many children takes time proportional to their number.
+     * @param snapshot Repository snapshot
+     * @return JCR repository
+     */
+    public static @NotNull Repository newRepository(@NotNull MockRepositorySnapshot snapshot) {
+        return new MockRepository(snapshot);
+    }
+
+    /**
+     * Freezes the current content, node types and namespaces of a mocked repository into
+     * an immutable snapshot, including unsaved changes. The repository can still be used;
+     * items modified in it afterwards are copied first, so the snapshot is not affected.
+     * @param repository Mocked JCR repository
+     * @return Repository snapshot
+     */
+    public static @NotNull MockRepositorySnapshot snapshot(@NotNull Repository repository) {
+        return ((MockRepository) repository).snapshot();
+    }
+
     /**
      * Create a new mocked in-memory JCR session. It contains only the root
      * node. All data of the session is thrown away if it gets garbage
@@ -99,6 +148,90 @@ public final class MockJcr {
         }
     }
 
+    /**
+     * Enables or disables the identity cache of a mocked session. With the cache enabled, repeated
+     * lookups of the same item through the session, its nodes or child iterators return the same
+     * node or property object as long as the item is not removed, moved or replaced. Cached objects
+     * are softly referenced and may be reclaimed by the garbage collector.
+     * @param session Mocked JCR session
+     * @param enabled true to enable the cache, false to disable it and drop all cached objects
+     */
+    public static void setItemCacheEnabled(@NotNull final Session session, final boolean enabled) {
+        ((MockSession) session).setItemCacheEnabled(enabled);
+    }
+
+    /**
+     * Returns the hit and miss counters of the identity cache of a mocked session.
+     * @param session Mocked JCR session
+     * @return Cache statistics, all zero if the cache is not enabled
+     */
+    public static @NotNull MockItemCacheStatistics getItemCacheStatistics(@NotNull final Session session) {
+        return ((MockSession) session).getItemCacheStatistics();
+    }
+
+    /**
+     * Sets the size up to which binary property values of a mocked repository are held on the heap.
+     * Larger binaries are written to temporary files and read from there, so fixtures with large
+     * assets do not fill the heap. A file is deleted once its binary is no longer referenced, e.g.
+     * after the repository was discarded, and on JVM exit at the latest. The threshold applies to
+     * binaries stored afterwards, and is shared with snapshots and the repositories created from them.
+     * @param repository Mocked JCR repository
+     * @param threshold Size in bytes, 64 KB by default
+     */
+    public static void setBinaryThreshold(@NotNull final Repository repository, final int threshold) {
+        ((MockRepository) repository).getBinaryStore().setThreshold(threshold);
+    }
+
+    /**
+     * Enables or disables evaluating JCR-SQL2 and XPath queries against the content of a mocked repository.
+     * Queries are only evaluated if no result handler returned a result for them. The query engine
+     * supports a single selector with property, node name, path and full-text constraints, and ordering.
+     * XPath queries support wildcards and descendant steps only in the last step of the path.
+     * It is disabled by default, so queries without a result handler return an empty result.
+     * Results are evaluated again each time they are iterated. Without a limit, the iterators of a result
+     * report its size. With a limit, the nodes are read lazily and the size is reported as unknown (-1).
+     * @param repository Mocked JCR repository
+     * @param enabled true to enable the query engine
+     */
+    public static void setQueryEngineEnabled(@NotNull final Repository repository, final boolean enabled) {
+        ((MockRepository) repository).setQueryEngineEnabled(enabled);
+    }
+
+    /**
+     * Adds an equality index for a property to the repository of a mocked session. The query engine
+     * uses it for = and IN constraints on the property instead of traversing the content. Existing
+     * content of the repository and the session is indexed right away, later changes of all sessions
+     * when they are written. Add indexes before other sessions of an isolated repository make changes.
+     * @param session Mocked JCR session
+     * @param propertyName Property name
+     */
+    public static void addPropertyIndex(@NotNull final Session session, @NotNull final String propertyName) {
+        ((MockSession) session).addPropertyIndex(propertyName, false);
+    }
+
+    /**
+     * Adds an ordered index for a property to the repository of a mocked session. Besides = and IN
+     * constraints, the query engine uses it for range constraints, and for queries ordered by the
+     * property that only select nodes having it, which are then read in order instead of being sorted.
+     * It replaces an index added with {@link #addPropertyIndex(Session, String)}, and is maintained the same way.
+     * @param session Mocked JCR session
+     * @param propertyName Property name
+     */
+    public static void addOrderedPropertyIndex(@NotNull final Session session, @NotNull final String propertyName) {
+        ((MockSession) session).addPropertyIndex(propertyName, true);
+    }
+
+    /**
+     * Adds a full-text index to the repository of a mocked session. The query engine uses it for
+     * CONTAINS and jcr:contains constraints instead of traversing the content. It indexes the words
+     * of all property values, and is maintained like a property index. Without it, full-text
+     * constraints are evaluated on all traversed nodes.
+     * @param session Mocked JCR session
+     */
+    public static void addFullTextIndex(@NotNull final Session session) {
+        ((MockSession) session).addFullTextIndex();
+    }
+
     /**
      * Sets the expected result list for all queries executed with the given query manager.
      * @param session JCR session
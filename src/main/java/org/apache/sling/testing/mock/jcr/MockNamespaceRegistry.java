@@ -27,7 +27,8 @@ import org.apache.commons.collections4.BidiMap;
 import org.apache.commons.collections4.bidimap.TreeBidiMap;
 
 /**
- * Mock {@link NamespaceRegistry} implementation.
+ * Mock {@link NamespaceRegistry} implementation. Access is synchronized, as the
+ * registry is shared by all sessions of a repository.
  */
 class MockNamespaceRegistry implements NamespaceRegistry {
 
@@ -37,34 +38,44 @@ class MockNamespaceRegistry implements NamespaceRegistry {
         this.namespacePrefixMapping.put("jcr", "http://www.jcp.org/jcr/1.0");
     }
 
+    /**
+     * Creates a registry with the same namespaces as the given one.
+     * @param other Namespace registry to copy
+     */
+    MockNamespaceRegistry(final MockNamespaceRegistry other) {
+        synchronized (other) {
+            this.namespacePrefixMapping.putAll(other.namespacePrefixMapping);
+        }
+    }
+
     @Override
-    public String getURI(final String prefix) throws RepositoryException {
+    public synchronized String getURI(final String prefix) throws RepositoryException {
         return this.namespacePrefixMapping.get(prefix);
     }
 
     @Override
-    public String getPrefix(final String uri) throws RepositoryException {
+    public synchronized String getPrefix(final String uri) throws RepositoryException {
         return this.namespacePrefixMapping.getKey(uri);
     }
 
     @Override
-    public void registerNamespace(final String prefix, final String uri) throws RepositoryException {
+    public synchronized void registerNamespace(final String prefix, final String uri) throws RepositoryException {
         this.namespacePrefixMapping.put(prefix, uri);
     }
 
     @Override
-    public void unregisterNamespace(final String prefix) throws RepositoryException {
+    public synchronized void unregisterNamespace(final String prefix) throws RepositoryException {
         this.namespacePrefixMapping.remove(prefix);
     }
 
     @Override
-    public String[] getPrefixes() throws RepositoryException {
+    public synchronized String[] getPrefixes() throws RepositoryException {
         Set<String> keys = this.namespacePrefixMapping.keySet();
         return keys.toArray(new String[keys.size()]);
     }
 
     @Override
-    public String[] getURIs() throws RepositoryException {
+    public synchronized String[] getURIs() throws RepositoryException {
         Set<String> values = this.namespacePrefixMapping.values();
         return values.toArray(new String[values.size()]);
     }
@@ -77,7 +77,7 @@ class MockNode extends AbstractItem implements Node {
 
     @Override
     public Node addNode(final String relPath, final String primaryNodeTypeName) throws RepositoryException {
-        String path = makeAbsolutePath(relPath);
+        ItemPath path = getMockedSession().newItemPath(makeItemPath(relPath));
         NodeType nodeType = getSession().getWorkspace().getNodeTypeManager().getNodeType(primaryNodeTypeName);
         ItemData itemData = ItemData.newNode(path, nodeType);
         Node node = new MockNode(itemData, getSession());
@@ -150,87 +150,87 @@ class MockNode extends AbstractItem implements Node {
 
     @Override
     public Node getNode(final String relPath) throws RepositoryException {
+        final ItemData itemData = resolve(relPath, true);
+        if (itemData != null) {
+            return (Node) getMockedSession().toItem(itemData);
+        }
+        // throws the exception matching the item found at the path, if any
         String path = makeAbsolutePath(relPath);
         return getSession().getNode(path);
     }
 
     @Override
     public NodeIterator getNodes() throws RepositoryException {
-        RangeIterator items = getMockedSession().listChildren(getPath(), new ItemFilter() {
-            @Override
-            public boolean accept(final ItemData item) throws RepositoryException {
-                return item.isNode();
-            }
-        });
-        return new NodeIteratorAdapter(items, items.getSize());
+        RangeIterator items = getMockedSession().listChildNodes(getItemData().getItemPath(), null);
+        return new NodeIteratorAdapter(items);
     }
 
     @Override
     public NodeIterator getNodes(final String namePattern) throws RepositoryException {
         final Pattern pattern = Pattern.compile(namePattern);
-        RangeIterator items = getMockedSession().listChildren(getPath(), new ItemFilter() {
+        RangeIterator items = getMockedSession().listChildNodes(getItemData().getItemPath(), new ItemFilter() {
             @Override
             public boolean accept(final ItemData item) throws RepositoryException {
-                return item.isNode() && pattern.matcher(item.getName()).matches();
+                return pattern.matcher(item.getName()).matches();
             }
         });
-        return new NodeIteratorAdapter(items, items.getSize());
+        return new NodeIteratorAdapter(items);
     }
 
     @Override
     public NodeIterator getNodes(final String[] nameGlobs) throws RepositoryException {
-        RangeIterator items = getMockedSession().listChildren(getPath(), new ItemFilter() {
+        RangeIterator items = getMockedSession().listChildNodes(getItemData().getItemPath(), new ItemFilter() {
             @Override
             public boolean accept(final ItemData item) throws RepositoryException {
-                return item.isNode() && ItemNameMatcher.matches(item.getName(), nameGlobs);
+                return ItemNameMatcher.matches(item.getName(), nameGlobs);
             }
         });
-        return new NodeIteratorAdapter(items, items.getSize());
+        return new NodeIteratorAdapter(items);
     }
 
     @Override
     public PropertyIterator getProperties() throws RepositoryException {
-        RangeIterator items = getMockedSession().listChildren(getPath(), new ItemFilter() {
-            @Override
-            public boolean accept(final ItemData item) throws RepositoryException {
-                return item.isProperty();
-            }
-        });
-        return new PropertyIteratorAdapter(items, items.getSize());
+        RangeIterator items = getMockedSession().listProperties(getItemData().getItemPath(), null);
+        return new PropertyIteratorAdapter(items);
     }
 
     @Override
     public PropertyIterator getProperties(final String namePattern) throws RepositoryException {
         final Pattern pattern = Pattern.compile(namePattern);
-        RangeIterator items = getMockedSession().listChildren(getPath(), new ItemFilter() {
+        RangeIterator items = getMockedSession().listProperties(getItemData().getItemPath(), new ItemFilter() {
             @Override
             public boolean accept(final ItemData item) throws RepositoryException {
-                return item.isProperty() && pattern.matcher(item.getName()).matches();
+                return pattern.matcher(item.getName()).matches();
             }
         });
-        return new PropertyIteratorAdapter(items, items.getSize());
+        return new PropertyIteratorAdapter(items);
     }
 
     @Override
     public PropertyIterator getProperties(final String[] nameGlobs) throws RepositoryException {
-        RangeIterator items = getMockedSession().listChildren(getPath(), new ItemFilter() {
+        RangeIterator items = getMockedSession().listProperties(getItemData().getItemPath(), new ItemFilter() {
             @Override
             public boolean accept(final ItemData item) throws RepositoryException {
-                return item.isProperty() && ItemNameMatcher.matches(item.getName(), nameGlobs);
+                return ItemNameMatcher.matches(item.getName(), nameGlobs);
             }
         });
-        return new PropertyIteratorAdapter(items, items.getSize());
+        return new PropertyIteratorAdapter(items);
     }
 
     @Override
     public Property getProperty(final String relPath) throws RepositoryException {
+        final ItemData itemData = resolve(relPath, false);
+        if (itemData != null) {
+            return (Property) getMockedSession().toItem(itemData);
+        }
+        // throws the exception matching the item found at the path, if any
         String path = makeAbsolutePath(relPath);
         return getSession().getProperty(path);
     }
 
     @Override
     public String getIdentifier() throws RepositoryException {
-        return this.itemData.getUuid();
+        return getItemData().getUuid();
     }
 
     @Override
@@ -240,158 +240,187 @@ class MockNode extends AbstractItem implements Node {
 
     @Override
     public boolean hasNode(final String relPath) throws RepositoryException {
-        String path = makeAbsolutePath(relPath);
-        return getSession().nodeExists(path);
+        return resolve(relPath, true) != null;
     }
 
     @Override
     public boolean hasNodes() throws RepositoryException {
-        return getNodes().hasNext();
+        final ItemData current = getMockedSession().getNodeData(getItemData().getItemPath());
+        return current != null && !current.getChildNodes().isEmpty();
     }
 
     @Override
     public boolean hasProperties() throws RepositoryException {
-        return getProperties().hasNext();
+        final ItemData current = getMockedSession().getNodeData(getItemData().getItemPath());
+        return current != null && !current.getProperties().isEmpty();
     }
 
     @Override
     public boolean hasProperty(final String relPath) throws RepositoryException {
-        String path = makeAbsolutePath(relPath);
-        return getSession().propertyExists(path);
+        return resolve(relPath, false) != null;
+    }
+
+    /**
+     * Resolves a relative path by walking the child maps from this node segment by segment,
+     * without building and normalizing an absolute path. Absolute paths are looked up directly.
+     * @param relPath Relative or absolute path
+     * @param node true to resolve a node, false to resolve a property
+     * @return Item data, or null if there is no item of the requested kind at the path
+     * @throws RepositoryException if the session is not live
+     */
+    private ItemData resolve(final String relPath, final boolean node) throws RepositoryException {
+        final MockSession session = getMockedSession();
+        session.checkLive();
+        if (relPath.isEmpty() || relPath.charAt(0) == '/' || relPath.charAt(relPath.length() - 1) == '/') {
+            final String path = makeAbsolutePath(relPath);
+            final ItemData itemData = path != null ? session.getItemData(path) : null;
+            return itemData != null && itemData.isNode() == node ? itemData : null;
+        }
+        ItemData current = session.getNodeData(getItemData().getItemPath());
+        int start = 0;
+        while (current != null) {
+            int end = relPath.indexOf('/', start);
+            final boolean last = end < 0;
+            if (last) {
+                end = relPath.length();
+            }
+            final String segment = relPath.substring(start, end);
+            start = end + 1;
+            if ("..".equals(segment)) {
+                current = session.getNodeData(current.getItemPath().getParent());
+            } else if (!segment.isEmpty() && !".".equals(segment)) {
+                if (last && !node) {
+                    return current.getProperties().get(segment);
+                }
+                current = current.getChildNodes().get(segment);
+            }
+            if (last) {
+                return node ? current : null;
+            }
+        }
+        return null;
     }
 
     @Override
     public Property setProperty(final String name, final Value value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     @Override
     public Property setProperty(final String name, final Value[] values) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(values);
-        addItemOrRemoveIfValueNull(itemData, values);
-        return property;
+        return propertySet(property, values == null);
     }
 
     @Override
     public Property setProperty(final String name, final String[] values) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(values);
-        addItemOrRemoveIfValueNull(itemData, values);
-        return property;
+        return propertySet(property, values == null);
     }
 
     @Override
     public Property setProperty(final String name, final String value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     @Override
     @SuppressWarnings("deprecation")
     public Property setProperty(final String name, final InputStream value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     @Override
     public Property setProperty(final String name, final boolean value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItem(itemData);
-        return property;
+        return propertySet(property, false);
     }
 
     @Override
     public Property setProperty(final String name, final double value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItem(itemData);
-        return property;
+        return propertySet(property, false);
     }
 
     @Override
     public Property setProperty(final String name, final long value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItem(itemData);
-        return property;
+        return propertySet(property, false);
     }
 
     @Override
     public Property setProperty(final String name, final Calendar value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     @Override
     public Property setProperty(final String name, final Node value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     @Override
     public Property setProperty(final String name, final Binary value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     @Override
     public Property setProperty(final String name, final BigDecimal value) throws RepositoryException {
-        ItemData itemData = ItemData.newProperty(getPath() + "/" + name);
-        Property property = new MockProperty(itemData, getSession());
+        final MockProperty property = propertyToSet(name);
         property.setValue(value);
-        addItemOrRemoveIfValueNull(itemData, value);
-        return property;
+        return propertySet(property, value == null);
     }
 
     /**
-     * Adds or overwrites an item and marks the item value as changed.
-     * @param itemData Item data
+     * Returns the property to set a value on. An existing property is updated in place,
+     * otherwise a new property record is created that is added once it has a value.
+     * @param name Property name or relative path
+     * @return Existing property, or property backed by a new record
      * @throws RepositoryException
      */
-    private void addItem(ItemData itemData) {
-        getMockedSession().addItem(itemData);
-        this.itemData.setIsChanged(true);
+    private MockProperty propertyToSet(final String name) throws RepositoryException {
+        final ItemPath path = makeItemPath(name);
+        final ItemData existing = getMockedSession().getItemData(path);
+        final ItemData itemData = existing != null && existing.isProperty()
+                ? existing
+                : ItemData.newProperty(getMockedSession().newItemPath(path));
+        return new MockProperty(itemData, getSession());
     }
 
     /**
-     * Adds or overwrites an item and marks the item value as changed.
-     * If the given value is null, the item is removed instead.
-     * @param itemData Item data
+     * Adds the record of a new property after its value was set, replacing a child node
+     * of the same name, and marks this node as changed.
+     * @param property Property returned by {@link #propertyToSet(String)}
+     * @param removed true if the property was removed by setting a null value
+     * @return Property
      * @throws RepositoryException
      */
-    private void addItemOrRemoveIfValueNull(ItemData itemData, Object value) throws RepositoryException {
-        if (value == null) {
-            getMockedSession().removeItem(itemData.getPath());
-        } else {
+    private Property propertySet(final MockProperty property, final boolean removed) throws RepositoryException {
+        final ItemData itemData = property.getItemData();
+        if (!removed && !itemData.isAttached()) {
             getMockedSession().addItem(itemData);
         }
-        this.itemData.setIsChanged(true);
+        markChanged();
+        return property;
+    }
+
+    private void markChanged() {
+        getItemDataForUpdate().setIsChanged(true);
     }
 
     @Override
@@ -401,7 +430,7 @@ class MockNode extends AbstractItem implements Node {
 
     @Override
     public boolean isNodeType(final String nodeTypeName) throws RepositoryException {
-        boolean istype = this.itemData.getNodeType().isNodeType(nodeTypeName);
+        boolean istype = getItemData().getNodeType().isNodeType(nodeTypeName);
         if (!istype) {
             // SLING-11786 also check the mixin types
             istype = Arrays.stream(getMixinNodeTypes())
@@ -412,7 +441,7 @@ class MockNode extends AbstractItem implements Node {
 
     @Override
     public NodeType getPrimaryNodeType() throws RepositoryException {
-        return this.itemData.getNodeType();
+        return getItemData().getNodeType();
     }
 
     @Override
@@ -429,13 +458,13 @@ class MockNode extends AbstractItem implements Node {
 
     @Override
     public int hashCode() {
-        return itemData.hashCode();
+        return getItemData().hashCode();
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof MockNode) {
-            return itemData.equals(((MockNode) obj).itemData);
+            return getItemData().equals(((MockNode) obj).getItemData());
         }
         return false;
     }
@@ -528,7 +557,7 @@ class MockNode extends AbstractItem implements Node {
     public void setPrimaryType(final String primaryNodeTypeName) throws RepositoryException {
         if (StringUtils.isNotBlank(primaryNodeTypeName)) {
             NodeType nodeType = getSession().getWorkspace().getNodeTypeManager().getNodeType(primaryNodeTypeName);
-            this.itemData.setNodeType(nodeType);
+            getItemDataForUpdate().setNodeType(nodeType);
             setProperty(JcrConstants.JCR_PRIMARYTYPE, primaryNodeTypeName);
         } else {
             throw new NoSuchNodeTypeException("Not accepting blank node types");
@@ -33,6 +33,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 import org.apache.jackrabbit.commons.iterator.NodeTypeIteratorAdapter;
@@ -43,8 +45,30 @@ import org.apache.jackrabbit.commons.iterator.NodeTypeIteratorAdapter;
 class MockNodeTypeManager implements NodeTypeManager {
     private static final String NODETYPE_ALREADY_EXISTS = "%s already exists";
     private static final String NODETYPE_DOES_NOT_EXISTS = "%s does not exists";
-    private Map<String, NodeType> registeredNTs = new HashMap<>();
-    private ResolveMode mode = ResolveMode.MOCK_ALL; // for backward compatibility
+    private final Map<String, NodeType> registeredNTs;
+    private volatile ResolveMode mode = ResolveMode.MOCK_ALL; // for backward compatibility
+
+    MockNodeTypeManager() {
+        this(false);
+    }
+
+    /**
+     * @param concurrent true if the manager is used by sessions on several threads
+     */
+    MockNodeTypeManager(boolean concurrent) {
+        this.registeredNTs = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    }
+
+    /**
+     * Creates a manager with the same mode and registered node types as the given one.
+     * The node type instances are shared.
+     * @param other Node type manager to copy
+     */
+    MockNodeTypeManager(final MockNodeTypeManager other) {
+        this(other.registeredNTs instanceof ConcurrentMap);
+        this.registeredNTs.putAll(other.registeredNTs);
+        this.mode = other.mode;
+    }
 
     enum ResolveMode {
         MOCK_ALL, // for backward compatibility
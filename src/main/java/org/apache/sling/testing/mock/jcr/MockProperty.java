@@ -19,6 +19,7 @@
 package org.apache.sling.testing.mock.jcr;
 
 import javax.jcr.Binary;
+import javax.jcr.InvalidItemStateException;
 import javax.jcr.ItemVisitor;
 import javax.jcr.Node;
 import javax.jcr.Property;
@@ -34,8 +35,7 @@ import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.Calendar;
-
-import org.apache.jackrabbit.value.BinaryValue;
+import java.util.function.Consumer;
 
 /**
  * Mock {@link Property} implementation
@@ -44,23 +44,26 @@ class MockProperty extends AbstractItem implements Property {
 
     public MockProperty(final ItemData itemData, final Session session) {
         super(itemData, session);
-        if (this.itemData.getValues() == null) {
-            try {
-                this.itemData.setValues(
-                        new Value[] {getSession().getValueFactory().createValue("")});
-            } catch (RepositoryException ex) {
-                throw new RuntimeException("Initializing property failed.", ex);
-            }
-        }
     }
 
     private Value internalGetValue() throws RepositoryException {
-        if (this.itemData.isMultiple()) {
+        return ItemData.toValue(internalGetStoredValue());
+    }
+
+    /**
+     * @return Single value in the form stored by {@link ItemData#getStoredValue()}
+     * @throws ValueFormatException if the property is multi-valued
+     * @throws InvalidItemStateException if the property was set to null before it had a value
+     */
+    private Object internalGetStoredValue() throws RepositoryException {
+        final Object value = getItemData().getStoredValue();
+        if (value == null) {
+            throw new InvalidItemStateException(String.format("Property has no value: %s.", getPath()));
+        } else if (value instanceof Value[]) {
             throw new ValueFormatException(
                     this + " is a multi-valued property, so it's values can only be retrieved as an array");
-        } else {
-            return this.itemData.getValues()[0];
         }
+        return value;
     }
 
     @Override
@@ -70,10 +73,10 @@ class MockProperty extends AbstractItem implements Property {
 
     @Override
     public Value[] getValues() throws RepositoryException {
-        if (!this.itemData.isMultiple()) {
+        if (!getItemData().isMultiple()) {
             throw new ValueFormatException("Property is single-valued.");
         }
-        final Value[] values = this.itemData.getValues();
+        final Value[] values = getItemData().getValues();
         return Arrays.copyOf(values, values.length);
     }
 
@@ -82,8 +85,11 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {newValue});
-        this.itemData.setMultiple(false);
+        if (newValue.getType() == PropertyType.BINARY) {
+            setValue(newValue.getBinary());
+            return;
+        }
+        update(itemData -> itemData.setValue(newValue));
     }
 
     @Override
@@ -92,8 +98,12 @@ class MockProperty extends AbstractItem implements Property {
             return;
         }
         Value[] values = Arrays.copyOf(newValues, newValues.length);
-        this.itemData.setValues(values);
-        this.itemData.setMultiple(true);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && values[i].getType() == PropertyType.BINARY) {
+                values[i] = getSession().getValueFactory().createValue(storeBinary(values[i].getBinary()));
+            }
+        }
+        update(itemData -> itemData.setValues(values));
     }
 
     @Override
@@ -101,8 +111,7 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        update(itemData -> itemData.setValue(newValue));
     }
 
     @Override
@@ -114,8 +123,7 @@ class MockProperty extends AbstractItem implements Property {
         for (int i = 0; i < newValues.length; i++) {
             values[i] = getSession().getValueFactory().createValue(newValues[i]);
         }
-        this.itemData.setValues(values);
-        this.itemData.setMultiple(true);
+        update(itemData -> itemData.setValues(values));
     }
 
     @Override
@@ -123,20 +131,18 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {new BinaryValue(newValue)});
-        this.itemData.setMultiple(false);
+        final MockBinary binary = getMockedSession().getBinaryStore().store(newValue);
+        update(itemData -> itemData.setValue(binary));
     }
 
     @Override
     public void setValue(final long newValue) throws RepositoryException {
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        update(itemData -> itemData.setValue(newValue));
     }
 
     @Override
     public void setValue(final double newValue) throws RepositoryException {
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        update(itemData -> itemData.setValue(newValue));
     }
 
     @Override
@@ -144,14 +150,14 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        // the value factory validates the date
+        final Value value = getSession().getValueFactory().createValue(newValue);
+        update(itemData -> itemData.setValue(value));
     }
 
     @Override
     public void setValue(final boolean newValue) throws RepositoryException {
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        update(itemData -> itemData.setValue(newValue));
     }
 
     @Override
@@ -159,8 +165,8 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        final Value value = getSession().getValueFactory().createValue(newValue);
+        update(itemData -> itemData.setValue(value));
     }
 
     @Override
@@ -168,8 +174,8 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {new BinaryValue(newValue)});
-        this.itemData.setMultiple(false);
+        final MockBinary binary = storeBinary(newValue);
+        update(itemData -> itemData.setValue(binary));
     }
 
     @Override
@@ -177,8 +183,35 @@ class MockProperty extends AbstractItem implements Property {
         if (removePropertyIfValueNull(newValue)) {
             return;
         }
-        this.itemData.setValues(new Value[] {getSession().getValueFactory().createValue(newValue)});
-        this.itemData.setMultiple(false);
+        final Value value = getSession().getValueFactory().createValue(newValue);
+        update(itemData -> itemData.setValue(value));
+    }
+
+    /**
+     * Modifies the value of this property and updates the indexes of the repository.
+     * @param change Modification of the item data
+     */
+    private void update(final Consumer<ItemData> change) {
+        final QueryIndexes indexes = getMockedSession().getQueryIndexes();
+        final ItemData itemData = getItemDataForUpdate();
+        // new properties are indexed when they are added
+        final boolean attached = itemData.isAttached();
+        if (attached) {
+            indexes.unindexProperty(itemData);
+        }
+        change.accept(itemData);
+        if (attached) {
+            indexes.indexProperty(itemData);
+        }
+    }
+
+    /**
+     * @param binary Binary
+     * @return Binary held by the binary store of the repository
+     * @throws RepositoryException if the binary cannot be read
+     */
+    private MockBinary storeBinary(final Binary binary) throws RepositoryException {
+        return getMockedSession().getBinaryStore().store(binary);
     }
 
     /**
@@ -197,38 +230,58 @@ class MockProperty extends AbstractItem implements Property {
 
     @Override
     public boolean getBoolean() throws RepositoryException {
-        return internalGetValue().getBoolean();
+        final Object value = internalGetStoredValue();
+        return value instanceof Boolean
+                ? (Boolean) value
+                : ItemData.toValue(value).getBoolean();
     }
 
     @Override
     public Calendar getDate() throws RepositoryException {
-        return internalGetValue().getDate();
+        final Object value = internalGetStoredValue();
+        return value instanceof ItemData.CompactDate
+                ? ((ItemData.CompactDate) value).toCalendar()
+                : ItemData.toValue(value).getDate();
     }
 
     @Override
     public double getDouble() throws RepositoryException {
-        return internalGetValue().getDouble();
+        final Object value = internalGetStoredValue();
+        return value instanceof Double
+                ? (Double) value
+                : ItemData.toValue(value).getDouble();
     }
 
     @Override
     public long getLong() throws RepositoryException {
-        return internalGetValue().getLong();
+        final Object value = internalGetStoredValue();
+        return value instanceof Long ? (Long) value : ItemData.toValue(value).getLong();
     }
 
     @Override
     public String getString() throws RepositoryException {
-        return internalGetValue().getString();
+        final Object value = internalGetStoredValue();
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Long || value instanceof Double || value instanceof Boolean) {
+            return value.toString();
+        }
+        return ItemData.toValue(value).getString();
     }
 
     @Override
     @SuppressWarnings("deprecation")
     public InputStream getStream() throws RepositoryException {
-        return internalGetValue().getStream();
+        final Object value = internalGetStoredValue();
+        return value instanceof MockBinary
+                ? ((MockBinary) value).getStream()
+                : ItemData.toValue(value).getStream();
     }
 
     @Override
     public Binary getBinary() throws RepositoryException {
-        return internalGetValue().getBinary();
+        final Object value = internalGetStoredValue();
+        return value instanceof MockBinary ? (MockBinary) value : ItemData.toValue(value).getBinary();
     }
 
     @Override
@@ -238,26 +291,24 @@ class MockProperty extends AbstractItem implements Property {
 
     @Override
     public int getType() throws RepositoryException {
-        if (this.itemData.getValues().length > 0) {
-            return this.itemData.getValues()[0].getType();
-        } else {
-            return PropertyType.UNDEFINED;
-        }
+        return getItemData().getType();
     }
 
     @Override
     public long getLength() throws RepositoryException {
-        return getValue().getString().length();
+        return ItemData.getLength(internalGetStoredValue());
     }
 
     @Override
     public long[] getLengths() throws RepositoryException {
-        if (!this.itemData.isMultiple()) {
+        final Object value = getItemData().getStoredValue();
+        if (!(value instanceof Value[])) {
             throw new ValueFormatException("Property is single-valued.");
         }
-        long[] lengths = new long[this.itemData.getValues().length];
-        for (int i = 0; i < this.itemData.getValues().length; i++) {
-            lengths[i] = this.itemData.getValues()[i].getString().length();
+        final Value[] values = (Value[]) value;
+        long[] lengths = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            lengths[i] = ItemData.getLength(values[i]);
         }
         return lengths;
     }
@@ -269,7 +320,7 @@ class MockProperty extends AbstractItem implements Property {
 
     @Override
     public boolean isMultiple() throws RepositoryException {
-        return this.itemData.isMultiple();
+        return getItemData().isMultiple();
     }
 
     @Override
@@ -284,13 +335,13 @@ class MockProperty extends AbstractItem implements Property {
 
     @Override
     public int hashCode() {
-        return itemData.hashCode();
+        return getItemData().hashCode();
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof MockProperty) {
-            return itemData.equals(((MockProperty) obj).itemData);
+            return getItemData().equals(((MockProperty) obj).getItemData());
         }
         return false;
     }
@@ -310,7 +361,7 @@ class MockProperty extends AbstractItem implements Property {
 
         @Override
         public boolean isMultiple() {
-            return MockProperty.this.itemData.isMultiple();
+            return MockProperty.this.getItemData().isMultiple();
         }
 
         @Override
@@ -44,6 +44,8 @@ public final class MockQuery implements Query {
     private long limit;
     private long offset;
     private Map<String, Value> variables = new HashMap<>();
+    // parsed statement, only set if the query is evaluated by the query engine
+    private QueryStatement parsedStatement;
 
     MockQuery(MockQueryManager queryManager, String statement, String language) {
         this.queryManager = queryManager;
@@ -99,6 +101,14 @@ public final class MockQuery implements Query {
         return Collections.unmodifiableMap(variables);
     }
 
+    QueryStatement getParsedStatement() {
+        return parsedStatement;
+    }
+
+    void setParsedStatement(QueryStatement parsedStatement) {
+        this.parsedStatement = parsedStatement;
+    }
+
     // --- unsupported operations ---
 
     @Override
@@ -20,6 +20,7 @@ package org.apache.sling.testing.mock.jcr;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.jcr.Value;
 import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
@@ -28,7 +29,9 @@ import javax.jcr.query.qom.QueryObjectModelFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -39,12 +42,21 @@ import org.apache.commons.lang3.StringUtils;
  */
 class MockQueryManager implements QueryManager {
 
+    private final MockRepository repository;
+    private final MockSession session;
+    private final QueryEngine queryEngine;
     private List<MockQueryResultHandler> resultHandlers = new ArrayList<>();
 
     @SuppressWarnings("deprecation")
     private static final List<String> SUPPORTED_QUERY_LANGUAGES =
             Stream.of(Query.JCR_SQL2, Query.JCR_JQOM, Query.XPATH, Query.SQL).collect(Collectors.toList());
 
+    MockQueryManager(MockRepository repository, MockSession session) {
+        this.repository = repository;
+        this.session = session;
+        this.queryEngine = new QueryEngine(session);
+    }
+
     @Override
     public Query createQuery(String statement, String language) throws RepositoryException {
         if (!SUPPORTED_QUERY_LANGUAGES.contains(StringUtils.defaultString(language))) {
@@ -62,17 +74,53 @@ class MockQueryManager implements QueryManager {
         this.resultHandlers.add(resultHandler);
     }
 
-    QueryResult executeQuery(MockQuery query) {
+    @SuppressWarnings("deprecation")
+    QueryResult executeQuery(MockQuery query) throws RepositoryException {
         for (MockQueryResultHandler resultHandler : resultHandlers) {
             MockQueryResult result = resultHandler.executeQuery(query);
             if (result != null) {
                 return result;
             }
         }
+        if (repository.isQueryEngineEnabled()
+                && (Query.JCR_SQL2.equals(query.getLanguage()) || Query.XPATH.equals(query.getLanguage()))) {
+            return evaluateQuery(query);
+        }
         // fallback to empty result
         return new MockQueryResult(Collections.emptyList());
     }
 
+    @SuppressWarnings("deprecation")
+    private QueryResult evaluateQuery(MockQuery query) throws RepositoryException {
+        session.checkLive();
+        QueryStatement statement = query.getParsedStatement();
+        if (statement == null) {
+            statement = Query.XPATH.equals(query.getLanguage())
+                    ? XPathParser.parse(query.getStatement())
+                    : Sql2Parser.parse(query.getStatement());
+            query.setParsedStatement(statement);
+        }
+        final QueryStatement parsed = statement;
+        final Map<String, Value> variables = new HashMap<>(query.getBindVariables());
+        queryEngine.validate(parsed, variables);
+        final long offset = query.getOffset();
+        final long limit = query.getLimit();
+        final List<String> columnNames = parsed.getColumnNames();
+        final String selectorName = parsed.getSelectorName();
+        return new MockQueryResult(
+                () -> queryEngine
+                        .execute(parsed, variables, offset, limit)
+                        .map(node -> new MockRow(
+                                columnNames,
+                                (Node) session.toItem(node),
+                                selectorName,
+                                queryEngine.score(parsed, variables, node))),
+                columnNames,
+                selectorName,
+                // with a limit the nodes are read lazily, so that reading stops after them
+                limit <= 0);
+    }
+
     // --- unsupported operations ---
 
     @Override
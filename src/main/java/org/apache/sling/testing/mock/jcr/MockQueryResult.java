@@ -22,10 +22,14 @@ import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
 import javax.jcr.query.RowIterator;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
@@ -41,6 +45,11 @@ public final class MockQueryResult implements QueryResult {
 
     private final List<Node> nodes;
     private final List<String> columnNames;
+    // rows evaluated on each iteration, only for results of the query engine
+    private final Supplier<Stream<MockRow>> rows;
+    // true if the rows of the query engine are collected on each iteration to report their number
+    private final boolean sized;
+    private final String selectorName;
     private boolean simulateUnknownSize;
 
     public MockQueryResult(List<Node> nodes) {
@@ -50,6 +59,25 @@ public final class MockQueryResult implements QueryResult {
     public MockQueryResult(List<Node> nodes, List<String> columnNames) {
         this.columnNames = columnNames;
         this.nodes = nodes;
+        this.rows = null;
+        this.sized = false;
+        this.selectorName = null;
+    }
+
+    /**
+     * @param rows Supplies the rows of the result, lazily evaluated
+     * @param columnNames Column names
+     * @param selectorName Selector name of the query
+     * @param sized true to collect all rows on each iteration and report their number, false to read
+     *     them lazily and report an unknown size
+     */
+    MockQueryResult(
+            Supplier<Stream<MockRow>> rows, List<String> columnNames, String selectorName, boolean sized) {
+        this.columnNames = columnNames;
+        this.nodes = null;
+        this.rows = rows;
+        this.sized = sized;
+        this.selectorName = selectorName;
     }
 
     public void setSimulateUnknownSize(boolean simulateUnknownSize) {
@@ -63,13 +91,23 @@ public final class MockQueryResult implements QueryResult {
 
     @Override
     public RowIterator getRows() throws RepositoryException {
+        if (rows != null) {
+            return sized
+                    ? new RowIteratorAdapter(rows.get().collect(Collectors.<Row>toList()))
+                    : new RowIteratorAdapter(rows.get().iterator());
+        }
         return new RowIteratorAdapter(
                 nodes.stream().map(node -> new MockRow(columnNames, node)).iterator());
     }
 
     @Override
     public NodeIterator getNodes() throws RepositoryException {
-        if (simulateUnknownSize) {
+        if (rows != null) {
+            final Stream<Node> resultNodes = rows.get().map(MockRow::node);
+            return sized
+                    ? new NodeIteratorAdapter(resultNodes.collect(Collectors.toList()))
+                    : new NodeIteratorAdapter(resultNodes.iterator(), -1);
+        } else if (simulateUnknownSize) {
             return new NodeIteratorAdapter(nodes.iterator(), -1);
         } else {
             return new NodeIteratorAdapter(nodes);
@@ -78,6 +116,6 @@ public final class MockQueryResult implements QueryResult {
 
     @Override
     public String[] getSelectorNames() throws RepositoryException {
-        return new String[0];
+        return selectorName != null ? new String[] {selectorName} : new String[0];
     }
 }
@@ -28,28 +28,126 @@ import javax.jcr.Value;
 import javax.jcr.nodetype.NodeTypeManager;
 import javax.jcr.observation.ObservationManager;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import org.apache.commons.lang3.ArrayUtils;
 
 /**
- * Mock {@link Repository} implementation. The data is stored inside the mocked
- * session, not the repository - so it is not possible to open multiple session
- * to access the same data in this mock implementation.
+ * Mock {@link Repository} implementation. All sessions work on the same content,
+ * or in isolated mode each on its own snapshot of the last committed content.
  */
 class MockRepository implements Repository {
 
-    // Use linked hashmap to ensure ordering when adding items is preserved.
-    private final Map<String, ItemData> items = new LinkedHashMap<>();
+    // Tree-shaped store preserving the order in which child items are added.
+    // In isolated mode this is the last committed state, which is never modified.
+    private volatile ItemStore items;
+    private final boolean concurrent;
+    private final boolean isolated;
+    // shared with snapshots and the repositories created from them
+    private final BinaryStore binaryStore;
+    private final QueryIndexes queryIndexes;
+    // canonical names of the item records
+    private final StringTable names = new StringTable();
+    // live sessions, guarded by the lock
+    private final Object sessionLock = new Object();
+    private final Set<MockSession> sessions = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile boolean queryEngineEnabled;
 
-    private final NamespaceRegistry namespaceRegistry = new MockNamespaceRegistry();
+    private final MockNamespaceRegistry namespaceRegistry;
     private final ObservationManager observationManager = new MockObservationManager();
-    private final NodeTypeManager nodeTypeManager = new MockNodeTypeManager();
+    private final MockNodeTypeManager nodeTypeManager;
 
-    public MockRepository() {
-        this.items.put("/", ItemData.newNode("/", MockNodeTypes.NT_UNSTRUCTURED));
+    MockRepository() {
+        this(false, false);
+    }
+
+    /**
+     * @param concurrent true if the repository is used by sessions on several threads
+     * @param isolated true if each session works on its own snapshot of the content
+     */
+    MockRepository(final boolean concurrent, final boolean isolated) {
+        // in isolated mode the sessions only share immutable stores
+        this.items = new ItemStore(concurrent && !isolated);
+        this.concurrent = concurrent;
+        this.isolated = isolated;
+        this.binaryStore = new BinaryStore();
+        this.queryIndexes = new QueryIndexes(!isolated);
+        this.namespaceRegistry = new MockNamespaceRegistry();
+        this.nodeTypeManager = new MockNodeTypeManager(concurrent);
+    }
+
+    /**
+     * Creates a repository sharing the content of the given snapshot.
+     * @param snapshot Repository snapshot
+     */
+    MockRepository(final MockRepositorySnapshot snapshot) {
+        this.items = snapshot.getItems().fork();
+        this.concurrent = items.isConcurrent();
+        this.isolated = false;
+        this.binaryStore = snapshot.getBinaryStore();
+        this.queryIndexes = new QueryIndexes(snapshot.getQueryIndexes(), true);
+        this.namespaceRegistry = new MockNamespaceRegistry(snapshot.getNamespaceRegistry());
+        this.nodeTypeManager = new MockNodeTypeManager(snapshot.getNodeTypeManager());
+    }
+
+    /**
+     * @return true if the repository may be used by sessions on several threads
+     */
+    boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * @return true if each session works on its own snapshot of the content
+     */
+    boolean isIsolated() {
+        return isolated;
+    }
+
+    /**
+     * @return Last committed item store in isolated mode. It must not be modified.
+     */
+    ItemStore getCommittedItems() {
+        return items;
+    }
+
+    /**
+     * Commits the changes of a session in isolated mode. If another session committed
+     * in the meantime, the changes are applied to a fork of the latest committed store.
+     * @param base Committed store the session store was forked from
+     * @param changed Session store containing the changes
+     * @param changeLog Changes of the session, cleared on success
+     * @return New committed store
+     * @throws RepositoryException if the changes cannot be applied to the latest committed store
+     */
+    synchronized ItemStore commit(final ItemStore base, final ItemStore changed, final ChangeLog changeLog)
+            throws RepositoryException {
+        ItemStore target = changed;
+        if (items != base) {
+            target = items.fork();
+            target.apply(changed, changeLog.getChangedPaths(), changeLog.getOrderedPaths());
+        }
+        changeLog.commit(target);
+        items = target;
+        return target;
+    }
+
+    /**
+     * Freezes the current content, node types and namespaces of this repository.
+     * @return Repository snapshot
+     */
+    MockRepositorySnapshot snapshot() {
+        return new MockRepositorySnapshot(
+                items.fork(),
+                new MockNamespaceRegistry(namespaceRegistry),
+                new MockNodeTypeManager(nodeTypeManager),
+                binaryStore,
+                new QueryIndexes(queryIndexes, false));
     }
 
     @Override
@@ -121,4 +219,74 @@ class MockRepository implements Repository {
     NodeTypeManager getNodeTypeManager() {
         return nodeTypeManager;
     }
+
+    BinaryStore getBinaryStore() {
+        return binaryStore;
+    }
+
+    QueryIndexes getQueryIndexes() {
+        return queryIndexes;
+    }
+
+    /**
+     * Registers a session that logged in. The first session registers the repository with the binary store.
+     * @param session Session
+     */
+    void sessionOpened(final MockSession session) {
+        synchronized (sessionLock) {
+            if (sessions.add(session) && sessions.size() == 1) {
+                binaryStore.acquire();
+            }
+        }
+    }
+
+    /**
+     * Unregisters a session that logged out. The last session releases the binary store.
+     * @param session Session
+     */
+    void sessionClosed(final MockSession session) {
+        synchronized (sessionLock) {
+            if (sessions.remove(session) && sessions.isEmpty()) {
+                binaryStore.release();
+            }
+        }
+    }
+
+    /**
+     * Removes the index entries of values no live session can see anymore in isolated mode.
+     * Called when a session saved, refreshed or logged out.
+     */
+    synchronized void purgeQueryIndexes() {
+        if (!isolated) {
+            return;
+        }
+        final List<ItemStore> stores = new ArrayList<>();
+        final List<ChangeLog> changeLogs = new ArrayList<>();
+        synchronized (sessionLock) {
+            for (MockSession session : sessions) {
+                stores.add(session.getBaseItems());
+                changeLogs.add(session.getChangeLog());
+            }
+        }
+        stores.add(items);
+        queryIndexes.purge(stores, path -> changeLogs.stream().anyMatch(changeLog -> changeLog.isChanged(path)));
+    }
+
+    /**
+     * @return Table of the canonical item names
+     */
+    StringTable getNames() {
+        return names;
+    }
+
+    /**
+     * @return true if queries without a matching result handler are evaluated against the content
+     */
+    boolean isQueryEngineEnabled() {
+        return queryEngineEnabled;
+    }
+
+    void setQueryEngineEnabled(final boolean enabled) {
+        this.queryEngineEnabled = enabled;
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Immutable snapshot of the content, node types and namespaces of a mocked repository.
+ * Repositories created from a snapshot share its content and only copy the items they modify.
+ * Use {@link MockJcr#snapshot(javax.jcr.Repository)} to create a snapshot and
+ * {@link MockJcr#newRepository(MockRepositorySnapshot)} to create repositories from it.
+ */
+@ProviderType
+public final class MockRepositorySnapshot {
+
+    private final ItemStore items;
+    private final MockNamespaceRegistry namespaceRegistry;
+    private final MockNodeTypeManager nodeTypeManager;
+    private final BinaryStore binaryStore;
+    private final QueryIndexes queryIndexes;
+
+    MockRepositorySnapshot(
+            ItemStore items,
+            MockNamespaceRegistry namespaceRegistry,
+            MockNodeTypeManager nodeTypeManager,
+            BinaryStore binaryStore,
+            QueryIndexes queryIndexes) {
+        this.items = items;
+        this.namespaceRegistry = namespaceRegistry;
+        this.nodeTypeManager = nodeTypeManager;
+        this.binaryStore = binaryStore;
+        this.queryIndexes = queryIndexes;
+    }
+
+    ItemStore getItems() {
+        return items;
+    }
+
+    MockNamespaceRegistry getNamespaceRegistry() {
+        return namespaceRegistry;
+    }
+
+    MockNodeTypeManager getNodeTypeManager() {
+        return nodeTypeManager;
+    }
+
+    BinaryStore getBinaryStore() {
+        return binaryStore;
+    }
+
+    QueryIndexes getQueryIndexes() {
+        return queryIndexes;
+    }
+}
@@ -34,10 +34,24 @@ class MockRow implements Row {
 
     private final List<String> columnNames;
     private final Node node;
+    private final String selectorName;
+    private final double score;
 
     public MockRow(List<String> columnNames, Node node) {
+        this(columnNames, node, null, 0);
+    }
+
+    /**
+     * @param columnNames Column names
+     * @param node Node
+     * @param selectorName Selector name of the query, or null if it is not known
+     * @param score Score of the node
+     */
+    MockRow(List<String> columnNames, Node node, String selectorName, double score) {
         this.columnNames = columnNames;
         this.node = node;
+        this.selectorName = selectorName;
+        this.score = score;
     }
 
     @Override
@@ -63,9 +77,13 @@ class MockRow implements Row {
         return node;
     }
 
+    Node node() {
+        return node;
+    }
+
     @Override
     public Node getNode(String selectorName) throws RepositoryException {
-        return null;
+        return isSelector(selectorName) ? node : null;
     }
 
     @Override
@@ -75,16 +93,20 @@ class MockRow implements Row {
 
     @Override
     public String getPath(String selectorName) throws RepositoryException {
-        return null;
+        return isSelector(selectorName) ? node.getPath() : null;
     }
 
     @Override
     public double getScore() throws RepositoryException {
-        return 0;
+        return score;
     }
 
     @Override
     public double getScore(String selectorName) throws RepositoryException {
-        return 0;
+        return isSelector(selectorName) ? score : 0;
+    }
+
+    private boolean isSelector(String name) {
+        return this.selectorName != null && this.selectorName.equals(name);
     }
 }
@@ -37,18 +37,11 @@ import javax.jcr.security.AccessControlManager;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Pattern;
 
-import org.apache.commons.lang3.Strings;
 import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.principal.PrincipalManager;
 import org.apache.jackrabbit.api.security.user.UserManager;
-import org.apache.jackrabbit.commons.iterator.RangeIteratorAdapter;
 import org.apache.jackrabbit.value.ValueFactoryImpl;
 import org.jetbrains.annotations.NotNull;
 import org.xml.sax.ContentHandler;
@@ -56,36 +49,45 @@ import org.xml.sax.ContentHandler;
 import static java.util.Objects.requireNonNull;
 
 /**
- * Mock {@link Session} implementation. This instance holds the JCR data in a
- * simple ordered map.
+ * Mock {@link Session} implementation. The JCR data is held in a tree-shaped
+ * {@link ItemStore} shared with the repository.
  */
 class MockSession implements Session, JackrabbitSession {
 
     private final MockRepository repository;
     private final Workspace workspace;
-    private final Map<String, ItemData> items;
+    private ItemStore items;
+    // committed store of the repository the session store was forked from, only in isolated mode
+    private volatile ItemStore baseItems;
     private final String userId;
     private boolean isLive;
-    private boolean hasKnownChanges;
+    private final ChangeLog changeLog = new ChangeLog();
     private MockPrincipalManager principalManager;
     private MockUserManager userManager;
     private AccessControlManager accessControlManager = null;
+    // identity cache for node and property objects, only if enabled
+    private ItemCache itemCache;
 
-    public MockSession(MockRepository repository, Map<String, ItemData> items, String userId, String workspaceName)
+    public MockSession(MockRepository repository, ItemStore items, String userId, String workspaceName)
             throws RepositoryException {
         this.repository = repository;
         this.workspace = new MockWorkspace(repository, this, workspaceName);
         this.userManager = new MockUserManager(this);
         this.principalManager = new MockPrincipalManager(this.userManager);
-        this.items = items;
+        if (repository.isIsolated()) {
+            this.baseItems = items;
+            this.items = items.fork();
+        } else {
+            this.items = items;
+        }
         this.userId = userId;
         isLive = true;
         this.userManager.loadAlreadyExistingAuthorizables();
-        hasKnownChanges = false;
         this.save();
+        repository.sessionOpened(this);
     }
 
-    private void checkLive() throws RepositoryException {
+    void checkLive() throws RepositoryException {
         if (!isLive) {
             throw new RepositoryException("Session is logged out / not live.");
         }
@@ -102,11 +104,7 @@ class MockSession implements Session, JackrabbitSession {
         checkLive();
         final ItemData itemData = getItemData(absPath);
         if (itemData != null) {
-            if (itemData.isNode()) {
-                return new MockNode(itemData, this);
-            } else {
-                return new MockProperty(itemData, this);
-            }
+            return toItem(itemData);
         } else {
             throw new PathNotFoundException(String.format("No item found at: %s.", absPath));
         }
@@ -126,10 +124,9 @@ class MockSession implements Session, JackrabbitSession {
     @Override
     public Node getNodeByIdentifier(final String id) throws RepositoryException {
         checkLive();
-        for (ItemData item : this.items.values()) {
-            if (item.isNode() && Strings.CS.equals(item.getUuid(), id)) {
-                return new MockNode(item, this);
-            }
+        final ItemData item = id != null ? this.items.getByIdentifier(id) : null;
+        if (item != null) {
+            return (Node) toItem(item);
         }
         throw new ItemNotFoundException(String.format("No node found with id: %s.", id));
     }
@@ -148,13 +145,15 @@ class MockSession implements Session, JackrabbitSession {
     @Override
     public boolean nodeExists(final String absPath) throws RepositoryException {
         checkLive();
-        return itemExists(absPath) && getItemData(absPath).isNode();
+        final ItemData itemData = getItemData(absPath);
+        return itemData != null && itemData.isNode();
     }
 
     @Override
     public boolean propertyExists(final String absPath) throws RepositoryException {
         checkLive();
-        return itemExists(absPath) && getItemData(absPath).isProperty();
+        final ItemData itemData = getItemData(absPath);
+        return itemData != null && itemData.isProperty();
     }
 
     @Override
@@ -178,59 +177,205 @@ class MockSession implements Session, JackrabbitSession {
     /**
      * Add item
      * @param itemData item data
+     * @throws PathNotFoundException if the parent node does not exist
+     */
+    void addItem(final ItemData itemData) throws RepositoryException {
+        ItemData existing = this.items.get(itemData.getItemPath());
+        if (existing != null && existing.isNode() != itemData.isNode()) {
+            removeItemWithChildren(existing);
+            existing = null;
+        }
+        final QueryIndexes indexes = getQueryIndexes();
+        if (existing != null) {
+            indexes.unindexSubtree(existing);
+        }
+        this.items.add(itemData);
+        this.changeLog.itemAdded(itemData, existing);
+        descendantAdded(itemData.getItemPath());
+        indexes.indexSubtree(itemData);
+    }
+
+    /**
+     * Counts an added item in the subtree versions of its ancestors if the store is shared
+     * with other sessions, so that they do not remove the item when discarding their changes.
+     * @param path Path of the added item
+     */
+    private void descendantAdded(final ItemPath path) {
+        if (baseItems != null) {
+            return;
+        }
+        for (ItemPath ancestor = path.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            final ItemData ancestorData = this.items.get(ancestor);
+            if (ancestorData != null) {
+                this.changeLog.descendantAdded(ancestorData);
+            }
+        }
+    }
+
+    /**
+     * Returns the path for a new item record. The path shares the path of the parent record
+     * and its name is taken from the name table of the repository, so that the records of
+     * items with the same name share one string.
+     * @param path Item path
+     * @return Path for the new item record
+     */
+    ItemPath newItemPath(final ItemPath path) {
+        final ItemPath parentPath = path.getParent();
+        if (parentPath == null) {
+            return path;
+        }
+        final ItemData parent = this.items.get(parentPath);
+        return (parent != null ? parent.getItemPath() : parentPath)
+                .child(repository.getNames().canonicalize(path.getName()));
+    }
+
+    /**
+     * Registers an item that is about to be modified, so the change can be saved or reverted.
+     * @param itemData item data
+     * @return Item data to modify, a copy if the given item data is shared with a repository snapshot
+     */
+    ItemData trackChange(final ItemData itemData) {
+        if (!itemData.isAttached()) {
+            // records that were not added yet are not part of the session state
+            return itemData;
+        }
+        final ItemData writable = this.items.writable(itemData);
+        this.changeLog.itemChanged(writable);
+        return writable;
+    }
+
+    /**
+     * @param itemData item data
+     * @return Up-to-date item data of the same item
+     */
+    ItemData currentItemData(final ItemData itemData) {
+        return this.items.current(itemData);
+    }
+
+    /**
+     * @param path Item path
+     * @return Item
+     * @throws PathNotFoundException if the item does not exist
+     */
+    Item getItem(final ItemPath path) throws RepositoryException {
+        checkLive();
+        final ItemData itemData = this.items.get(path);
+        if (itemData == null) {
+            throw new PathNotFoundException(String.format("No item found at: %s.", path));
+        }
+        return toItem(itemData);
+    }
+
+    /**
+     * @param itemData Current item data
+     * @return Node or property object for the item, from the item cache if it is enabled
+     */
+    Item toItem(final ItemData itemData) {
+        return itemCache != null ? itemCache.get(itemData, this) : itemData.getItem(this);
+    }
+
+    /**
+     * Enables or disables the identity cache for node and property objects.
+     * @param enabled true to enable the cache
+     */
+    void setItemCacheEnabled(final boolean enabled) {
+        if (!enabled) {
+            itemCache = null;
+        } else if (itemCache == null) {
+            itemCache = new ItemCache();
+        }
+    }
+
+    /**
+     * @return Counters of the item cache, all zero if it is not enabled
      */
-    void addItem(final ItemData itemData) {
-        this.items.put(itemData.getPath(), itemData);
+    MockItemCacheStatistics getItemCacheStatistics() {
+        return itemCache != null ? itemCache.getStatistics() : new MockItemCacheStatistics(0, 0, 0);
     }
 
-    private ItemData getItemData(final String absPath) {
+    /**
+     * @param path Item path
+     * @return Item data or null if the item does not exist
+     */
+    ItemData getItemData(final ItemPath path) {
+        return this.items.get(path);
+    }
+
+    /**
+     * @param absPath Absolute path
+     * @return Item data or null if the item does not exist
+     */
+    ItemData getItemData(final String absPath) {
         final String normalizedPath = ResourceUtil.normalize(absPath);
         return this.items.get(normalizedPath);
     }
 
     /**
-     * Remove item incl. children
+     * Remove item incl. children. Only the records of the subtree are touched.
      * @param absPath Item path
      */
     private void removeItemWithChildren(final String absPath) throws RepositoryException {
-        if (!itemExists(absPath)) {
-            return;
+        final ItemData itemData = getItemData(absPath);
+        if (itemData != null) {
+            removeItemWithChildren(itemData);
         }
+    }
 
-        final ItemData parent = getItemData(absPath);
-        final String descendantPrefix = parent.getPath() + "/";
-
-        final List<String> pathsToRemove = new ArrayList<>();
-        pathsToRemove.add(parent.getPath());
-        for (String itemPath : this.items.keySet()) {
-            if (itemPath.startsWith(descendantPrefix)) {
-                pathsToRemove.add(itemPath);
-            }
-        }
-        for (String pathToRemove : pathsToRemove) {
-            this.items.remove(pathToRemove);
+    private void removeItemWithChildren(final ItemData itemData) {
+        if (itemCache != null) {
+            itemCache.invalidate(itemData.getItemPath());
         }
-
-        hasKnownChanges = true;
+        getQueryIndexes().unindexSubtree(itemData);
+        final ItemData nextSibling = this.items.nextSibling(itemData);
+        this.items.remove(itemData);
+        this.changeLog.itemRemoved(itemData, nextSibling);
     }
 
-    RangeIterator listChildren(final String parentPath, final ItemFilter filter) throws RepositoryException {
-        List<Item> children = new ArrayList<>();
+    /**
+     * @param path Node path
+     * @return Node data or null if there is no node at the given path
+     */
+    ItemData getNodeData(final ItemPath path) {
+        final ItemData itemData = this.items.get(path);
+        return itemData != null && itemData.isNode() ? itemData : null;
+    }
 
-        // remove trailing slash or make root path / empty string
-        final String path = parentPath.replaceFirst("/$", "");
+    /**
+     * Lists the child nodes of the given node in their order.
+     * @param parentPath Parent node path
+     * @param filter Optional filter
+     * @return Child nodes
+     */
+    RangeIterator listChildNodes(final ItemPath parentPath, final ItemFilter filter) throws RepositoryException {
+        final ItemData parent = getNodeData(parentPath);
+        return listChildren(parent != null ? parent.getChildNodes() : null, filter);
+    }
 
-        // build regex pattern for all child paths of parent
-        Pattern pattern = Pattern.compile("^" + Pattern.quote(path) + "/[^/]+$");
+    /**
+     * Lists the properties of the given node in their order.
+     * @param parentPath Parent node path
+     * @param filter Optional filter
+     * @return Properties
+     */
+    RangeIterator listProperties(final ItemPath parentPath, final ItemFilter filter) throws RepositoryException {
+        final ItemData parent = getNodeData(parentPath);
+        return listChildren(parent != null ? parent.getProperties() : null, filter);
+    }
 
-        // collect child resources
-        for (ItemData item : this.items.values()) {
-            if (pattern.matcher(item.getPath()).matches() && (filter == null || filter.accept(item))) {
-                children.add(item.getItem(this));
+    private RangeIterator listChildren(final ChildItemMap items, final ItemFilter filter) throws RepositoryException {
+        if (items == null) {
+            return new ChildItemIterator(ChildItemIterator.NO_ITEMS, this);
+        }
+        if (filter == null) {
+            return new ChildItemIterator(items.values().toArray(ChildItemIterator.NO_ITEMS), this);
+        }
+        final List<ItemData> children = new ArrayList<>();
+        for (ItemData item : items.values()) {
+            if (filter.accept(item)) {
+                children.add(item);
             }
         }
-
-        return new RangeIteratorAdapter(children.iterator(), children.size());
+        return new ChildItemIterator(children.toArray(ChildItemIterator.NO_ITEMS), this);
     }
 
     void orderBefore(Item source, Item destination) throws RepositoryException {
@@ -239,51 +384,21 @@ class MockSession implements Session, JackrabbitSession {
             return;
         }
 
-        // Find all items matching the source
-        final String sourcePath = source.getPath();
-        final String sourcePathPrefix = String.format("%s/", sourcePath);
-        List<ItemData> itemsToMove = new LinkedList<>();
-        for (String key : new ArrayList<>(items.keySet())) {
-            if (key.equals(sourcePath) || key.startsWith(sourcePathPrefix)) {
-                itemsToMove.add(items.remove(key));
-            }
-        }
-
-        if (destination == null) {
-            // Move items to end
-            for (ItemData item : itemsToMove) {
-                items.put(item.getPath(), item);
-            }
+        final ItemData sourceItem = getItemData(source.getPath());
+        if (sourceItem == null) {
             return;
         }
-
-        // Cycle items and add them back at the end
-        for (String key : new ArrayList<>(items.keySet())) {
-            if (key.equals(destination.getPath())) {
-                // Move items before destination
-                for (ItemData item : itemsToMove) {
-                    items.put(item.getPath(), item);
-                }
-            }
-            items.put(key, items.remove(key));
-        }
+        final ItemData destinationItem = destination != null ? getItemData(destination.getPath()) : null;
+        final ItemData nextSibling = this.items.nextSibling(sourceItem);
+        this.items.orderBefore(sourceItem, destinationItem);
+        this.changeLog.itemOrdered(sourceItem, nextSibling);
     }
 
     @Override
     public boolean hasPendingChanges() throws RepositoryException {
         checkLive();
 
-        if (hasKnownChanges) {
-            return true;
-        }
-
-        for (final ItemData item : this.items.values()) {
-            if (item.isNew() || item.isChanged()) {
-                return true;
-            }
-        }
-
-        return false;
+        return !changeLog.isEmpty();
     }
 
     @Override
@@ -331,27 +446,96 @@ class MockSession implements Session, JackrabbitSession {
         return this.repository;
     }
 
+    /**
+     * @return Binary store of the repository
+     */
+    BinaryStore getBinaryStore() {
+        return repository.getBinaryStore();
+    }
+
+    /**
+     * @return Query indexes of the repository
+     */
+    /**
+     * @return Committed store the session store was forked from, or null if not in isolated mode
+     */
+    ItemStore getBaseItems() {
+        return baseItems;
+    }
+
+    ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    QueryIndexes getQueryIndexes() {
+        return repository.getQueryIndexes();
+    }
+
+    /**
+     * Adds an index for a property, indexing the committed content and the content of this session.
+     * @param propertyName Property name
+     * @param ordered true for an ordered index
+     */
+    void addPropertyIndex(final String propertyName, final boolean ordered) {
+        final ItemData root = this.items.get(ItemPath.ROOT);
+        if (baseItems != null) {
+            getQueryIndexes()
+                    .addPropertyIndex(
+                            propertyName, ordered, repository.getCommittedItems().get(ItemPath.ROOT), root);
+        } else {
+            getQueryIndexes().addPropertyIndex(propertyName, ordered, root);
+        }
+    }
+
+    /**
+     * Adds the full-text index, indexing the committed content and the content of this session.
+     */
+    void addFullTextIndex() {
+        final ItemData root = this.items.get(ItemPath.ROOT);
+        if (baseItems != null) {
+            getQueryIndexes().addFullTextIndex(repository.getCommittedItems().get(ItemPath.ROOT), root);
+        } else {
+            getQueryIndexes().addFullTextIndex(root);
+        }
+    }
+
     @Override
     public void save() throws RepositoryException {
         checkLive();
-        // reset new flags
-        for (ItemData itemData : this.items.values()) {
-            itemData.setIsNew(false);
-            itemData.setIsChanged(false);
+        if (baseItems != null) {
+            // commit to the repository and continue on the latest committed state
+            baseItems = changeLog.isEmpty()
+                    ? repository.getCommittedItems()
+                    : repository.commit(baseItems, items, changeLog);
+            items = baseItems.fork();
+            repository.purgeQueryIndexes();
+            return;
         }
-
-        hasKnownChanges = false;
+        // reset new flags
+        changeLog.commit(items);
     }
 
     @Override
     public void refresh(final boolean keepChanges) throws RepositoryException {
-        // do nothing
         checkLive();
 
-        if (!keepChanges) {
-            // if reverting change instruction has been requested,
-            // warn upper user this won't happen
-            throw new UnsupportedOperationException();
+        if (baseItems != null) {
+            // continue on the latest committed state
+            final ItemStore committed = repository.getCommittedItems();
+            if (!keepChanges) {
+                getQueryIndexes().unindexChanges(items, baseItems, changeLog.getChangedPaths());
+                changeLog.clear();
+                items = committed.fork();
+            } else if (committed != baseItems) {
+                final ItemStore rebased = committed.fork();
+                rebased.apply(items, changeLog.getChangedPaths(), changeLog.getOrderedPaths());
+                items = rebased;
+            }
+            baseItems = committed;
+            repository.purgeQueryIndexes();
+        } else if (!keepChanges) {
+            // discard all pending changes of this session, the restored values may have been unindexed
+            changeLog.revert(items, getQueryIndexes()::indexSubtree);
         }
     }
 
@@ -368,7 +552,18 @@ class MockSession implements Session, JackrabbitSession {
 
     @Override
     public void logout() {
+        if (isLive) {
+            repository.sessionClosed(this);
+            if (baseItems != null) {
+                // the pending changes of this session are discarded
+                getQueryIndexes().unindexChanges(items, baseItems, changeLog.getChangedPaths());
+                repository.purgeQueryIndexes();
+            }
+        }
         isLive = false;
+        if (itemCache != null) {
+            itemCache.clear();
+        }
     }
 
     @Override
@@ -464,33 +659,30 @@ class MockSession implements Session, JackrabbitSession {
         if (!nodeExists(destParentPath)) {
             throw new PathNotFoundException("The destination parent path does not exist");
         }
-        if (!itemExists(srcAbsPath)) {
-            throw new PathNotFoundException("The source path does not exist");
-        }
-
         // move node and any descendants
         final ItemData parent = getItemData(srcAbsPath);
+        if (parent == null) {
+            throw new PathNotFoundException("The source path does not exist");
+        }
         if (!parent.isNode()) {
             throw new RepositoryException("The source path must be a node");
         }
-        final String descendantPrefix = parent.getPath() + "/";
-
-        final Map<String, String> pathsToMove = new LinkedHashMap<>();
-        pathsToMove.put(parent.getPath(), destAbsPath);
-        for (String itemPath : this.items.keySet()) {
-            if (itemPath.startsWith(descendantPrefix)) {
-                String newPath = String.format("%s/%s", destAbsPath, itemPath.substring(descendantPrefix.length()));
-                pathsToMove.put(itemPath, newPath);
-            }
-        }
-        for (Entry<String, String> pathToMove : pathsToMove.entrySet()) {
-            // remove the data from the old path
-            ItemData itemData = this.items.remove(pathToMove.getKey());
-            // add the data back at the new path
-            addItem(ItemData.cloneItemAtNewPath(pathToMove.getValue(), itemData));
+        if (itemCache != null) {
+            itemCache.invalidate(parent.getItemPath());
         }
-
-        hasKnownChanges = true;
+        final QueryIndexes indexes = getQueryIndexes();
+        indexes.unindexSubtree(parent);
+        final ItemData nextSibling = this.items.nextSibling(parent);
+        final ItemData moved = this.items.move(parent, newItemPath(ItemPath.of(ResourceUtil.normalize(destAbsPath))));
+        this.changeLog.itemRemoved(parent, nextSibling);
+        this.changeLog.itemAdded(moved, null);
+        descendantAdded(moved.getItemPath());
+        indexes.indexSubtree(moved);
+        ItemStore.forEachInSubtree(moved, item -> {
+            if (item.isNew() || item.isChanged()) {
+                trackChange(item);
+            }
+        });
     }
 
     @Override
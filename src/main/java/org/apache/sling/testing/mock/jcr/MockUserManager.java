@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.jackrabbit.api.security.principal.PrincipalManager;
@@ -71,6 +72,11 @@ public class MockUserManager implements UserManager {
      */
     public MockUserManager(Session session) {
         this.session = session;
+        if (session != null
+                && session.getRepository() instanceof MockRepository
+                && ((MockRepository) session.getRepository()).isConcurrent()) {
+            this.authorizables = new ConcurrentHashMap<>();
+        }
     }
 
     /**
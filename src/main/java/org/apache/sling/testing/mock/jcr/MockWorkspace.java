@@ -41,15 +41,16 @@ class MockWorkspace implements Workspace {
     private final MockRepository repository;
     private final Session session;
     private final String workspaceName;
-    private final QueryManager queryManager = new MockQueryManager();
+    private final QueryManager queryManager;
 
     /**
      * @param session JCR session
      */
-    public MockWorkspace(MockRepository repository, Session session, String workspaceName) {
+    public MockWorkspace(MockRepository repository, MockSession session, String workspaceName) {
         this.repository = repository;
         this.session = session;
         this.workspaceName = workspaceName;
+        this.queryManager = new MockQueryManager(repository, session);
     }
 
     @Override
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Index of a property, mapping values to the paths of the nodes having them.
+ * <p>
+ * Values are keyed by the type they are compared as by {@link QueryValues#compare(Value, Value)}:
+ * numbers by their double value, dates by their time in milliseconds, booleans, and all other
+ * values by their string. A lookup converts the value to each of these types, so that every node
+ * whose value compares equal is found. An ordered index keeps the keys sorted, so it also serves
+ * range lookups and lists nodes in the order of their values. The index may contain nodes that no
+ * longer have the value, and nodes whose value only rounds to the same double key, so callers have
+ * to check the candidates.
+ * </p>
+ */
+final class PropertyIndex {
+
+    /**
+     * Type a value is keyed as. The keys of one type are comparable and ordered like the values.
+     */
+    enum KeyType {
+        NUMBER {
+            @Override
+            Object key(final Value value) throws RepositoryException {
+                final double number = value.getDouble();
+                // -0.0 equals 0 when compared as decimal
+                return number == 0 ? 0d : number;
+            }
+        },
+        DATE {
+            @Override
+            Object key(final Value value) throws RepositoryException {
+                return value.getDate().getTimeInMillis();
+            }
+        },
+        BOOLEAN {
+            @Override
+            Object key(final Value value) throws RepositoryException {
+                return value.getBoolean();
+            }
+        },
+        STRING {
+            @Override
+            Object key(final Value value) throws RepositoryException {
+                return value.getString();
+            }
+        };
+
+        /**
+         * @param value Value
+         * @return Key of the value converted to this type
+         * @throws RepositoryException if the value cannot be converted
+         */
+        abstract Object key(Value value) throws RepositoryException;
+
+        /**
+         * @param propertyType Property type of a stored value
+         * @return Key type of the value, or null for binary values, which are not keyed
+         */
+        static KeyType of(final int propertyType) {
+            switch (propertyType) {
+                case PropertyType.LONG:
+                case PropertyType.DOUBLE:
+                case PropertyType.DECIMAL:
+                    return NUMBER;
+                case PropertyType.DATE:
+                    return DATE;
+                case PropertyType.BOOLEAN:
+                    return BOOLEAN;
+                case PropertyType.BINARY:
+                    return null;
+                default:
+                    return STRING;
+            }
+        }
+    }
+
+    private final String propertyName;
+    private final boolean ordered;
+    private final Map<KeyType, ConcurrentMap<Object, Set<ItemPath>>> keys = new EnumMap<>(KeyType.class);
+    // nodes with values that are not keyed or without values, always candidates
+    private final Set<ItemPath> unkeyed = ConcurrentHashMap.newKeySet();
+    // set once a node had several values, which are listed under all of their keys
+    private volatile boolean multiValued;
+
+    /**
+     * @param propertyName Property name
+     * @param ordered true to keep the keys sorted
+     */
+    PropertyIndex(final String propertyName, final boolean ordered) {
+        this.propertyName = propertyName;
+        this.ordered = ordered;
+        for (KeyType type : KeyType.values()) {
+            keys.put(type, ordered ? new ConcurrentSkipListMap<>() : new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Creates a copy of the given index.
+     * @param other Property index
+     */
+    PropertyIndex(final PropertyIndex other) {
+        this(other.propertyName, other.ordered);
+        other.keys.forEach((type, entries) -> entries.forEach((key, paths) -> {
+            final Set<ItemPath> copy = ConcurrentHashMap.newKeySet();
+            copy.addAll(paths);
+            keys.get(type).put(key, copy);
+        }));
+        unkeyed.addAll(other.unkeyed);
+        multiValued = other.multiValued;
+    }
+
+    String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * @return true if the keys are sorted
+     */
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return true if a node may have several values
+     */
+    boolean isMultiValued() {
+        return multiValued;
+    }
+
+    /**
+     * @param nodePath Path of the node
+     * @param values Values of the property
+     */
+    void add(final ItemPath nodePath, final Value[] values) {
+        if (values.length > 1) {
+            multiValued = true;
+        } else if (values.length == 0) {
+            // the property exists without a value to sort by
+            unkeyed.add(nodePath);
+        }
+        for (Value value : values) {
+            final KeyType type = value != null ? KeyType.of(value.getType()) : null;
+            if (type == null) {
+                if (value != null) {
+                    unkeyed.add(nodePath);
+                }
+                continue;
+            }
+            try {
+                final Object key = type.key(value);
+                final ConcurrentMap<Object, Set<ItemPath>> entries = keys.get(type);
+                // the functions of a skip list are not applied atomically, so updates are serialized
+                synchronized (entries) {
+                    entries.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(nodePath);
+                }
+            } catch (RepositoryException ex) {
+                // the node is a candidate for all lookups
+                unkeyed.add(nodePath);
+            }
+        }
+    }
+
+    /**
+     * @param nodePath Path of the node
+     * @param values Values of the property that are no longer set
+     */
+    void remove(final ItemPath nodePath, final Value[] values) {
+        for (Value value : values) {
+            // entries of unkeyed values are left, other values of the node may still be unkeyed
+            final KeyType type = value != null ? KeyType.of(value.getType()) : null;
+            if (type == null) {
+                continue;
+            }
+            try {
+                final Object key = type.key(value);
+                final ConcurrentMap<Object, Set<ItemPath>> entries = keys.get(type);
+                synchronized (entries) {
+                    final Set<ItemPath> paths = entries.get(key);
+                    if (paths != null && paths.remove(nodePath) && paths.isEmpty()) {
+                        entries.remove(key);
+                    }
+                }
+            } catch (RepositoryException ex) {
+                // the entry is left, which only costs a check of the candidate
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of values that none of the retained values has.
+     * @param nodePath Path of the node
+     * @param values Values of the property that were removed
+     * @param retained Values the property still has in other stores
+     * @return true if no entry of the removed values had to be kept
+     */
+    boolean remove(final ItemPath nodePath, final Value[] values, final Collection<Value[]> retained) {
+        final Set<Map.Entry<KeyType, Object>> removedKeys = new HashSet<>();
+        final boolean removedUnkeyed = collectKeys(values, removedKeys);
+        final Set<Map.Entry<KeyType, Object>> retainedKeys = new HashSet<>();
+        boolean retainedUnkeyed = false;
+        for (Value[] retainedValues : retained) {
+            retainedUnkeyed |= collectKeys(retainedValues, retainedKeys);
+        }
+        boolean result = !(removedUnkeyed && retainedUnkeyed);
+        if (!retainedUnkeyed) {
+            unkeyed.remove(nodePath);
+        }
+        for (Map.Entry<KeyType, Object> removedKey : removedKeys) {
+            if (retainedKeys.contains(removedKey)) {
+                result = false;
+                continue;
+            }
+            final ConcurrentMap<Object, Set<ItemPath>> entries = keys.get(removedKey.getKey());
+            synchronized (entries) {
+                final Set<ItemPath> paths = entries.get(removedKey.getValue());
+                if (paths != null && paths.remove(nodePath) && paths.isEmpty()) {
+                    entries.remove(removedKey.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param values Values of a property
+     * @param result Set to add the key types and keys of the values to
+     * @return true if the node is listed as unkeyed for the values
+     */
+    private static boolean collectKeys(final Value[] values, final Set<Map.Entry<KeyType, Object>> result) {
+        boolean unkeyed = values.length == 0;
+        for (Value value : values) {
+            final KeyType type = value != null ? KeyType.of(value.getType()) : null;
+            if (type == null) {
+                unkeyed |= value != null;
+                continue;
+            }
+            try {
+                result.add(new AbstractMap.SimpleImmutableEntry<>(type, type.key(value)));
+            } catch (RepositoryException ex) {
+                unkeyed = true;
+            }
+        }
+        return unkeyed;
+    }
+
+    /**
+     * @param value Value to look up
+     * @return Paths of the nodes that may have a value equal to the given value
+     */
+    Set<ItemPath> lookup(final Value value) {
+        final Set<ItemPath> result = new HashSet<>(unkeyed);
+        for (KeyType type : KeyType.values()) {
+            try {
+                final Set<ItemPath> paths = keys.get(type).get(type.key(value));
+                if (paths != null) {
+                    result.addAll(paths);
+                }
+            } catch (RepositoryException | RuntimeException ex) {
+                // the value cannot be compared as this type
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the nodes with a value in a range. Only supported by ordered indexes.
+     * @param value Value to compare with
+     * @param operator Comparison operator other than {@link QueryConstraint.Operator#NOT_EQUAL_TO} and
+     *     {@link QueryConstraint.Operator#LIKE}
+     * @return Paths of the nodes that may have a value satisfying the comparison
+     */
+    Set<ItemPath> lookup(final Value value, final QueryConstraint.Operator operator) {
+        if (operator == QueryConstraint.Operator.EQUAL_TO) {
+            return lookup(value);
+        }
+        final boolean lower =
+                operator == QueryConstraint.Operator.GREATER_THAN
+                        || operator == QueryConstraint.Operator.GREATER_THAN_OR_EQUAL_TO;
+        final Set<ItemPath> result = new HashSet<>(unkeyed);
+        for (KeyType type : KeyType.values()) {
+            try {
+                final Object key = type.key(value);
+                // the bound is inclusive, as different numbers may have the same double key
+                final NavigableMap<Object, Set<ItemPath>> range =
+                        lower ? sorted(type).tailMap(key, true) : sorted(type).headMap(key, true);
+                range.values().forEach(result::addAll);
+            } catch (RepositoryException | RuntimeException ex) {
+                // the value cannot be compared as this type
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Type of all indexed values, or null if values of several types or unkeyed values are indexed
+     */
+    KeyType getKeyType() {
+        if (!unkeyed.isEmpty()) {
+            return null;
+        }
+        KeyType result = null;
+        for (Map.Entry<KeyType, ConcurrentMap<Object, Set<ItemPath>>> entry : keys.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                if (result != null) {
+                    return null;
+                }
+                result = entry.getKey();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the entries of one key type in the order of their keys. Only supported by ordered indexes.
+     * @param type Key type
+     * @param from Smallest key, inclusive, or null
+     * @param to Largest key, inclusive, or null
+     * @param descending true to list the largest key first
+     * @return Paths of the nodes by key
+     */
+    Stream<Map.Entry<Object, Set<ItemPath>>> scan(
+            final KeyType type, final Object from, final Object to, final boolean descending) {
+        ConcurrentNavigableMap<Object, Set<ItemPath>> range = sorted(type);
+        if (from != null && to != null && compareKeys(from, to) > 0) {
+            return Stream.empty();
+        }
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, true);
+        }
+        return (descending ? range.descendingMap() : range).entrySet().stream();
+    }
+
+    /**
+     * Compares keys of the same type.
+     */
+    @SuppressWarnings("unchecked")
+    static int compareKeys(final Object key, final Object other) {
+        return ((Comparable<Object>) key).compareTo(other);
+    }
+
+    private ConcurrentNavigableMap<Object, Set<ItemPath>> sorted(final KeyType type) {
+        if (!ordered) {
+            throw new IllegalStateException("Property index is not ordered: " + propertyName);
+        }
+        return (ConcurrentNavigableMap<Object, Set<ItemPath>>) keys.get(type);
+    }
+}
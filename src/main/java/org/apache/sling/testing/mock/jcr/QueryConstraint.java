@@ -0,0 +1,483 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.Binary;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFormatException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.jackrabbit.JcrConstants;
+
+/**
+ * Constraint of a query, evaluated against a node record.
+ */
+abstract class QueryConstraint {
+
+    /**
+     * @param node Node record
+     * @param variables Values of the bind variables
+     * @return true if the node satisfies the constraint
+     * @throws RepositoryException if a value cannot be read or a bind variable has no value
+     */
+    abstract boolean evaluate(ItemData node, Map<String, Value> variables) throws RepositoryException;
+
+    /**
+     * @param node Node record that satisfies the constraint
+     * @param variables Values of the bind variables
+     * @return Full-text score of the node, 0 without full-text search
+     * @throws RepositoryException if a value cannot be read or a bind variable has no value
+     */
+    double score(ItemData node, Map<String, Value> variables) throws RepositoryException {
+        return 0;
+    }
+
+    static final class And extends QueryConstraint {
+
+        private final List<QueryConstraint> constraints;
+
+        And(final List<QueryConstraint> constraints) {
+            this.constraints = constraints;
+        }
+
+        /**
+         * @return Constraints that must all be satisfied
+         */
+        List<QueryConstraint> getConstraints() {
+            return constraints;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            for (QueryConstraint constraint : constraints) {
+                if (!constraint.evaluate(node, variables)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        double score(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            double score = 0;
+            for (QueryConstraint constraint : constraints) {
+                score += constraint.score(node, variables);
+            }
+            return score;
+        }
+    }
+
+    static final class Or extends QueryConstraint {
+
+        private final List<QueryConstraint> constraints;
+
+        Or(final List<QueryConstraint> constraints) {
+            this.constraints = constraints;
+        }
+
+        /**
+         * @return Constraints of which one must be satisfied
+         */
+        List<QueryConstraint> getConstraints() {
+            return constraints;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            for (QueryConstraint constraint : constraints) {
+                if (constraint.evaluate(node, variables)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        double score(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            double score = 0;
+            for (QueryConstraint constraint : constraints) {
+                if (constraint.evaluate(node, variables)) {
+                    score += constraint.score(node, variables);
+                }
+            }
+            return score;
+        }
+    }
+
+    static final class Not extends QueryConstraint {
+
+        private final QueryConstraint constraint;
+
+        Not(final QueryConstraint constraint) {
+            this.constraint = constraint;
+        }
+
+        QueryConstraint getConstraint() {
+            return constraint;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            return !constraint.evaluate(node, variables);
+        }
+    }
+
+    enum Operator {
+        EQUAL_TO,
+        NOT_EQUAL_TO,
+        LESS_THAN,
+        LESS_THAN_OR_EQUAL_TO,
+        GREATER_THAN,
+        GREATER_THAN_OR_EQUAL_TO,
+        LIKE;
+
+        boolean matches(final int comparison) {
+            switch (this) {
+                case EQUAL_TO:
+                    return comparison == 0;
+                case NOT_EQUAL_TO:
+                    return comparison != 0;
+                case LESS_THAN:
+                    return comparison < 0;
+                case LESS_THAN_OR_EQUAL_TO:
+                    return comparison <= 0;
+                case GREATER_THAN:
+                    return comparison > 0;
+                case GREATER_THAN_OR_EQUAL_TO:
+                    return comparison >= 0;
+                default:
+                    throw new IllegalStateException("Not a comparison: " + this);
+            }
+        }
+    }
+
+    /**
+     * Compares the values of an operand with a static value. It is satisfied if any value matches.
+     */
+    static final class Comparison extends QueryConstraint {
+
+        private final QueryOperand operand;
+        private final Operator operator;
+        private final QueryOperand.Static value;
+        // last compiled LIKE pattern
+        private volatile LikePattern likePattern;
+
+        Comparison(final QueryOperand operand, final Operator operator, final QueryOperand.Static value) {
+            this.operand = operand;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        QueryOperand getOperand() {
+            return operand;
+        }
+
+        Operator getOperator() {
+            return operator;
+        }
+
+        QueryOperand.Static getValue() {
+            return value;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            final Value[] values = operand.getValues(node);
+            if (values.length == 0) {
+                return false;
+            }
+            final Value other = value.getValue(variables);
+            if (operator == Operator.LIKE) {
+                final Pattern pattern = getLikePattern(other.getString());
+                for (Value current : values) {
+                    if (pattern.matcher(current.getString()).matches()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (Value current : values) {
+                try {
+                    if (operator.matches(QueryValues.compare(current, other))) {
+                        return true;
+                    }
+                } catch (ValueFormatException ex) {
+                    // the value cannot be compared with the static value
+                }
+            }
+            return false;
+        }
+
+        private Pattern getLikePattern(final String source) {
+            LikePattern cached = likePattern;
+            if (cached == null || !cached.source.equals(source)) {
+                cached = new LikePattern(source);
+                likePattern = cached;
+            }
+            return cached.pattern;
+        }
+    }
+
+    private static final class LikePattern {
+
+        private final String source;
+        private final Pattern pattern;
+
+        LikePattern(String source) {
+            this.source = source;
+            this.pattern = QueryValues.likePattern(source);
+        }
+    }
+
+    /**
+     * Checks whether any value of an operand equals one of a list of static values.
+     */
+    static final class In extends QueryConstraint {
+
+        private final QueryOperand operand;
+        private final List<QueryOperand.Static> values;
+
+        In(final QueryOperand operand, final List<QueryOperand.Static> values) {
+            this.operand = operand;
+            this.values = values;
+        }
+
+        QueryOperand getOperand() {
+            return operand;
+        }
+
+        List<QueryOperand.Static> getValues() {
+            return values;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            for (Value current : operand.getValues(node)) {
+                for (QueryOperand.Static candidate : values) {
+                    try {
+                        if (QueryValues.compare(current, candidate.getValue(variables)) == 0) {
+                            return true;
+                        }
+                    } catch (ValueFormatException ex) {
+                        // the value cannot be compared with the static value
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a property exists, or does not exist.
+     */
+    static final class PropertyExistence extends QueryConstraint {
+
+        private final QueryOperand.PropertyValue property;
+        private final boolean exists;
+
+        PropertyExistence(final QueryOperand.PropertyValue property, final boolean exists) {
+            this.property = property;
+            this.exists = exists;
+        }
+
+        QueryOperand.PropertyValue getProperty() {
+            return property;
+        }
+
+        boolean isExists() {
+            return exists;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) {
+            return (property.getProperty(node) != null) == exists;
+        }
+    }
+
+    /**
+     * Full-text search in the values of a property, or of all properties of the node. Binary values
+     * are searched as text if the node has a text MIME type, like the jcr:content node of a file.
+     */
+    static final class FullTextSearch extends QueryConstraint {
+
+        private final String propertyName;
+        private final QueryOperand.Static expression;
+        // last parsed expression
+        private volatile ParsedExpression parsedExpression;
+
+        /**
+         * @param propertyName Property name, or null to search all properties
+         * @param expression Full-text search expression
+         */
+        FullTextSearch(final String propertyName, final QueryOperand.Static expression) {
+            this.propertyName = propertyName;
+            this.expression = expression;
+        }
+
+        /**
+         * @return Property name, or null if all properties are searched
+         */
+        String getPropertyName() {
+            return propertyName;
+        }
+
+        /**
+         * @param variables Values of the bind variables
+         * @return Parsed full-text search expression
+         * @throws RepositoryException if the expression is invalid or a bind variable has no value
+         */
+        FullTextExpression getExpression(final Map<String, Value> variables) throws RepositoryException {
+            final String source = expression.getValue(variables).getString();
+            ParsedExpression cached = parsedExpression;
+            if (cached == null || !cached.source.equals(source)) {
+                cached = new ParsedExpression(source, FullTextExpression.parse(source));
+                parsedExpression = cached;
+            }
+            return cached.expression;
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            return getExpression(variables).score(getTexts(node)) != FullTextExpression.NO_MATCH;
+        }
+
+        @Override
+        double score(final ItemData node, final Map<String, Value> variables) throws RepositoryException {
+            return Math.max(0, getExpression(variables).score(getTexts(node)));
+        }
+
+        private List<List<String>> getTexts(final ItemData node) throws RepositoryException {
+            final List<List<String>> texts = new ArrayList<>();
+            for (ItemData property : node.getProperties().values()) {
+                final Value[] values = property.getValues();
+                if (values == null || (propertyName != null && !propertyName.equals(property.getName()))) {
+                    continue;
+                }
+                for (Value value : values) {
+                    final String text =
+                            value.getType() == PropertyType.BINARY ? getBinaryText(node, value) : value.getString();
+                    if (text != null) {
+                        texts.add(FullTextExpression.tokenize(text));
+                    }
+                }
+            }
+            return texts;
+        }
+
+        private static String getBinaryText(final ItemData node, final Value value) throws RepositoryException {
+            final ItemData mimeType = node.getProperties().get(JcrConstants.JCR_MIMETYPE);
+            if (mimeType == null
+                    || mimeType.getValues() == null
+                    || !mimeType.getValues()[0].getString().startsWith("text/")) {
+                return null;
+            }
+            final ItemData encoding = node.getProperties().get(JcrConstants.JCR_ENCODING);
+            Charset charset = StandardCharsets.UTF_8;
+            if (encoding != null && encoding.getValues() != null) {
+                try {
+                    charset = Charset.forName(encoding.getValues()[0].getString());
+                } catch (IllegalArgumentException ex) {
+                    // unknown encoding, read as UTF-8
+                }
+            }
+            final Binary binary = value.getBinary();
+            try (InputStream stream = binary.getStream()) {
+                return new String(stream.readAllBytes(), charset);
+            } catch (IOException ex) {
+                throw new RepositoryException("Reading binary text failed.", ex);
+            } finally {
+                binary.dispose();
+            }
+        }
+    }
+
+    private static final class ParsedExpression {
+
+        private final String source;
+        private final FullTextExpression expression;
+
+        ParsedExpression(String source, FullTextExpression expression) {
+            this.source = source;
+            this.expression = expression;
+        }
+    }
+
+    /**
+     * Constraint on the path of the node relative to another path.
+     */
+    abstract static class PathConstraint extends QueryConstraint {
+
+        private final ItemPath path;
+
+        PathConstraint(final ItemPath path) {
+            this.path = path;
+        }
+
+        ItemPath getPath() {
+            return path;
+        }
+    }
+
+    static final class SameNode extends PathConstraint {
+
+        SameNode(final ItemPath path) {
+            super(path);
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) {
+            return node.getItemPath().equals(getPath());
+        }
+    }
+
+    static final class ChildNode extends PathConstraint {
+
+        ChildNode(final ItemPath path) {
+            super(path);
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) {
+            final ItemPath parent = node.getItemPath().getParent();
+            return parent != null && parent.equals(getPath());
+        }
+    }
+
+    static final class DescendantNode extends PathConstraint {
+
+        DescendantNode(final ItemPath path) {
+            super(path);
+        }
+
+        @Override
+        boolean evaluate(final ItemData node, final Map<String, Value> variables) {
+            return node.getItemPath().isDescendantOf(getPath());
+        }
+    }
+}
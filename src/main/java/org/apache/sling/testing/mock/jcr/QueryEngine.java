@@ -0,0 +1,601 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFormatException;
+import javax.jcr.query.InvalidQueryException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Evaluates parsed queries against the content of a session.
+ * <p>
+ * Evaluation is a lazy pipeline: the nodes of the narrowest subtree given by a path constraint
+ * are traversed in document order, filtered by node type and constraint, and only sorted if the
+ * query has orderings. With a limit, sorting keeps only the top nodes. Results are evaluated
+ * again each time they are iterated.
+ * </p>
+ * <p>
+ * If a property index covers an equality, IN or range constraint, or the full-text index covers a
+ * full-text constraint, the nodes listed by the index are read in document order instead of traversing
+ * a subtree, visiting only the children of their ancestors. They are filtered the same way, so index
+ * entries of nodes that no longer match are skipped. If the first ordering is by a property with an
+ * ordered index, and the constraint requires the property, the nodes are read in the order of the
+ * index instead, unless an index lists fewer nodes than requested. With a limit, reading stops after
+ * the first nodes.
+ * </p>
+ */
+final class QueryEngine {
+
+    private final MockSession session;
+
+    QueryEngine(final MockSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Checks that all bind variables of the query have a value, and that full-text search
+     * expressions are valid.
+     * @param statement Parsed query
+     * @param variables Values of the bind variables
+     * @throws RepositoryException if a bind variable has no value or an expression is invalid
+     */
+    void validate(final QueryStatement statement, final Map<String, Value> variables) throws RepositoryException {
+        for (String name : statement.getBindVariableNames()) {
+            if (!variables.containsKey(name)) {
+                throw new InvalidQueryException("Bind variable has no value: " + name);
+            }
+        }
+        validate(statement.getConstraint(), variables);
+    }
+
+    private static void validate(final QueryConstraint constraint, final Map<String, Value> variables)
+            throws RepositoryException {
+        if (constraint instanceof QueryConstraint.FullTextSearch) {
+            ((QueryConstraint.FullTextSearch) constraint).getExpression(variables);
+        } else if (constraint instanceof QueryConstraint.And) {
+            for (QueryConstraint child : ((QueryConstraint.And) constraint).getConstraints()) {
+                validate(child, variables);
+            }
+        } else if (constraint instanceof QueryConstraint.Or) {
+            for (QueryConstraint child : ((QueryConstraint.Or) constraint).getConstraints()) {
+                validate(child, variables);
+            }
+        } else if (constraint instanceof QueryConstraint.Not) {
+            validate(((QueryConstraint.Not) constraint).getConstraint(), variables);
+        }
+    }
+
+    /**
+     * @param statement Parsed query
+     * @param variables Values of the bind variables
+     * @param offset Number of matching nodes to skip
+     * @param limit Maximum number of nodes, 0 for no limit
+     * @return Matching node records
+     */
+    Stream<ItemData> execute(
+            final QueryStatement statement, final Map<String, Value> variables, final long offset, final long limit) {
+        final String nodeTypeName = statement.getNodeTypeName();
+        final QueryConstraint constraint = statement.getConstraint();
+        final List<QueryStatement.Ordering> orderings = statement.getOrderings();
+        final Predicate<ItemData> filter =
+                node -> QueryValues.isNodeType(node, nodeTypeName) && matches(constraint, node, variables);
+        final QueryConstraint.PathConstraint scope = getScope(constraint);
+        final Set<ItemPath> candidates =
+                scope instanceof QueryConstraint.SameNode ? null : lookup(constraint, variables);
+        final PropertyIndex orderIndex = scope instanceof QueryConstraint.SameNode ? null : getOrderIndex(statement);
+        // values of several types are not sorted like their keys
+        final PropertyIndex.KeyType orderType = orderIndex != null ? orderIndex.getKeyType() : null;
+        Stream<ItemData> nodes;
+        if (orderType != null && (candidates == null || (limit > 0 && candidates.size() > offset + limit))) {
+            // fewer nodes are read in order from the index than would have to be sorted
+            nodes = scan(orderIndex, orderType, statement, variables, filter);
+        } else {
+            nodes = source(scope, candidates).filter(filter);
+            if (!orderings.isEmpty()) {
+                nodes = sort(nodes, statement, variables, limit > 0 ? offset + limit : 0);
+            }
+        }
+        if (offset > 0) {
+            nodes = nodes.skip(offset);
+        }
+        if (limit > 0) {
+            nodes = nodes.limit(limit);
+        }
+        return nodes;
+    }
+
+    /**
+     * @param statement Parsed query
+     * @param variables Values of the bind variables
+     * @param node Node record matching the query
+     * @return Full-text score of the node, 0 if the query has no full-text constraint
+     */
+    double score(final QueryStatement statement, final Map<String, Value> variables, final ItemData node) {
+        return score(statement.getConstraint(), node, variables);
+    }
+
+    private static double score(
+            final QueryConstraint constraint, final ItemData node, final Map<String, Value> variables) {
+        try {
+            return constraint != null ? constraint.score(node, variables) : 0;
+        } catch (RepositoryException ex) {
+            throw new RuntimeException("Evaluating query score failed.", ex);
+        }
+    }
+
+    private static boolean matches(
+            final QueryConstraint constraint, final ItemData node, final Map<String, Value> variables) {
+        try {
+            return constraint == null || constraint.evaluate(node, variables);
+        } catch (RepositoryException ex) {
+            throw new RuntimeException("Evaluating query constraint failed.", ex);
+        }
+    }
+
+    /**
+     * @param scope Path constraint that selects the fewest nodes, or null
+     * @param candidates Paths of the nodes listed by an index, or null
+     * @return Nodes listed by an index, or of the subtree given by the path constraint
+     */
+    private Stream<ItemData> source(final QueryConstraint.PathConstraint scope, final Set<ItemPath> candidates) {
+        if (candidates != null) {
+            return inDocumentOrder(candidates);
+        }
+        if (scope == null) {
+            return subtree(session.getNodeData(ItemPath.ROOT), true);
+        }
+        final ItemData node = session.getNodeData(scope.getPath());
+        if (node == null) {
+            return Stream.empty();
+        } else if (scope instanceof QueryConstraint.SameNode) {
+            return Stream.of(node);
+        } else if (scope instanceof QueryConstraint.ChildNode) {
+            return Arrays.stream(children(node));
+        }
+        return subtree(node, false);
+    }
+
+    /**
+     * @param constraint Query constraint
+     * @param variables Values of the bind variables
+     * @return Paths of the candidate nodes of the index constraint with the fewest candidates,
+     *     or null if no constraint is covered by an index
+     */
+    private Set<ItemPath> lookup(final QueryConstraint constraint, final Map<String, Value> variables) {
+        final QueryIndexes indexes = session.getQueryIndexes();
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        Set<ItemPath> result = null;
+        try {
+            for (QueryConstraint conjunct : getConjuncts(constraint)) {
+                final Set<ItemPath> candidates = lookup(indexes, conjunct, variables);
+                if (candidates != null && (result == null || candidates.size() < result.size())) {
+                    result = candidates;
+                }
+            }
+        } catch (InvalidQueryException ex) {
+            // a bind variable has no value, which is reported when evaluating the constraint
+            return null;
+        }
+        return result;
+    }
+
+    private static Set<ItemPath> lookup(
+            final QueryIndexes indexes, final QueryConstraint constraint, final Map<String, Value> variables)
+            throws InvalidQueryException {
+        if (constraint instanceof QueryConstraint.Comparison) {
+            final QueryConstraint.Comparison comparison = (QueryConstraint.Comparison) constraint;
+            final PropertyIndex index = getPropertyIndex(indexes, comparison.getOperand());
+            if (index != null && comparison.getOperator() == QueryConstraint.Operator.EQUAL_TO) {
+                return index.lookup(comparison.getValue().getValue(variables));
+            } else if (index != null && index.isOrdered() && isRange(comparison.getOperator())) {
+                return index.lookup(comparison.getValue().getValue(variables), comparison.getOperator());
+            }
+        } else if (constraint instanceof QueryConstraint.In) {
+            final QueryConstraint.In in = (QueryConstraint.In) constraint;
+            final PropertyIndex index = getPropertyIndex(indexes, in.getOperand());
+            if (index != null) {
+                final Set<ItemPath> candidates = new HashSet<>();
+                for (QueryOperand.Static value : in.getValues()) {
+                    candidates.addAll(index.lookup(value.getValue(variables)));
+                }
+                return candidates;
+            }
+        } else if (constraint instanceof QueryConstraint.FullTextSearch && indexes.getFullTextIndex() != null) {
+            final QueryConstraint.FullTextSearch search = (QueryConstraint.FullTextSearch) constraint;
+            try {
+                return indexes.getFullTextIndex().lookup(search.getExpression(variables), search.getPropertyName());
+            } catch (RepositoryException ex) {
+                // the expression cannot be read, which is reported when evaluating the constraint
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRange(final QueryConstraint.Operator operator) {
+        return operator == QueryConstraint.Operator.LESS_THAN
+                || operator == QueryConstraint.Operator.LESS_THAN_OR_EQUAL_TO
+                || operator == QueryConstraint.Operator.GREATER_THAN
+                || operator == QueryConstraint.Operator.GREATER_THAN_OR_EQUAL_TO;
+    }
+
+    /**
+     * @param statement Parsed query
+     * @return Ordered index listing the nodes in the order of the first ordering, or null if there is none
+     */
+    private PropertyIndex getOrderIndex(final QueryStatement statement) {
+        if (statement.getOrderings().isEmpty()) {
+            return null;
+        }
+        final PropertyIndex index = getPropertyIndex(
+                session.getQueryIndexes(), statement.getOrderings().get(0).getOperand());
+        if (index == null || !index.isOrdered()) {
+            return null;
+        }
+        // nodes without the property are sorted as well, but not listed by the index
+        for (QueryConstraint conjunct : getConjuncts(statement.getConstraint())) {
+            if (requiresProperty(conjunct, index.getPropertyName())) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static boolean requiresProperty(final QueryConstraint constraint, final String propertyName) {
+        QueryOperand operand = null;
+        if (constraint instanceof QueryConstraint.Comparison) {
+            operand = ((QueryConstraint.Comparison) constraint).getOperand();
+        } else if (constraint instanceof QueryConstraint.In) {
+            operand = ((QueryConstraint.In) constraint).getOperand();
+        } else if (constraint instanceof QueryConstraint.PropertyExistence
+                && ((QueryConstraint.PropertyExistence) constraint).isExists()) {
+            operand = ((QueryConstraint.PropertyExistence) constraint).getProperty();
+        }
+        return operand instanceof QueryOperand.PropertyValue
+                && ((QueryOperand.PropertyValue) operand).isDirect()
+                && ((QueryOperand.PropertyValue) operand).getPropertyName().equals(propertyName);
+    }
+
+    /**
+     * Reads the matching nodes in the order of an ordered index. Only nodes with the same key are
+     * sorted, by all orderings.
+     * @param index Ordered index of the property of the first ordering
+     * @param type Type of all keys of the index
+     * @param statement Parsed query
+     * @param variables Values of the bind variables
+     * @param filter Node type and constraint filter
+     * @return Sorted nodes
+     */
+    private Stream<ItemData> scan(
+            final PropertyIndex index,
+            final PropertyIndex.KeyType type,
+            final QueryStatement statement,
+            final Map<String, Value> variables,
+            final Predicate<ItemData> filter) {
+        // narrow the keys by range constraints on the property, unless a node that matches by
+        // another value may be sorted by a first value outside of the range
+        Object from = null;
+        Object to = null;
+        for (QueryConstraint conjunct : getConjuncts(statement.getConstraint())) {
+            if (index.isMultiValued()
+                    || !(conjunct instanceof QueryConstraint.Comparison)
+                    || !requiresProperty(conjunct, index.getPropertyName())) {
+                continue;
+            }
+            final QueryConstraint.Comparison comparison = (QueryConstraint.Comparison) conjunct;
+            final QueryConstraint.Operator operator = comparison.getOperator();
+            final Object key;
+            try {
+                key = type.key(comparison.getValue().getValue(variables));
+            } catch (RepositoryException | RuntimeException ex) {
+                // the value cannot be compared as the type of the keys
+                continue;
+            }
+            if (operator == QueryConstraint.Operator.EQUAL_TO
+                    || operator == QueryConstraint.Operator.GREATER_THAN
+                    || operator == QueryConstraint.Operator.GREATER_THAN_OR_EQUAL_TO) {
+                from = from == null || PropertyIndex.compareKeys(key, from) > 0 ? key : from;
+            }
+            if (operator == QueryConstraint.Operator.EQUAL_TO
+                    || operator == QueryConstraint.Operator.LESS_THAN
+                    || operator == QueryConstraint.Operator.LESS_THAN_OR_EQUAL_TO) {
+                to = to == null || PropertyIndex.compareKeys(key, to) < 0 ? key : to;
+            }
+        }
+        final List<QueryStatement.Ordering> orderings = statement.getOrderings();
+        final Comparator<SortEntry> comparator = sortComparator(orderings);
+        final long[] position = new long[1];
+        return index.scan(type, from, to, orderings.get(0).isDescending()).flatMap(entry -> {
+            final List<SortEntry> entries = new ArrayList<>();
+            inDocumentOrder(entry.getValue())
+                    .filter(filter)
+                    .forEach(node -> {
+                        final Value[] keys = getSortKeys(node, statement, variables);
+                        // a node is sorted by its first value, other values are skipped
+                        if (hasKey(keys[0], type, entry.getKey())) {
+                            entries.add(new SortEntry(node, keys, position[0]++));
+                        }
+                    });
+            entries.sort(comparator);
+            return entries.stream().map(sortEntry -> sortEntry.node);
+        });
+    }
+
+    private static boolean hasKey(final Value value, final PropertyIndex.KeyType type, final Object key) {
+        try {
+            return value != null
+                    && PropertyIndex.KeyType.of(value.getType()) == type
+                    && type.key(value).equals(key);
+        } catch (RepositoryException ex) {
+            return false;
+        }
+    }
+
+    private static PropertyIndex getPropertyIndex(final QueryIndexes indexes, final QueryOperand operand) {
+        if (operand instanceof QueryOperand.PropertyValue && ((QueryOperand.PropertyValue) operand).isDirect()) {
+            return indexes.getPropertyIndex(((QueryOperand.PropertyValue) operand).getPropertyName());
+        }
+        return null;
+    }
+
+    /**
+     * Lists the existing nodes of the given paths in document order, the order in which a traversal
+     * returns them. Only the children of their ancestors are visited.
+     * @param paths Node paths
+     * @return Nodes in document order
+     */
+    private Stream<ItemData> inDocumentOrder(final Set<ItemPath> paths) {
+        if (paths.size() == 1) {
+            return Stream.ofNullable(session.getNodeData(paths.iterator().next()));
+        }
+        final Set<ItemPath> ancestors = new HashSet<>();
+        for (ItemPath path : paths) {
+            ItemPath parent = path.getParent();
+            while (parent != null && ancestors.add(parent)) {
+                parent = parent.getParent();
+            }
+        }
+        final List<ItemData> nodes = new ArrayList<>(paths.size());
+        final ItemData root = session.getNodeData(ItemPath.ROOT);
+        if (root != null) {
+            collect(root, paths, ancestors, nodes);
+        }
+        return nodes.stream();
+    }
+
+    private static void collect(
+            final ItemData node, final Set<ItemPath> paths, final Set<ItemPath> ancestors, final List<ItemData> nodes) {
+        final ItemPath path = node.getItemPath();
+        if (paths.contains(path)) {
+            nodes.add(node);
+        }
+        if (ancestors.contains(path)) {
+            for (ItemData child : children(node)) {
+                collect(child, paths, ancestors, nodes);
+            }
+        }
+    }
+
+    /**
+     * @param constraint Query constraint
+     * @return Path constraint of the query that selects the fewest nodes, or null
+     */
+    static QueryConstraint.PathConstraint getScope(final QueryConstraint constraint) {
+        QueryConstraint.PathConstraint scope = null;
+        for (QueryConstraint conjunct : getConjuncts(constraint)) {
+            if (conjunct instanceof QueryConstraint.PathConstraint
+                    && (scope == null || rank(conjunct) > rank(scope))) {
+                scope = (QueryConstraint.PathConstraint) conjunct;
+            }
+        }
+        return scope;
+    }
+
+    private static int rank(final QueryConstraint constraint) {
+        final int depth = ((QueryConstraint.PathConstraint) constraint).getPath().getDepth();
+        if (constraint instanceof QueryConstraint.SameNode) {
+            return Integer.MAX_VALUE;
+        } else if (constraint instanceof QueryConstraint.ChildNode) {
+            return Integer.MAX_VALUE / 2 + depth;
+        }
+        return depth;
+    }
+
+    /**
+     * @param constraint Query constraint, may be null
+     * @return Constraints that must all be satisfied
+     */
+    static List<QueryConstraint> getConjuncts(final QueryConstraint constraint) {
+        if (constraint == null) {
+            return Collections.emptyList();
+        } else if (constraint instanceof QueryConstraint.And) {
+            final List<QueryConstraint> conjuncts = new ArrayList<>();
+            for (QueryConstraint child : ((QueryConstraint.And) constraint).getConstraints()) {
+                conjuncts.addAll(getConjuncts(child));
+            }
+            return conjuncts;
+        }
+        return Collections.singletonList(constraint);
+    }
+
+    private static ItemData[] children(final ItemData node) {
+        // snapshot, so that changes while iterating results do not affect the traversal
+        return node.getChildNodes().values().toArray(ChildItemIterator.NO_ITEMS);
+    }
+
+    /**
+     * @param root Root node of the subtree
+     * @param includeRoot true to include the root node itself
+     * @return Nodes of the subtree in document order, traversed lazily
+     */
+    private static Stream<ItemData> subtree(final ItemData root, final boolean includeRoot) {
+        final Iterator<ItemData> iterator = new Iterator<ItemData>() {
+
+            private final Deque<Iterator<ItemData>> stack = new ArrayDeque<>();
+
+            {
+                stack.push(includeRoot
+                        ? Collections.singletonList(root).iterator()
+                        : Arrays.asList(children(root)).iterator());
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                    stack.pop();
+                }
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public ItemData next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final ItemData node = stack.peek().next();
+                final ItemData[] children = children(node);
+                if (children.length > 0) {
+                    stack.push(Arrays.asList(children).iterator());
+                }
+                return node;
+            }
+        };
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Sorts the nodes by the ordering keys, nodes with equal keys stay in document order.
+     * @param nodes Nodes
+     * @param statement Parsed query with orderings
+     * @param variables Values of the bind variables
+     * @param maxSize Number of first nodes that are needed, 0 for all
+     * @return Sorted nodes
+     */
+    private static Stream<ItemData> sort(
+            final Stream<ItemData> nodes,
+            final QueryStatement statement,
+            final Map<String, Value> variables,
+            final long maxSize) {
+        final Comparator<SortEntry> comparator = sortComparator(statement.getOrderings());
+        final long[] position = new long[1];
+        final Stream<SortEntry> entries =
+                nodes.map(node -> new SortEntry(node, getSortKeys(node, statement, variables), position[0]++));
+        if (maxSize <= 0 || maxSize >= Integer.MAX_VALUE) {
+            return entries.sorted(comparator).map(entry -> entry.node);
+        }
+        // keep only the first nodes, the head of the queue is the last of them
+        final PriorityQueue<SortEntry> top = new PriorityQueue<>(comparator.reversed());
+        entries.forEach(entry -> {
+            top.add(entry);
+            if (top.size() > maxSize) {
+                top.poll();
+            }
+        });
+        final List<SortEntry> sorted = new ArrayList<>(top);
+        sorted.sort(comparator);
+        return sorted.stream().map(entry -> entry.node);
+    }
+
+    private static Value[] getSortKeys(
+            final ItemData node, final QueryStatement statement, final Map<String, Value> variables) {
+        final List<QueryStatement.Ordering> orderings = statement.getOrderings();
+        final Value[] keys = new Value[orderings.size()];
+        for (int i = 0; i < keys.length; i++) {
+            final QueryOperand operand = orderings.get(i).getOperand();
+            if (operand instanceof QueryOperand.Score) {
+                keys[i] = QueryOperand.valueFactory().createValue(score(statement.getConstraint(), node, variables));
+                continue;
+            }
+            try {
+                final Value[] values = operand.getValues(node);
+                keys[i] = values.length > 0 ? values[0] : null;
+            } catch (RepositoryException ex) {
+                throw new RuntimeException("Evaluating query ordering failed.", ex);
+            }
+        }
+        return keys;
+    }
+
+    private static Comparator<SortEntry> sortComparator(final List<QueryStatement.Ordering> orderings) {
+        return (entry, other) -> {
+            for (int i = 0; i < orderings.size(); i++) {
+                final int comparison = compareKeys(entry.keys[i], other.keys[i]);
+                if (comparison != 0) {
+                    return orderings.get(i).isDescending() ? -comparison : comparison;
+                }
+            }
+            return Long.compare(entry.position, other.position);
+        };
+    }
+
+    /**
+     * Compares ordering keys, missing values sort before all values.
+     */
+    static int compareKeys(final Value value, final Value other) {
+        if (value == null || other == null) {
+            return value == null ? (other == null ? 0 : -1) : 1;
+        }
+        try {
+            try {
+                return QueryValues.compare(value, other);
+            } catch (ValueFormatException ex) {
+                // values of different types
+                return value.getString().compareTo(other.getString());
+            }
+        } catch (RepositoryException ex) {
+            throw new RuntimeException("Comparing query values failed.", ex);
+        }
+    }
+
+    private static final class SortEntry {
+
+        private final ItemData node;
+        private final Value[] keys;
+        private final long position;
+
+        SortEntry(ItemData node, Value[] keys, long position) {
+            this.node = node;
+            this.keys = keys;
+            this.position = position;
+        }
+    }
+}
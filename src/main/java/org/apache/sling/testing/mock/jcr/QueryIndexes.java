@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.Value;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Indexes of a repository used by the query engine, shared by all its sessions.
+ * <p>
+ * Indexes are keyed by node path, as records are copied when they are modified, and are updated
+ * whenever a session writes, removes or moves items. If sessions work on their own snapshot of the
+ * content, a change of one session must not hide content that other sessions still see, so removed
+ * values are only collected then, and {@link #purge(Collection, Predicate)} removes their entries once
+ * no session can see them anymore. Either way an index may list nodes that no longer match, and the query engine
+ * checks each candidate against the content of its session.
+ * </p>
+ */
+final class QueryIndexes {
+
+    // false if the sessions of the repository do not share one item store
+    private final boolean removeEntries;
+    private final Map<String, PropertyIndex> propertyIndexes = new ConcurrentHashMap<>();
+    private volatile FullTextIndex fullTextIndex;
+    // values removed from the property records at a path, only if entries are not removed at once
+    private final List<Removal> removals = new ArrayList<>();
+    // entries are added under the read lock, so that a purge does not remove entries added meanwhile
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param removeEntries true if entries are removed when values are removed or changed
+     */
+    QueryIndexes(final boolean removeEntries) {
+        this.removeEntries = removeEntries;
+    }
+
+    /**
+     * Creates a copy of the given indexes.
+     * @param other Indexes
+     * @param removeEntries true if entries are removed when values are removed or changed
+     */
+    QueryIndexes(final QueryIndexes other, final boolean removeEntries) {
+        this(removeEntries);
+        other.propertyIndexes.forEach((name, index) -> propertyIndexes.put(name, new PropertyIndex(index)));
+        final FullTextIndex otherFullTextIndex = other.fullTextIndex;
+        fullTextIndex = otherFullTextIndex != null ? new FullTextIndex(otherFullTextIndex) : null;
+    }
+
+    /**
+     * @return true if no index is defined
+     */
+    boolean isEmpty() {
+        return propertyIndexes.isEmpty() && fullTextIndex == null;
+    }
+
+    /**
+     * @param propertyName Property name
+     * @return Index of the property, or null if there is none
+     */
+    PropertyIndex getPropertyIndex(final String propertyName) {
+        return propertyIndexes.get(propertyName);
+    }
+
+    /**
+     * Defines an index for a property, and indexes the given content. An existing index is only
+     * replaced if it is not ordered and an ordered index is requested.
+     * @param propertyName Property name
+     * @param ordered true for an ordered index, which also serves ranges and ordering
+     * @param roots Root records of the content to index
+     */
+    void addPropertyIndex(final String propertyName, final boolean ordered, final ItemData... roots) {
+        final PropertyIndex existing = propertyIndexes.get(propertyName);
+        if (existing != null && (existing.isOrdered() || !ordered)) {
+            return;
+        }
+        final PropertyIndex index = new PropertyIndex(propertyName, ordered);
+        for (ItemData root : roots) {
+            forEachProperty(root, property -> {
+                if (property.getName().equals(propertyName)) {
+                    index.add(property.getItemPath().getParent(), property.getValues());
+                }
+            });
+        }
+        propertyIndexes.put(propertyName, index);
+    }
+
+    /**
+     * @return Full-text index, or null if there is none
+     */
+    FullTextIndex getFullTextIndex() {
+        return fullTextIndex;
+    }
+
+    /**
+     * Defines the full-text index, and indexes the given content, unless it is already defined.
+     * @param roots Root records of the content to index
+     */
+    void addFullTextIndex(final ItemData... roots) {
+        if (fullTextIndex != null) {
+            return;
+        }
+        final FullTextIndex index = new FullTextIndex();
+        for (ItemData root : roots) {
+            forEachProperty(root, property -> index.add(property.getItemPath(), property.getValues()));
+        }
+        fullTextIndex = index;
+    }
+
+    /**
+     * Indexes the values of a property record.
+     * @param property Property record
+     */
+    void indexProperty(final ItemData property) {
+        final PropertyIndex index = propertyIndexes.get(property.getName());
+        final FullTextIndex currentFullTextIndex = fullTextIndex;
+        final Value[] values = index != null || currentFullTextIndex != null ? property.getValues() : null;
+        if (values == null) {
+            return;
+        }
+        if (removeEntries) {
+            add(index, currentFullTextIndex, property.getItemPath(), values);
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            add(index, currentFullTextIndex, property.getItemPath(), values);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void add(
+            final PropertyIndex index,
+            final FullTextIndex currentFullTextIndex,
+            final ItemPath propertyPath,
+            final Value[] values) {
+        if (index != null) {
+            index.add(propertyPath.getParent(), values);
+        }
+        if (currentFullTextIndex != null) {
+            currentFullTextIndex.add(propertyPath, values);
+        }
+    }
+
+    /**
+     * Removes the values of a property record before it is changed or removed.
+     * @param property Property record
+     */
+    void unindexProperty(final ItemData property) {
+        final PropertyIndex index = propertyIndexes.get(property.getName());
+        final FullTextIndex currentFullTextIndex = fullTextIndex;
+        final Value[] values = index != null || currentFullTextIndex != null ? property.getValues() : null;
+        if (values == null) {
+            return;
+        }
+        if (!removeEntries) {
+            synchronized (removals) {
+                removals.add(new Removal(property.getItemPath(), values));
+            }
+            return;
+        }
+        if (index != null) {
+            index.remove(property.getItemPath().getParent(), values);
+        }
+        if (currentFullTextIndex != null) {
+            currentFullTextIndex.remove(property.getItemPath(), values);
+        }
+    }
+
+    /**
+     * Indexes the properties of an item and all its descendants.
+     * @param itemData Item record
+     */
+    void indexSubtree(final ItemData itemData) {
+        if (!isEmpty()) {
+            forEachProperty(itemData, this::indexProperty);
+        }
+    }
+
+    /**
+     * Removes the properties of an item and all its descendants before they are removed.
+     * @param itemData Item record
+     */
+    void unindexSubtree(final ItemData itemData) {
+        if (!isEmpty()) {
+            forEachProperty(itemData, this::unindexProperty);
+        }
+    }
+
+    /**
+     * Collects the values of the properties a session discards in isolated mode, so that their entries
+     * are removed by the next purge. Nodes that are not in the base store of the session were added or
+     * moved by it, all properties below them are collected.
+     * @param items Store of the session with the changes
+     * @param base Committed store the session store was forked from
+     * @param changedPaths Paths of the changed items
+     */
+    void unindexChanges(final ItemStore items, final ItemStore base, final Collection<ItemPath> changedPaths) {
+        if (isEmpty()) {
+            return;
+        }
+        for (ItemPath path : changedPaths) {
+            final ItemData itemData = items.get(path);
+            if (itemData == null) {
+                continue;
+            }
+            if (itemData.isProperty()) {
+                if (itemData.getStoredValue() != null) {
+                    unindexProperty(itemData);
+                }
+            } else if (base.get(path) == null) {
+                forEachProperty(itemData, this::unindexProperty);
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of the collected values that none of the given stores has anymore. Values
+     * that a store still has at the same path, or that are below pending changes of a session, are
+     * kept for a later purge.
+     * @param stores Base stores of all live sessions and the committed store
+     * @param changed Tells whether a live session has pending changes at a path or one of its ancestors
+     */
+    void purge(final Collection<ItemStore> stores, final Predicate<ItemPath> changed) {
+        lock.writeLock().lock();
+        try {
+            synchronized (removals) {
+                final Iterator<Removal> iterator = removals.iterator();
+                while (iterator.hasNext()) {
+                    final Removal removal = iterator.next();
+                    // entries of values a session changed are kept until it saves or discards them
+                    if (!changed.test(removal.propertyPath) && purge(removal, stores)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean purge(final Removal removal, final Collection<ItemStore> stores) {
+        final List<Value[]> retained = new ArrayList<>();
+        for (ItemStore store : stores) {
+            final ItemData property = store.get(removal.propertyPath);
+            if (property != null && property.isProperty() && property.getStoredValue() != null) {
+                retained.add(property.getValues());
+            }
+        }
+        boolean removed = true;
+        final PropertyIndex index = propertyIndexes.get(removal.propertyPath.getName());
+        if (index != null) {
+            removed = index.remove(removal.propertyPath.getParent(), removal.values, retained);
+        }
+        final FullTextIndex currentFullTextIndex = fullTextIndex;
+        if (currentFullTextIndex != null) {
+            removed &= currentFullTextIndex.remove(removal.propertyPath, removal.values, retained);
+        }
+        return removed;
+    }
+
+    private static void forEachProperty(final ItemData root, final Consumer<ItemData> action) {
+        ItemStore.forEachInSubtree(root, item -> {
+            if (item.isProperty() && item.getStoredValue() != null) {
+                action.accept(item);
+            }
+        });
+    }
+
+    /**
+     * Values removed from the property at a path.
+     */
+    private static final class Removal {
+
+        private final ItemPath propertyPath;
+        private final Value[] values;
+
+        Removal(final ItemPath propertyPath, final Value[] values) {
+            this.propertyPath = propertyPath;
+            this.values = values;
+        }
+    }
+}
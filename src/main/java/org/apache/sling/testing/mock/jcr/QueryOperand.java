@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+
+/**
+ * Operand of a query constraint or ordering, evaluated against a node record.
+ */
+abstract class QueryOperand {
+
+    static final Value[] NO_VALUES = new Value[0];
+
+    /**
+     * @param node Node record
+     * @return Values of the operand for the node, empty if there are none
+     * @throws RepositoryException if a value cannot be read
+     */
+    abstract Value[] getValues(ItemData node) throws RepositoryException;
+
+    /**
+     * Value of a property of the node, or of a node below it for a relative path.
+     */
+    static final class PropertyValue extends QueryOperand {
+
+        private final String[] parentPath;
+        private final String propertyName;
+
+        /**
+         * @param relPath Property name or relative property path
+         */
+        PropertyValue(final String relPath) {
+            final String[] segments = relPath.split("/");
+            this.parentPath = Arrays.copyOf(segments, segments.length - 1);
+            this.propertyName = segments[segments.length - 1];
+        }
+
+        /**
+         * @return Property name, the last segment of a relative path
+         */
+        String getPropertyName() {
+            return propertyName;
+        }
+
+        /**
+         * @return true if the property is a property of the node itself
+         */
+        boolean isDirect() {
+            return parentPath.length == 0;
+        }
+
+        /**
+         * @param node Node record
+         * @return Property record, or null if there is none
+         */
+        ItemData getProperty(final ItemData node) {
+            ItemData parent = node;
+            for (String segment : parentPath) {
+                parent = parent.getChildNodes().get(segment);
+                if (parent == null) {
+                    return null;
+                }
+            }
+            final ItemData property = parent.getProperties().get(propertyName);
+            return property != null && property.getStoredValue() != null ? property : null;
+        }
+
+        @Override
+        Value[] getValues(final ItemData node) {
+            final ItemData property = getProperty(node);
+            return property != null ? property.getValues() : NO_VALUES;
+        }
+    }
+
+    /**
+     * Length of the values of a property.
+     */
+    static final class Length extends QueryOperand {
+
+        private final PropertyValue property;
+
+        Length(final PropertyValue property) {
+            this.property = property;
+        }
+
+        @Override
+        Value[] getValues(final ItemData node) throws RepositoryException {
+            final ItemData propertyData = property.getProperty(node);
+            if (propertyData == null) {
+                return NO_VALUES;
+            }
+            final Value[] values = propertyData.getValues();
+            final Value[] lengths = new Value[values.length];
+            for (int i = 0; i < values.length; i++) {
+                lengths[i] = valueFactory().createValue(ItemData.getLength(values[i]));
+            }
+            return lengths;
+        }
+    }
+
+    /**
+     * Name of the node, optionally without its namespace prefix.
+     */
+    static final class NodeName extends QueryOperand {
+
+        private final boolean local;
+
+        NodeName(final boolean local) {
+            this.local = local;
+        }
+
+        @Override
+        Value[] getValues(final ItemData node) {
+            final String name = node.getName();
+            return new Value[] {valueFactory().createValue(local ? name.substring(name.indexOf(':') + 1) : name)};
+        }
+    }
+
+    /**
+     * String values of another operand in lower or upper case.
+     */
+    static final class CaseConversion extends QueryOperand {
+
+        private final QueryOperand operand;
+        private final boolean upper;
+
+        CaseConversion(final QueryOperand operand, final boolean upper) {
+            this.operand = operand;
+            this.upper = upper;
+        }
+
+        @Override
+        Value[] getValues(final ItemData node) throws RepositoryException {
+            final Value[] values = operand.getValues(node);
+            final Value[] converted = new Value[values.length];
+            for (int i = 0; i < values.length; i++) {
+                final String value = values[i].getString();
+                converted[i] = valueFactory()
+                        .createValue(upper ? value.toUpperCase(Locale.ENGLISH) : value.toLowerCase(Locale.ENGLISH));
+            }
+            return converted;
+        }
+    }
+
+    /**
+     * Full-text score of the node, only supported in orderings, where the query engine computes it
+     * from the constraint.
+     */
+    static final class Score extends QueryOperand {
+
+        @Override
+        Value[] getValues(final ItemData node) {
+            throw new UnsupportedOperationException("The score depends on the query constraint.");
+        }
+    }
+
+    /**
+     * Literal value or bind variable of a query.
+     */
+    abstract static class Static {
+
+        /**
+         * @param variables Values of the bind variables
+         * @return Value
+         * @throws InvalidQueryException if a bind variable has no value
+         */
+        abstract Value getValue(Map<String, Value> variables) throws InvalidQueryException;
+    }
+
+    static final class Literal extends Static {
+
+        private final Value value;
+
+        Literal(final Value value) {
+            this.value = value;
+        }
+
+        @Override
+        Value getValue(final Map<String, Value> variables) {
+            return value;
+        }
+    }
+
+    static final class BindVariable extends Static {
+
+        private final String name;
+
+        BindVariable(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Value getValue(final Map<String, Value> variables) throws InvalidQueryException {
+            final Value value = variables.get(name);
+            if (value == null) {
+                throw new InvalidQueryException("Bind variable has no value: " + name);
+            }
+            return value;
+        }
+    }
+
+    static ValueFactory valueFactory() {
+        return ValueFactoryImpl.getInstance();
+    }
+}
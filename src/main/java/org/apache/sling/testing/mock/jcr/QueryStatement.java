@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parsed query with a single selector, independent of the query language.
+ */
+final class QueryStatement {
+
+    private final String nodeTypeName;
+    private final String selectorName;
+    private final QueryConstraint constraint;
+    private final List<Ordering> orderings;
+    private final List<String> columnNames;
+    private final Set<String> bindVariableNames;
+
+    /**
+     * @param nodeTypeName Node type of the selector
+     * @param selectorName Selector name
+     * @param constraint Constraint, or null if all nodes of the type are selected
+     * @param orderings Orderings, empty if the result is in document order
+     * @param columnNames Selected property names, empty if all properties are selected
+     * @param bindVariableNames Names of the bind variables used in the query
+     */
+    QueryStatement(
+            String nodeTypeName,
+            String selectorName,
+            QueryConstraint constraint,
+            List<Ordering> orderings,
+            List<String> columnNames,
+            Set<String> bindVariableNames) {
+        this.nodeTypeName = nodeTypeName;
+        this.selectorName = selectorName;
+        this.constraint = constraint;
+        this.orderings = orderings;
+        this.columnNames = columnNames;
+        this.bindVariableNames = bindVariableNames;
+    }
+
+    String getNodeTypeName() {
+        return nodeTypeName;
+    }
+
+    String getSelectorName() {
+        return selectorName;
+    }
+
+    QueryConstraint getConstraint() {
+        return constraint;
+    }
+
+    List<Ordering> getOrderings() {
+        return orderings;
+    }
+
+    List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    Set<String> getBindVariableNames() {
+        return bindVariableNames;
+    }
+
+    static final class Ordering {
+
+        private final QueryOperand operand;
+        private final boolean descending;
+
+        Ordering(QueryOperand operand, boolean descending) {
+            this.operand = operand;
+            this.descending = descending;
+        }
+
+        QueryOperand getOperand() {
+            return operand;
+        }
+
+        boolean isDescending() {
+            return descending;
+        }
+    }
+}
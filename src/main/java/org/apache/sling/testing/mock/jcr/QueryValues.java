@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import java.util.regex.Pattern;
+
+import org.apache.jackrabbit.JcrConstants;
+
+/**
+ * Value comparison and node type checks used by the query engine.
+ */
+final class QueryValues {
+
+    private QueryValues() {
+        // static methods only
+    }
+
+    /**
+     * Compares a property value with another value, which is converted to the type of the property value.
+     * Numbers of different types are compared numerically.
+     * @param value Property value
+     * @param other Value to compare with
+     * @return Negative, zero or positive like {@link Comparable#compareTo(Object)}
+     * @throws javax.jcr.ValueFormatException if the other value cannot be converted
+     * @throws RepositoryException if a value cannot be read
+     */
+    static int compare(final Value value, final Value other) throws RepositoryException {
+        final int type = value.getType();
+        final int otherType = other.getType();
+        if (isNumber(type) && isNumber(otherType) && type != otherType) {
+            if (type == PropertyType.DECIMAL || otherType == PropertyType.DECIMAL) {
+                return value.getDecimal().compareTo(other.getDecimal());
+            }
+            return Double.compare(value.getDouble(), other.getDouble());
+        }
+        switch (type) {
+            case PropertyType.LONG:
+                return Long.compare(value.getLong(), other.getLong());
+            case PropertyType.DOUBLE:
+                return Double.compare(value.getDouble(), other.getDouble());
+            case PropertyType.DECIMAL:
+                return value.getDecimal().compareTo(other.getDecimal());
+            case PropertyType.DATE:
+                return value.getDate().compareTo(other.getDate());
+            case PropertyType.BOOLEAN:
+                return Boolean.compare(value.getBoolean(), other.getBoolean());
+            default:
+                return value.getString().compareTo(other.getString());
+        }
+    }
+
+    private static boolean isNumber(final int type) {
+        return type == PropertyType.LONG || type == PropertyType.DOUBLE || type == PropertyType.DECIMAL;
+    }
+
+    /**
+     * @param pattern LIKE pattern with % and _ wildcards and \ as escape character
+     * @return Regular expression pattern
+     */
+    static Pattern likePattern(final String pattern) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < pattern.length()) {
+                literal.append(pattern.charAt(++i));
+            } else if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Checks the primary type, including its supertypes, and the mixin types of a node,
+     * like {@link MockNode#isNodeType(String)}.
+     * @param node Node record
+     * @param nodeTypeName Node type name
+     * @return true if the node is of the given type
+     */
+    static boolean isNodeType(final ItemData node, final String nodeTypeName) {
+        if (JcrConstants.NT_BASE.equals(nodeTypeName) || node.getNodeType().isNodeType(nodeTypeName)) {
+            return true;
+        }
+        final ItemData mixins = node.getProperties().get(JcrConstants.JCR_MIXINTYPES);
+        if (mixins == null || mixins.getStoredValue() == null) {
+            return false;
+        }
+        for (Value mixin : mixins.getValues()) {
+            try {
+                if (nodeTypeName.equals(mixin.getString())) {
+                    return true;
+                }
+            } catch (RepositoryException ex) {
+                // not a mixin name
+            }
+        }
+        return false;
+    }
+}
@@ -31,8 +31,8 @@ class ResourceUtil {
      */
     public static String normalize(String path) {
 
-        // don't care for empty paths
-        if (path.isEmpty()) {
+        // don't care for empty paths, and return normalized paths without copying them
+        if (path.isEmpty() || isNormalized(path)) {
             return path;
         }
 
@@ -100,6 +100,29 @@ class ResourceUtil {
         return resolved;
     }
 
+    /**
+     * Checks without copying the path whether it is absolute and has no empty
+     * segments, no trailing slash and no segments starting with a dot.
+     * @param path Path
+     * @return true if {@link #normalize(String)} would return the path unchanged
+     */
+    private static boolean isNormalized(String path) {
+        if (path.charAt(0) != '/') {
+            return false;
+        }
+        final int length = path.length();
+        for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+            if (i + 1 == length) {
+                return length == 1;
+            }
+            final char next = path.charAt(i + 1);
+            if (next == '/' || next == '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Utility method returns the parent path of the given <code>path</code>,
      * which is normalized by {@link #normalize(String)} before resolving the
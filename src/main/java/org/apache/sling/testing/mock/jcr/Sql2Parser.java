@@ -0,0 +1,569 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parser for JCR-SQL2 queries with a single selector. It supports property comparisons,
+ * LIKE, IN, IS [NOT] NULL, CONTAINS, ISSAMENODE, ISCHILDNODE, ISDESCENDANTNODE, the NAME, LOCALNAME,
+ * LENGTH, LOWER and UPPER operands, CAST, bind variables and ORDER BY, also by SCORE.
+ * Joins are not supported.
+ */
+final class Sql2Parser {
+
+    private enum TokenType {
+        WORD,
+        NAME,
+        STRING,
+        NUMBER,
+        VARIABLE,
+        SYMBOL,
+        END
+    }
+
+    private static final class Token {
+
+        private final TokenType type;
+        private final String text;
+        private final int position;
+
+        Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    private final String statement;
+    private final List<Token> tokens;
+    private final Set<String> bindVariableNames = new LinkedHashSet<>();
+    private int index;
+
+    private Sql2Parser(final String statement) throws InvalidQueryException {
+        this.statement = statement;
+        this.tokens = tokenize(statement);
+    }
+
+    /**
+     * @param statement JCR-SQL2 statement
+     * @return Parsed query
+     * @throws InvalidQueryException if the statement is invalid or not supported
+     */
+    static QueryStatement parse(final String statement) throws InvalidQueryException {
+        return new Sql2Parser(statement).parseQuery();
+    }
+
+    private QueryStatement parseQuery() throws InvalidQueryException {
+        expectKeyword("SELECT");
+        final List<String> columnNames = parseColumns();
+        expectKeyword("FROM");
+        final String nodeTypeName = readName();
+        String selectorName = nodeTypeName;
+        if (readKeyword("AS")) {
+            selectorName = readName();
+        } else if ((peek().type == TokenType.WORD || peek().type == TokenType.NAME) && !isClauseKeyword(peek())) {
+            selectorName = readName();
+        }
+        if (isKeyword(peek(), "INNER")
+                || isKeyword(peek(), "LEFT")
+                || isKeyword(peek(), "RIGHT")
+                || isKeyword(peek(), "JOIN")) {
+            throw new InvalidQueryException("Joins are not supported: " + statement);
+        }
+        QueryConstraint constraint = null;
+        if (readKeyword("WHERE")) {
+            constraint = parseOr();
+        }
+        final List<QueryStatement.Ordering> orderings = new ArrayList<>();
+        if (readKeyword("ORDER")) {
+            expectKeyword("BY");
+            do {
+                final QueryOperand operand = isFunction("SCORE") ? parseScore() : parseDynamicOperand();
+                boolean descending = false;
+                if (readKeyword("DESC")) {
+                    descending = true;
+                } else {
+                    readKeyword("ASC");
+                }
+                orderings.add(new QueryStatement.Ordering(operand, descending));
+            } while (readSymbol(","));
+        }
+        if (peek().type != TokenType.END) {
+            throw unexpected();
+        }
+        return new QueryStatement(
+                nodeTypeName, selectorName, constraint, orderings, columnNames, bindVariableNames);
+    }
+
+    private List<String> parseColumns() throws InvalidQueryException {
+        if (readSymbol("*")) {
+            return Collections.emptyList();
+        }
+        final List<String> columnNames = new ArrayList<>();
+        do {
+            String name = readName();
+            if (readSymbol(".")) {
+                if (readSymbol("*")) {
+                    continue;
+                }
+                name = readName();
+            }
+            if (readKeyword("AS")) {
+                readName();
+            }
+            columnNames.add(name);
+        } while (readSymbol(","));
+        return columnNames;
+    }
+
+    private QueryConstraint parseOr() throws InvalidQueryException {
+        final QueryConstraint first = parseAnd();
+        if (!isKeyword(peek(), "OR")) {
+            return first;
+        }
+        final List<QueryConstraint> constraints = new ArrayList<>();
+        constraints.add(first);
+        while (readKeyword("OR")) {
+            constraints.add(parseAnd());
+        }
+        return new QueryConstraint.Or(constraints);
+    }
+
+    private QueryConstraint parseAnd() throws InvalidQueryException {
+        final QueryConstraint first = parseNot();
+        if (!isKeyword(peek(), "AND")) {
+            return first;
+        }
+        final List<QueryConstraint> constraints = new ArrayList<>();
+        constraints.add(first);
+        while (readKeyword("AND")) {
+            constraints.add(parseNot());
+        }
+        return new QueryConstraint.And(constraints);
+    }
+
+    private QueryConstraint parseNot() throws InvalidQueryException {
+        if (readKeyword("NOT")) {
+            return new QueryConstraint.Not(parseNot());
+        }
+        return parsePrimary();
+    }
+
+    private QueryConstraint parsePrimary() throws InvalidQueryException {
+        if (readSymbol("(")) {
+            final QueryConstraint constraint = parseOr();
+            expectSymbol(")");
+            return constraint;
+        }
+        if (isFunction("ISSAMENODE")) {
+            return new QueryConstraint.SameNode(parsePathArgument());
+        } else if (isFunction("ISCHILDNODE")) {
+            return new QueryConstraint.ChildNode(parsePathArgument());
+        } else if (isFunction("ISDESCENDANTNODE")) {
+            return new QueryConstraint.DescendantNode(parsePathArgument());
+        } else if (isFunction("CONTAINS")) {
+            return parseFullTextSearch();
+        }
+        final QueryOperand operand = parseDynamicOperand();
+        if (readKeyword("IS")) {
+            final boolean exists = readKeyword("NOT");
+            expectKeyword("NULL");
+            if (!(operand instanceof QueryOperand.PropertyValue)) {
+                throw unexpected();
+            }
+            return new QueryConstraint.PropertyExistence((QueryOperand.PropertyValue) operand, exists);
+        }
+        if (readKeyword("NOT")) {
+            expectKeyword("LIKE");
+            return new QueryConstraint.Not(
+                    new QueryConstraint.Comparison(operand, QueryConstraint.Operator.LIKE, parseStaticOperand()));
+        }
+        if (readKeyword("LIKE")) {
+            return new QueryConstraint.Comparison(operand, QueryConstraint.Operator.LIKE, parseStaticOperand());
+        }
+        if (readKeyword("IN")) {
+            expectSymbol("(");
+            final List<QueryOperand.Static> values = new ArrayList<>();
+            do {
+                values.add(parseStaticOperand());
+            } while (readSymbol(","));
+            expectSymbol(")");
+            return new QueryConstraint.In(operand, values);
+        }
+        final QueryConstraint.Operator operator = parseOperator();
+        return new QueryConstraint.Comparison(operand, operator, parseStaticOperand());
+    }
+
+    /**
+     * Parses CONTAINS with a property, or * for all properties, and a full-text search expression.
+     */
+    private QueryConstraint parseFullTextSearch() throws InvalidQueryException {
+        index += 2;
+        String propertyName = null;
+        if (!readSymbol("*")) {
+            propertyName = readName();
+            if (readSymbol(".")) {
+                propertyName = readSymbol("*") ? null : readName();
+            }
+        }
+        expectSymbol(",");
+        final QueryOperand.Static expression = parseStaticOperand();
+        expectSymbol(")");
+        return new QueryConstraint.FullTextSearch(propertyName, expression);
+    }
+
+    private QueryOperand parseScore() throws InvalidQueryException {
+        index += 2;
+        if (!readSymbol(")")) {
+            readName();
+            expectSymbol(")");
+        }
+        return new QueryOperand.Score();
+    }
+
+    private QueryConstraint.Operator parseOperator() throws InvalidQueryException {
+        final Token token = peek();
+        if (token.type == TokenType.SYMBOL) {
+            switch (token.text) {
+                case "=":
+                    index++;
+                    return QueryConstraint.Operator.EQUAL_TO;
+                case "<>":
+                case "!=":
+                    index++;
+                    return QueryConstraint.Operator.NOT_EQUAL_TO;
+                case "<":
+                    index++;
+                    return QueryConstraint.Operator.LESS_THAN;
+                case "<=":
+                    index++;
+                    return QueryConstraint.Operator.LESS_THAN_OR_EQUAL_TO;
+                case ">":
+                    index++;
+                    return QueryConstraint.Operator.GREATER_THAN;
+                case ">=":
+                    index++;
+                    return QueryConstraint.Operator.GREATER_THAN_OR_EQUAL_TO;
+                default:
+                    break;
+            }
+        }
+        throw unexpected();
+    }
+
+    /**
+     * Parses the arguments of a path constraint, an optional selector name and a path.
+     */
+    private ItemPath parsePathArgument() throws InvalidQueryException {
+        index++;
+        expectSymbol("(");
+        String path = readPath();
+        if (readSymbol(",")) {
+            path = readPath();
+        }
+        expectSymbol(")");
+        final String normalizedPath = ResourceUtil.normalize(path);
+        if (normalizedPath == null || !normalizedPath.startsWith("/")) {
+            throw new InvalidQueryException("Invalid path '" + path + "' in query: " + statement);
+        }
+        return ItemPath.of(normalizedPath);
+    }
+
+    private String readPath() throws InvalidQueryException {
+        final Token token = peek();
+        if (token.type == TokenType.STRING || token.type == TokenType.NAME || token.type == TokenType.WORD) {
+            index++;
+            return token.text;
+        }
+        throw unexpected();
+    }
+
+    private QueryOperand parseDynamicOperand() throws InvalidQueryException {
+        if (isFunction("LOWER") || isFunction("UPPER")) {
+            final boolean upper = isKeyword(peek(), "UPPER");
+            index += 2;
+            final QueryOperand operand = parseDynamicOperand();
+            expectSymbol(")");
+            return new QueryOperand.CaseConversion(operand, upper);
+        } else if (isFunction("NAME") || isFunction("LOCALNAME")) {
+            final boolean local = isKeyword(peek(), "LOCALNAME");
+            index += 2;
+            if (!readSymbol(")")) {
+                readName();
+                expectSymbol(")");
+            }
+            return new QueryOperand.NodeName(local);
+        } else if (isFunction("LENGTH")) {
+            index += 2;
+            final QueryOperand.PropertyValue property = parsePropertyValue();
+            expectSymbol(")");
+            return new QueryOperand.Length(property);
+        }
+        return parsePropertyValue();
+    }
+
+    private QueryOperand.PropertyValue parsePropertyValue() throws InvalidQueryException {
+        String name = readName();
+        if (readSymbol(".")) {
+            name = readName();
+        }
+        return new QueryOperand.PropertyValue(name);
+    }
+
+    private QueryOperand.Static parseStaticOperand() throws InvalidQueryException {
+        final Token token = peek();
+        index++;
+        switch (token.type) {
+            case STRING:
+                return new QueryOperand.Literal(QueryOperand.valueFactory().createValue(token.text));
+            case NUMBER:
+                return new QueryOperand.Literal(parseNumber(token));
+            case VARIABLE:
+                bindVariableNames.add(token.text);
+                return new QueryOperand.BindVariable(token.text);
+            case WORD:
+                if (isKeyword(token, "TRUE") || isKeyword(token, "FALSE")) {
+                    return new QueryOperand.Literal(QueryOperand.valueFactory().createValue(isKeyword(token, "TRUE")));
+                } else if (isKeyword(token, "CAST")) {
+                    return parseCast();
+                }
+                break;
+            default:
+                break;
+        }
+        index--;
+        throw unexpected();
+    }
+
+    private Value parseNumber(final Token token) throws InvalidQueryException {
+        try {
+            if (token.text.indexOf('.') >= 0 || token.text.indexOf('e') >= 0 || token.text.indexOf('E') >= 0) {
+                return QueryOperand.valueFactory().createValue(Double.parseDouble(token.text));
+            }
+            return QueryOperand.valueFactory().createValue(Long.parseLong(token.text));
+        } catch (NumberFormatException ex) {
+            throw new InvalidQueryException("Invalid number '" + token.text + "' in query: " + statement);
+        }
+    }
+
+    private QueryOperand.Static parseCast() throws InvalidQueryException {
+        expectSymbol("(");
+        final Token token = peek();
+        if (token.type != TokenType.STRING && token.type != TokenType.NUMBER) {
+            throw unexpected();
+        }
+        index++;
+        expectKeyword("AS");
+        final String typeName = readName();
+        expectSymbol(")");
+        return new QueryOperand.Literal(cast(token.text, typeName));
+    }
+
+    private Value cast(final String value, final String typeName) throws InvalidQueryException {
+        for (int type = PropertyType.STRING; type <= PropertyType.DECIMAL; type++) {
+            if (PropertyType.nameFromValue(type).equalsIgnoreCase(typeName)) {
+                try {
+                    return QueryOperand.valueFactory().createValue(value, type);
+                } catch (RepositoryException ex) {
+                    throw new InvalidQueryException("Cannot cast '" + value + "' to " + typeName + ": " + statement);
+                }
+            }
+        }
+        throw new InvalidQueryException("Unknown type " + typeName + " in query: " + statement);
+    }
+
+    private boolean isFunction(final String name) {
+        return isKeyword(peek(), name)
+                && tokens.get(index + 1).type == TokenType.SYMBOL
+                && "(".equals(tokens.get(index + 1).text);
+    }
+
+    private static boolean isClauseKeyword(final Token token) {
+        return isKeyword(token, "WHERE")
+                || isKeyword(token, "ORDER")
+                || isKeyword(token, "INNER")
+                || isKeyword(token, "LEFT")
+                || isKeyword(token, "RIGHT")
+                || isKeyword(token, "JOIN");
+    }
+
+    private static boolean isKeyword(final Token token, final String keyword) {
+        return token.type == TokenType.WORD && token.text.equalsIgnoreCase(keyword);
+    }
+
+    private Token peek() {
+        return tokens.get(index);
+    }
+
+    private boolean readKeyword(final String keyword) {
+        if (isKeyword(peek(), keyword)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectKeyword(final String keyword) throws InvalidQueryException {
+        if (!readKeyword(keyword)) {
+            throw unexpected();
+        }
+    }
+
+    private boolean readSymbol(final String symbol) {
+        final Token token = peek();
+        if (token.type == TokenType.SYMBOL && token.text.equals(symbol)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(final String symbol) throws InvalidQueryException {
+        if (!readSymbol(symbol)) {
+            throw unexpected();
+        }
+    }
+
+    private String readName() throws InvalidQueryException {
+        final Token token = peek();
+        if (token.type == TokenType.WORD || token.type == TokenType.NAME) {
+            index++;
+            return token.text;
+        }
+        throw unexpected();
+    }
+
+    private InvalidQueryException unexpected() {
+        final Token token = peek();
+        final String found = token.type == TokenType.END ? "end of statement" : "'" + token.text + "'";
+        return new InvalidQueryException(
+                "Unexpected " + found + " at position " + token.position + " in query: " + statement);
+    }
+
+    private static List<Token> tokenize(final String statement) throws InvalidQueryException {
+        final List<Token> tokens = new ArrayList<>();
+        int pos = 0;
+        while (pos < statement.length()) {
+            final char c = statement.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '[') {
+                final StringBuilder name = new StringBuilder();
+                int end = pos + 1;
+                while (true) {
+                    if (end >= statement.length()) {
+                        throw new InvalidQueryException("Unterminated name at position " + pos + ": " + statement);
+                    }
+                    if (statement.charAt(end) == ']') {
+                        if (end + 1 < statement.length() && statement.charAt(end + 1) == ']') {
+                            name.append(']');
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    name.append(statement.charAt(end++));
+                }
+                tokens.add(new Token(TokenType.NAME, name.toString(), pos));
+                pos = end + 1;
+            } else if (c == '\'' || c == '"') {
+                final StringBuilder value = new StringBuilder();
+                int end = pos + 1;
+                while (true) {
+                    if (end >= statement.length()) {
+                        throw new InvalidQueryException("Unterminated string at position " + pos + ": " + statement);
+                    }
+                    if (statement.charAt(end) == c) {
+                        if (end + 1 < statement.length() && statement.charAt(end + 1) == c) {
+                            value.append(c);
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(statement.charAt(end++));
+                }
+                tokens.add(new Token(TokenType.STRING, value.toString(), pos));
+                pos = end + 1;
+            } else if (c == '$') {
+                final int end = scanWord(statement, pos + 1);
+                tokens.add(new Token(TokenType.VARIABLE, statement.substring(pos + 1, end), pos));
+                pos = end;
+            } else if (Character.isDigit(c)
+                    || ((c == '-' || c == '+')
+                            && pos + 1 < statement.length()
+                            && Character.isDigit(statement.charAt(pos + 1)))) {
+                int end = pos + 1;
+                while (end < statement.length()) {
+                    final char d = statement.charAt(end);
+                    if (Character.isDigit(d) || d == '.') {
+                        end++;
+                    } else if ((d == 'e' || d == 'E') && end + 1 < statement.length()) {
+                        end += statement.charAt(end + 1) == '-' || statement.charAt(end + 1) == '+' ? 2 : 1;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(new Token(TokenType.NUMBER, statement.substring(pos, end), pos));
+                pos = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                final int end = scanWord(statement, pos);
+                tokens.add(new Token(TokenType.WORD, statement.substring(pos, end), pos));
+                pos = end;
+            } else {
+                final String two = statement.substring(pos, Math.min(pos + 2, statement.length()));
+                if ("<>".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two)) {
+                    tokens.add(new Token(TokenType.SYMBOL, two, pos));
+                    pos += 2;
+                } else if ("(),.*=<>".indexOf(c) >= 0) {
+                    tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), pos));
+                    pos++;
+                } else {
+                    throw new InvalidQueryException(
+                            "Unexpected character '" + c + "' at position " + pos + " in query: " + statement);
+                }
+            }
+        }
+        tokens.add(new Token(TokenType.END, "", statement.length()));
+        return tokens;
+    }
+
+    private static int scanWord(final String statement, final int start) {
+        int end = start;
+        while (end < statement.length()) {
+            final char c = statement.charAt(end);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == ':' || c == '-') {
+                end++;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+}
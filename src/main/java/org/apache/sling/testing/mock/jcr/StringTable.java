@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Table of canonical strings scoped to a repository. Unlike {@link String#intern()}
+ * the strings are only weakly referenced, so an entry disappears once no item record
+ * uses it anymore, and the table is discarded together with the repository.
+ */
+final class StringTable {
+
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+
+    /**
+     * @param value String
+     * @return Canonical instance equal to the given string
+     */
+    synchronized String canonicalize(final String value) {
+        final WeakReference<String> ref = strings.get(value);
+        final String existing = ref != null ? ref.get() : null;
+        if (existing != null) {
+            return existing;
+        }
+        strings.put(value, new WeakReference<>(value));
+        return value;
+    }
+}
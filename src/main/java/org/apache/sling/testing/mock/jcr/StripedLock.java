@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of reentrant locks, one of which is selected by the hash code of a key.
+ * Changes guarded by different locks can run in parallel, while changes that affect
+ * more than one key acquire all locks in a fixed order.
+ */
+class StripedLock {
+
+    /**
+     * Lock without any stripes, for stores that are only used by one thread.
+     */
+    static final StripedLock NONE = new StripedLock(0);
+
+    private static final Held NOT_LOCKED = () -> {
+        // nothing to release
+    };
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * @param stripes Number of locks
+     */
+    StripedLock(int stripes) {
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param key Key, may be null
+     * @return Held lock for the given key, to be closed to release it
+     */
+    Held lock(Object key) {
+        if (locks.length == 0) {
+            return NOT_LOCKED;
+        }
+        final ReentrantLock lock = locks[Math.floorMod(Objects.hashCode(key), locks.length)];
+        lock.lock();
+        return lock::unlock;
+    }
+
+    /**
+     * @return Held locks for all keys, to be closed to release them
+     */
+    Held lockAll() {
+        if (locks.length == 0) {
+            return NOT_LOCKED;
+        }
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        return () -> {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        };
+    }
+
+    /**
+     * Lock that is released when closed.
+     */
+    @FunctionalInterface
+    interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,542 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.util.ISO9075;
+
+/**
+ * Parser for XPath queries of the form {@code /jcr:root/path//element(name, type)[predicate] order by ...}.
+ * The path is compiled to the same path constraints as ISCHILDNODE and ISDESCENDANTNODE of JCR-SQL2,
+ * so that both languages share the evaluation. Wildcards and descendant steps are only supported
+ * in the last step of the path, and predicates only on the last step.
+ */
+final class XPathParser {
+
+    /**
+     * Selector name of parsed XPath queries, which have no explicit selector.
+     */
+    static final String SELECTOR_NAME = "a";
+
+    private enum TokenType {
+        NAME,
+        STRING,
+        NUMBER,
+        VARIABLE,
+        SYMBOL,
+        END
+    }
+
+    private static final class Token {
+
+        private final TokenType type;
+        private final String text;
+        private final int position;
+
+        Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    private final String statement;
+    private final List<Token> tokens;
+    private final Set<String> bindVariableNames = new LinkedHashSet<>();
+    private int index;
+
+    private XPathParser(final String statement) throws InvalidQueryException {
+        this.statement = statement;
+        this.tokens = tokenize(statement);
+    }
+
+    /**
+     * @param statement XPath statement
+     * @return Parsed query
+     * @throws InvalidQueryException if the statement is invalid or not supported
+     */
+    static QueryStatement parse(final String statement) throws InvalidQueryException {
+        return new XPathParser(statement).parseQuery();
+    }
+
+    private QueryStatement parseQuery() throws InvalidQueryException {
+        final List<QueryConstraint> constraints = new ArrayList<>();
+        String nodeTypeName = JcrConstants.NT_BASE;
+        ItemPath parentPath = ItemPath.ROOT;
+        if (!isSymbol(peek(), "/") && !isSymbol(peek(), "//")) {
+            throw unexpected();
+        }
+        if (isSymbol(peek(), "/") && isName(tokens.get(index + 1), "jcr:root")) {
+            index += 2;
+        }
+        if (isSymbol(peek(), "[") || isName(peek(), "order") || peek().type == TokenType.END) {
+            // the root node itself
+            constraints.add(new QueryConstraint.SameNode(ItemPath.ROOT));
+        } else {
+            while (true) {
+                final boolean descendant = readSymbol("//");
+                if (!descendant) {
+                    expectSymbol("/");
+                }
+                String name = null;
+                boolean plainName = false;
+                if (isFunction("element")) {
+                    index += 2;
+                    if (!readSymbol("*")) {
+                        name = readName();
+                    }
+                    if (readSymbol(",")) {
+                        nodeTypeName = readName();
+                    }
+                    expectSymbol(")");
+                } else if (!readSymbol("*")) {
+                    name = readName();
+                    plainName = true;
+                }
+                if (isSymbol(peek(), "/") || isSymbol(peek(), "//")) {
+                    // intermediate step, only plain names are supported
+                    if (descendant || !plainName) {
+                        throw unsupported("Wildcards and descendant steps are only supported in the last path step");
+                    }
+                    parentPath = parentPath.child(name);
+                    continue;
+                }
+                constraints.add(
+                        descendant
+                                ? new QueryConstraint.DescendantNode(parentPath)
+                                : new QueryConstraint.ChildNode(parentPath));
+                if (name != null) {
+                    constraints.add(new QueryConstraint.Comparison(
+                            new QueryOperand.NodeName(false),
+                            QueryConstraint.Operator.EQUAL_TO,
+                            new QueryOperand.Literal(QueryOperand.valueFactory().createValue(name))));
+                }
+                break;
+            }
+        }
+        if (readSymbol("[")) {
+            constraints.add(parseOr());
+            expectSymbol("]");
+        }
+        final List<QueryStatement.Ordering> orderings = new ArrayList<>();
+        if (readKeyword("order")) {
+            if (!readKeyword("by")) {
+                throw unexpected();
+            }
+            do {
+                final QueryOperand operand = readScore() ? new QueryOperand.Score() : parseOperand();
+                boolean descending = false;
+                if (readKeyword("descending")) {
+                    descending = true;
+                } else {
+                    readKeyword("ascending");
+                }
+                orderings.add(new QueryStatement.Ordering(operand, descending));
+            } while (readSymbol(","));
+        }
+        if (peek().type != TokenType.END) {
+            throw unexpected();
+        }
+        return new QueryStatement(
+                nodeTypeName,
+                SELECTOR_NAME,
+                constraints.size() == 1 ? constraints.get(0) : new QueryConstraint.And(constraints),
+                orderings,
+                Collections.emptyList(),
+                bindVariableNames);
+    }
+
+    private QueryConstraint parseOr() throws InvalidQueryException {
+        final QueryConstraint first = parseAnd();
+        if (!isName(peek(), "or")) {
+            return first;
+        }
+        final List<QueryConstraint> constraints = new ArrayList<>();
+        constraints.add(first);
+        while (readKeyword("or")) {
+            constraints.add(parseAnd());
+        }
+        return new QueryConstraint.Or(constraints);
+    }
+
+    private QueryConstraint parseAnd() throws InvalidQueryException {
+        final QueryConstraint first = parsePrimary();
+        if (!isName(peek(), "and")) {
+            return first;
+        }
+        final List<QueryConstraint> constraints = new ArrayList<>();
+        constraints.add(first);
+        while (readKeyword("and")) {
+            constraints.add(parsePrimary());
+        }
+        return new QueryConstraint.And(constraints);
+    }
+
+    private QueryConstraint parsePrimary() throws InvalidQueryException {
+        if (readSymbol("(")) {
+            final QueryConstraint constraint = parseOr();
+            expectSymbol(")");
+            return constraint;
+        }
+        if (isFunction("not") || isFunction("fn:not")) {
+            index += 2;
+            final QueryConstraint constraint = parseOr();
+            expectSymbol(")");
+            return new QueryConstraint.Not(constraint);
+        } else if (isFunction("jcr:like")) {
+            index += 2;
+            final QueryOperand operand = parseOperand();
+            expectSymbol(",");
+            final QueryOperand.Static pattern = parseStaticOperand();
+            expectSymbol(")");
+            return new QueryConstraint.Comparison(operand, QueryConstraint.Operator.LIKE, pattern);
+        } else if (isFunction("jcr:contains")) {
+            return parseFullTextSearch();
+        }
+        final QueryOperand operand = parseOperand();
+        final QueryConstraint.Operator operator = readOperator();
+        if (operator == null) {
+            if (!(operand instanceof QueryOperand.PropertyValue)) {
+                throw unexpected();
+            }
+            return new QueryConstraint.PropertyExistence((QueryOperand.PropertyValue) operand, true);
+        }
+        return new QueryConstraint.Comparison(operand, operator, parseStaticOperand());
+    }
+
+    /**
+     * Parses jcr:contains with . for all properties of the node or a property, and a full-text
+     * search expression.
+     */
+    private QueryConstraint parseFullTextSearch() throws InvalidQueryException {
+        index += 2;
+        String propertyName = null;
+        if (readSymbol("@")) {
+            propertyName = readSymbol("*") ? null : readName();
+        } else if (!readSymbol(".")) {
+            throw unsupported("Full-text search is only supported on the node itself");
+        }
+        expectSymbol(",");
+        final QueryOperand.Static expression = parseStaticOperand();
+        expectSymbol(")");
+        return new QueryConstraint.FullTextSearch(propertyName, expression);
+    }
+
+    /**
+     * Reads the score of an ordering, {@code @jcr:score} or {@code jcr:score()}.
+     */
+    private boolean readScore() {
+        if (isSymbol(peek(), "@") && isName(tokens.get(index + 1), "jcr:score")) {
+            index += 2;
+            return true;
+        } else if (isFunction("jcr:score") && isSymbol(tokens.get(index + 2), ")")) {
+            index += 3;
+            return true;
+        }
+        return false;
+    }
+
+    private QueryConstraint.Operator readOperator() {
+        final Token token = peek();
+        if (token.type != TokenType.SYMBOL && token.type != TokenType.NAME) {
+            return null;
+        }
+        final QueryConstraint.Operator operator;
+        switch (token.text) {
+            case "=":
+            case "eq":
+                operator = QueryConstraint.Operator.EQUAL_TO;
+                break;
+            case "!=":
+            case "ne":
+                operator = QueryConstraint.Operator.NOT_EQUAL_TO;
+                break;
+            case "<":
+            case "lt":
+                operator = QueryConstraint.Operator.LESS_THAN;
+                break;
+            case "<=":
+            case "le":
+                operator = QueryConstraint.Operator.LESS_THAN_OR_EQUAL_TO;
+                break;
+            case ">":
+            case "gt":
+                operator = QueryConstraint.Operator.GREATER_THAN;
+                break;
+            case ">=":
+            case "ge":
+                operator = QueryConstraint.Operator.GREATER_THAN_OR_EQUAL_TO;
+                break;
+            default:
+                return null;
+        }
+        index++;
+        return operator;
+    }
+
+    private QueryOperand parseOperand() throws InvalidQueryException {
+        if (isFunction("fn:lower-case") || isFunction("fn:upper-case")) {
+            final boolean upper = isName(peek(), "fn:upper-case");
+            index += 2;
+            final QueryOperand operand = parseOperand();
+            expectSymbol(")");
+            return new QueryOperand.CaseConversion(operand, upper);
+        } else if (isFunction("fn:name") || isFunction("name")) {
+            index += 2;
+            expectSymbol(")");
+            return new QueryOperand.NodeName(false);
+        } else if (isFunction("fn:local-name") || isFunction("local-name")) {
+            index += 2;
+            expectSymbol(")");
+            return new QueryOperand.NodeName(true);
+        } else if (isFunction("fn:string-length")) {
+            index += 2;
+            final QueryOperand.PropertyValue property = parsePropertyValue();
+            expectSymbol(")");
+            return new QueryOperand.Length(property);
+        }
+        return parsePropertyValue();
+    }
+
+    /**
+     * Parses a property of the node, or a relative property path like {@code jcr:content/@jcr:title}.
+     */
+    private QueryOperand.PropertyValue parsePropertyValue() throws InvalidQueryException {
+        final StringBuilder relPath = new StringBuilder();
+        while (!readSymbol("@")) {
+            relPath.append(readName()).append('/');
+            expectSymbol("/");
+        }
+        relPath.append(readName());
+        return new QueryOperand.PropertyValue(relPath.toString());
+    }
+
+    private QueryOperand.Static parseStaticOperand() throws InvalidQueryException {
+        final Token token = peek();
+        switch (token.type) {
+            case STRING:
+                index++;
+                return new QueryOperand.Literal(QueryOperand.valueFactory().createValue(token.text));
+            case NUMBER:
+                index++;
+                return new QueryOperand.Literal(parseNumber(token));
+            case VARIABLE:
+                index++;
+                bindVariableNames.add(token.text);
+                return new QueryOperand.BindVariable(token.text);
+            case NAME:
+                if (isFunction("true") || isFunction("false")) {
+                    index += 2;
+                    expectSymbol(")");
+                    return new QueryOperand.Literal(QueryOperand.valueFactory().createValue("true".equals(token.text)));
+                } else if (isFunction("xs:dateTime")) {
+                    return parseCast(PropertyType.DATE);
+                } else if (isFunction("xs:decimal")) {
+                    return parseCast(PropertyType.DECIMAL);
+                } else if (isFunction("xs:double")) {
+                    return parseCast(PropertyType.DOUBLE);
+                } else if (isFunction("xs:long") || isFunction("xs:integer")) {
+                    return parseCast(PropertyType.LONG);
+                }
+                break;
+            default:
+                break;
+        }
+        throw unexpected();
+    }
+
+    private QueryOperand.Static parseCast(final int type) throws InvalidQueryException {
+        index += 2;
+        final Token token = peek();
+        if (token.type != TokenType.STRING && token.type != TokenType.NUMBER) {
+            throw unexpected();
+        }
+        index++;
+        expectSymbol(")");
+        try {
+            return new QueryOperand.Literal(QueryOperand.valueFactory().createValue(token.text, type));
+        } catch (RepositoryException ex) {
+            throw new InvalidQueryException("Cannot cast '" + token.text + "' to "
+                    + PropertyType.nameFromValue(type) + ": " + statement);
+        }
+    }
+
+    private Value parseNumber(final Token token) throws InvalidQueryException {
+        try {
+            if (token.text.indexOf('.') >= 0 || token.text.indexOf('e') >= 0 || token.text.indexOf('E') >= 0) {
+                return QueryOperand.valueFactory().createValue(Double.parseDouble(token.text));
+            }
+            return QueryOperand.valueFactory().createValue(Long.parseLong(token.text));
+        } catch (NumberFormatException ex) {
+            throw new InvalidQueryException("Invalid number '" + token.text + "' in query: " + statement);
+        }
+    }
+
+    private boolean isFunction(final String name) {
+        return isName(peek(), name) && isSymbol(tokens.get(index + 1), "(");
+    }
+
+    private static boolean isName(final Token token, final String name) {
+        return token.type == TokenType.NAME && token.text.equals(name);
+    }
+
+    private static boolean isSymbol(final Token token, final String symbol) {
+        return token.type == TokenType.SYMBOL && token.text.equals(symbol);
+    }
+
+    private Token peek() {
+        return tokens.get(index);
+    }
+
+    private boolean readKeyword(final String keyword) {
+        if (isName(peek(), keyword)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean readSymbol(final String symbol) {
+        if (isSymbol(peek(), symbol)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(final String symbol) throws InvalidQueryException {
+        if (!readSymbol(symbol)) {
+            throw unexpected();
+        }
+    }
+
+    /**
+     * @return Name, decoded from its ISO 9075 encoding
+     */
+    private String readName() throws InvalidQueryException {
+        final Token token = peek();
+        if (token.type == TokenType.NAME) {
+            index++;
+            return ISO9075.decode(token.text);
+        }
+        throw unexpected();
+    }
+
+    private InvalidQueryException unexpected() {
+        final Token token = peek();
+        final String found = token.type == TokenType.END ? "end of statement" : "'" + token.text + "'";
+        return new InvalidQueryException(
+                "Unexpected " + found + " at position " + token.position + " in query: " + statement);
+    }
+
+    private InvalidQueryException unsupported(final String message) {
+        return new InvalidQueryException(message + ": " + statement);
+    }
+
+    private static List<Token> tokenize(final String statement) throws InvalidQueryException {
+        final List<Token> tokens = new ArrayList<>();
+        int pos = 0;
+        while (pos < statement.length()) {
+            final char c = statement.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '\'' || c == '"') {
+                final StringBuilder value = new StringBuilder();
+                int end = pos + 1;
+                while (true) {
+                    if (end >= statement.length()) {
+                        throw new InvalidQueryException("Unterminated string at position " + pos + ": " + statement);
+                    }
+                    if (statement.charAt(end) == c) {
+                        if (end + 1 < statement.length() && statement.charAt(end + 1) == c) {
+                            value.append(c);
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(statement.charAt(end++));
+                }
+                tokens.add(new Token(TokenType.STRING, value.toString(), pos));
+                pos = end + 1;
+            } else if (c == '$') {
+                final int end = scanName(statement, pos + 1);
+                tokens.add(new Token(TokenType.VARIABLE, statement.substring(pos + 1, end), pos));
+                pos = end;
+            } else if (Character.isDigit(c)
+                    || (c == '-' && pos + 1 < statement.length() && Character.isDigit(statement.charAt(pos + 1)))) {
+                int end = pos + 1;
+                while (end < statement.length()) {
+                    final char d = statement.charAt(end);
+                    if (Character.isDigit(d) || d == '.') {
+                        end++;
+                    } else if ((d == 'e' || d == 'E') && end + 1 < statement.length()) {
+                        end += statement.charAt(end + 1) == '-' || statement.charAt(end + 1) == '+' ? 2 : 1;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(new Token(TokenType.NUMBER, statement.substring(pos, end), pos));
+                pos = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                final int end = scanName(statement, pos);
+                tokens.add(new Token(TokenType.NAME, statement.substring(pos, end), pos));
+                pos = end;
+            } else {
+                final String two = statement.substring(pos, Math.min(pos + 2, statement.length()));
+                if ("//".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two)) {
+                    tokens.add(new Token(TokenType.SYMBOL, two, pos));
+                    pos += 2;
+                } else if ("/[]()@,*=<>.".indexOf(c) >= 0) {
+                    tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), pos));
+                    pos++;
+                } else {
+                    throw new InvalidQueryException(
+                            "Unexpected character '" + c + "' at position " + pos + " in query: " + statement);
+                }
+            }
+        }
+        tokens.add(new Token(TokenType.END, "", statement.length()));
+        return tokens;
+    }
+
+    private static int scanName(final String statement, final int start) {
+        int end = start;
+        while (end < statement.length()) {
+            final char c = statement.charAt(end);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == ':' || c == '-' || c == '.') {
+                end++;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+}
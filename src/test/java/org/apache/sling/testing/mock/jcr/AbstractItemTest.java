@@ -69,6 +69,11 @@ public abstract class AbstractItemTest {
         assertTrue(this.node11.isSame(this.node11.getAncestor(2)));
     }
 
+    @Test
+    public void testGetParentOfRoot() {
+        assertThrows(ItemNotFoundException.class, () -> this.rootNode.getParent());
+    }
+
     @Test
     public void testGetAncestorNegative() {
         assertThrows(ItemNotFoundException.class, () -> this.node11.getAncestor(-1));
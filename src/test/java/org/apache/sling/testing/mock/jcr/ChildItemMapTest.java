@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChildItemMapTest {
+
+    private ChildItemMap map;
+
+    @BeforeEach
+    void setUp() {
+        map = new ChildItemMap();
+        for (String name : new String[] {"a", "b", "c", "d"}) {
+            map.put(name, ItemData.newProperty(ItemPath.of("/" + name)));
+        }
+    }
+
+    @Test
+    void testPutKeepsPosition() {
+        ItemData replacement = ItemData.newProperty(ItemPath.of("/b"));
+        map.put("b", replacement);
+        assertEquals(List.of("a", "b", "c", "d"), names());
+        assertSame(replacement, map.get("b"));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    void testRemove() {
+        assertEquals("/a", map.remove("a").getPath());
+        assertEquals("/d", map.remove("d").getPath());
+        assertNull(map.remove("x"));
+        assertEquals(List.of("b", "c"), names());
+        assertFalse(map.containsKey("a"));
+        map.put("a", ItemData.newProperty(ItemPath.of("/a")));
+        assertEquals(List.of("b", "c", "a"), names());
+    }
+
+    @Test
+    void testOrderBefore() {
+        assertTrue(map.orderBefore("d", "a"));
+        assertEquals(List.of("d", "a", "b", "c"), names());
+        assertTrue(map.orderBefore("a", "c"));
+        assertEquals(List.of("d", "b", "a", "c"), names());
+        assertTrue(map.orderBefore("d", null));
+        assertEquals(List.of("b", "a", "c", "d"), names());
+        assertTrue(map.orderBefore("c", "c"));
+        assertEquals(List.of("b", "a", "c", "d"), names());
+        assertFalse(map.orderBefore("x", "a"));
+    }
+
+    @Test
+    void testIteratorRemove() {
+        Iterator<ItemData> values = map.values().iterator();
+        values.next();
+        values.next();
+        values.remove();
+        assertEquals(List.of("a", "c", "d"), names());
+        assertEquals("/c", values.next().getPath());
+    }
+
+    @Test
+    void testConcurrentMap() {
+        ChildItemMap concurrentMap = ChildItemMap.create(true);
+        concurrentMap.putAll(map);
+        concurrentMap.remove("b");
+        assertTrue(concurrentMap.orderBefore("d", "a"));
+        assertEquals(List.of("d", "a", "c"), new ArrayList<>(concurrentMap.keySet()));
+        assertEquals(List.of("d", "a", "c"), new ArrayList<>(concurrentMap.copy().keySet()));
+    }
+
+    @Test
+    void testMapsAreCreatedWithFirstChild() {
+        ItemData node = ItemData.newNode(ItemPath.of("/node"), MockNodeTypes.NT_UNSTRUCTURED);
+        assertSame(ChildItemMap.EMPTY, node.getChildNodes());
+        assertSame(ChildItemMap.EMPTY, node.getProperties());
+        assertThrows(UnsupportedOperationException.class, () -> node.getChildNodes()
+                .put("child", ItemData.newNode(ItemPath.of("/node/child"), MockNodeTypes.NT_UNSTRUCTURED)));
+
+        ChildItemMap properties = node.getOrCreateProperties(false);
+        properties.put("prop", ItemData.newProperty(ItemPath.of("/node/prop")));
+        assertSame(properties, node.getProperties());
+        assertSame(ChildItemMap.EMPTY, node.getChildNodes());
+    }
+
+    private List<String> names() {
+        return new ArrayList<>(map.keySet());
+    }
+
+    @Test
+    void testIteratorIsWeaklyConsistent() {
+        Iterator<String> iterator = map.keySet().iterator();
+        assertEquals("a", iterator.next());
+        // changes while iterating do not make the iterator fail
+        map.remove("a");
+        map.remove("b");
+        map.orderBefore("d", "c");
+        map.put("e", ItemData.newProperty(ItemPath.of("/e")));
+        List<String> rest = new ArrayList<>();
+        iterator.forEachRemaining(rest::add);
+        assertTrue(rest.containsAll(List.of("c", "e")));
+        assertEquals(List.of("d", "c", "e"), names());
+    }
+}
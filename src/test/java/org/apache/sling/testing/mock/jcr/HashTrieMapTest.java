@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HashTrieMapTest {
+
+    @Test
+    void testMatchesHashMap() {
+        assertMatchesHashMap(false);
+        assertMatchesHashMap(true);
+    }
+
+    private static void assertMatchesHashMap(boolean concurrent) {
+        HashTrieMap<String, String> map = new HashTrieMap<>(concurrent);
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String key = "/node" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                String value = expected.get(key);
+                map.remove(key, value);
+                expected.remove(key);
+            } else {
+                String value = "value" + i;
+                map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            String key = "/node" + i;
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    void testHashCollisions() {
+        assertHashCollisions(false);
+        assertHashCollisions(true);
+    }
+
+    private static void assertHashCollisions(boolean concurrent) {
+        // "Aa" and "BB" have the same hash code
+        HashTrieMap<String, String> map = new HashTrieMap<>(concurrent);
+        map.put("Aa", "1");
+        map.put("BB", "2");
+        map.put("AaAa", "3");
+        map.put("BBBB", "4");
+        assertEquals("1", map.get("Aa"));
+        assertEquals("2", map.get("BB"));
+        assertEquals("3", map.get("AaAa"));
+        assertEquals("4", map.get("BBBB"));
+        map.remove("Aa", "1");
+        assertNull(map.get("Aa"));
+        assertEquals("2", map.get("BB"));
+    }
+
+    @Test
+    void testRemoveOnlyMatchingValue() {
+        assertRemoveOnlyMatchingValue(false);
+        assertRemoveOnlyMatchingValue(true);
+    }
+
+    private static void assertRemoveOnlyMatchingValue(boolean concurrent) {
+        HashTrieMap<String, String> map = new HashTrieMap<>(concurrent);
+        map.put("a", "1");
+        map.remove("a", "2");
+        assertEquals("1", map.get("a"));
+        map.remove("a", "1");
+        assertNull(map.get("a"));
+    }
+
+    @Test
+    void testForkIsolation() {
+        assertForkIsolation(false);
+        assertForkIsolation(true);
+    }
+
+    private static void assertForkIsolation(boolean concurrent) {
+        HashTrieMap<String, String> map = new HashTrieMap<>(concurrent);
+        String[] values = new String[1000];
+        for (int i = 0; i < 1000; i++) {
+            values[i] = "value" + i;
+            map.put("key" + i, values[i]);
+        }
+
+        HashTrieMap<String, String> fork = map.fork();
+        for (int i = 0; i < 1000; i += 2) {
+            // entries are only removed if they are mapped to the same value instance
+            fork.remove("key" + i, values[i]);
+            map.put("key" + (i + 1), "changed" + i);
+        }
+        fork.put("other", "value");
+
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals("value" + i, map.get("key" + i));
+            assertEquals("changed" + i, map.get("key" + (i + 1)));
+            assertNull(fork.get("key" + i));
+            assertEquals("value" + (i + 1), fork.get("key" + (i + 1)));
+        }
+        assertNull(map.get("other"));
+        assertEquals("value", fork.get("other"));
+    }
+}
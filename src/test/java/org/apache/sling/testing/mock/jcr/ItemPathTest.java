@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ItemPathTest {
+
+    @Test
+    void testRoot() {
+        assertSame(ItemPath.ROOT, ItemPath.of("/"));
+        assertEquals("/", ItemPath.ROOT.toString());
+        assertEquals("", ItemPath.ROOT.getName());
+        assertEquals(0, ItemPath.ROOT.getDepth());
+        assertNull(ItemPath.ROOT.getParent());
+    }
+
+    @Test
+    void testParse() {
+        ItemPath path = ItemPath.of("/a/b/c");
+        assertEquals("/a/b/c", path.toString());
+        assertEquals("c", path.getName());
+        assertEquals(3, path.getDepth());
+        assertEquals("/a/b", path.getParent().toString());
+        assertSame(ItemPath.ROOT, path.getParent().getParent().getParent());
+        assertThrows(IllegalArgumentException.class, () -> ItemPath.of("a/b"));
+    }
+
+    @Test
+    void testEqualsAndHashCode() {
+        ItemPath path = ItemPath.of("/a/b/c");
+        ItemPath other = ItemPath.of("/a").child("b").child("c");
+        assertEquals(path, other);
+        assertEquals(path.hashCode(), other.hashCode());
+        assertNotEquals(path, ItemPath.of("/a/b/d"));
+        assertNotEquals(path, ItemPath.of("/a/b"));
+        assertNotEquals(ItemPath.of("/x/b/c"), path);
+    }
+
+    @Test
+    void testAncestors() {
+        ItemPath path = ItemPath.of("/a/b/c");
+        assertSame(ItemPath.ROOT, path.getAncestor(0));
+        assertEquals(ItemPath.of("/a"), path.getAncestor(1));
+        assertSame(path, path.getAncestor(3));
+        assertNull(path.getAncestor(4));
+        assertNull(path.getAncestor(-1));
+
+        assertTrue(path.isDescendantOf(ItemPath.of("/a")));
+        assertTrue(path.isDescendantOf(ItemPath.ROOT));
+        assertFalse(path.isDescendantOf(path));
+        assertFalse(ItemPath.of("/ab/c").isDescendantOf(ItemPath.of("/a")));
+    }
+}
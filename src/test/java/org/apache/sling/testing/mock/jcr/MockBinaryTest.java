@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MockBinaryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private byte[] data;
+    private MockBinary binary;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Path file = tempDir.resolve("binary.bin");
+        Files.write(file, data);
+        // small segments, so that reads cross segment boundaries
+        binary = new MockBinary.FileBacked(file, Cleaner.create(), 16);
+    }
+
+    @Test
+    void testStream() throws IOException {
+        assertEquals(100, binary.getSize());
+        assertArrayEquals(data, IOUtils.toByteArray(binary.getStream()));
+    }
+
+    @Test
+    void testReadAcrossSegments() throws IOException {
+        byte[] range = new byte[40];
+        assertEquals(40, binary.read(range, 10));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 50), range);
+
+        assertEquals(4, binary.read(range, 96));
+        assertArrayEquals(Arrays.copyOfRange(data, 96, 100), Arrays.copyOf(range, 4));
+        assertEquals(-1, binary.read(range, 100));
+        assertThrows(IllegalArgumentException.class, () -> binary.read(range, -1));
+    }
+
+    @Test
+    void testSingleByteRead() throws IOException {
+        byte[] bytes = new byte[] {0x00, 0x7f, (byte) 0x80, (byte) 0xff};
+        Path file = tempDir.resolve("bytes.bin");
+        Files.write(file, bytes);
+        MockBinary fileBacked = new MockBinary.FileBacked(file, Cleaner.create(), 3);
+        try (InputStream stream = fileBacked.getStream()) {
+            assertEquals(0x00, stream.read());
+            assertEquals(0x7f, stream.read());
+            assertEquals(0x80, stream.read());
+            assertEquals(0xff, stream.read());
+            assertEquals(-1, stream.read());
+            assertEquals(-1, stream.read());
+        }
+    }
+
+    @Test
+    void testStreamSkipAndMark() throws IOException {
+        try (InputStream stream = binary.getStream()) {
+            assertEquals(30, stream.skip(30));
+            stream.mark(0);
+            assertEquals(30, stream.read());
+            stream.reset();
+            assertEquals(70, stream.available());
+            assertArrayEquals(Arrays.copyOfRange(data, 30, 100), IOUtils.toByteArray(stream));
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.sling.testing.mock.jcr;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
 import javax.jcr.Repository;
@@ -37,6 +38,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.commons.cnd.ParseException;
@@ -76,6 +78,43 @@ public class MockNodeTest extends AbstractItemTest {
         assertEquals(0, nodes.getSize());
     }
 
+    @Test
+    void testGetNodesSkip() throws RepositoryException {
+        for (int i = 2; i <= 5; i++) {
+            this.node1.addNode("node1" + i);
+        }
+
+        NodeIterator nodes = this.node1.getNodes();
+        assertEquals(5, nodes.getSize());
+        assertEquals(0, nodes.getPosition());
+        nodes.skip(3);
+        assertEquals(3, nodes.getPosition());
+        assertEquals("node14", nodes.nextNode().getName());
+        assertThrows(NoSuchElementException.class, () -> nodes.skip(2));
+        assertFalse(nodes.hasNext());
+        assertThrows(NoSuchElementException.class, nodes::nextNode);
+    }
+
+    @Test
+    void testGetNodesIsSnapshot() throws RepositoryException {
+        this.node1.addNode("node12");
+
+        NodeIterator nodes = this.node1.getNodes();
+        this.node1.getNode("node12").remove();
+        this.node1.addNode("node13");
+        assertEquals(2, nodes.getSize());
+        assertEquals("node11", nodes.nextNode().getName());
+        assertEquals("node12", nodes.nextNode().getName());
+        assertFalse(nodes.hasNext());
+    }
+
+    @Test
+    void testHasNodesAndPropertiesOfRemovedNode() throws RepositoryException {
+        this.node1.remove();
+        assertFalse(this.node1.hasNodes());
+        assertFalse(this.node1.hasProperties());
+    }
+
     @Test
     void testGetProperties() throws RepositoryException {
         PropertyIterator properties = this.node1.getProperties();
@@ -152,6 +191,36 @@ public class MockNodeTest extends AbstractItemTest {
     }
 
     @SuppressWarnings("deprecation")
+    @Test
+    void testRelativePaths() throws RepositoryException {
+        this.node11.setProperty("prop11", "value11");
+
+        assertEquals("/node1/node11", this.node1.getNode("node11").getPath());
+        assertEquals("/node1/node11", this.node1.getNode("./node11").getPath());
+        assertEquals("/node1/node11", this.node1.getNode("node11/").getPath());
+        assertEquals("/node1/node11", this.node1.getNode("../node1//node11").getPath());
+        assertEquals("/node1", this.node11.getNode("..").getPath());
+        assertEquals("/node1", this.node1.getNode(".").getPath());
+        assertEquals("/node1/node11", this.node11.getNode("/node1/node11").getPath());
+        assertEquals("value11", this.node1.getProperty("node11/prop11").getString());
+        assertEquals("value1", this.node11.getProperty("../prop1").getString());
+
+        assertTrue(this.node1.hasNode("node11"));
+        assertTrue(this.node11.hasNode("../../node1"));
+        assertFalse(this.node1.hasNode("prop1"));
+        assertFalse(this.node1.hasNode("node11/prop11"));
+        assertFalse(this.node1.hasNode("../../.."));
+        assertFalse(this.node1.hasNode("unknown/node11"));
+        assertTrue(this.node1.hasProperty("prop1"));
+        assertTrue(this.node1.hasProperty("node11/prop11"));
+        assertFalse(this.node1.hasProperty("node11"));
+        assertFalse(this.node1.hasProperty("."));
+
+        assertThrows(PathNotFoundException.class, () -> this.node1.getNode("prop1"));
+        assertThrows(PathNotFoundException.class, () -> this.node1.getNode("unknown"));
+        assertThrows(PathNotFoundException.class, () -> this.node1.getProperty("node11"));
+    }
+
     @Test
     void testGetUUID() throws RepositoryException {
         assertEquals(this.node1.getIdentifier(), this.node1.getUUID());
@@ -207,6 +276,44 @@ public class MockNodeTest extends AbstractItemTest {
         assertFalse(foo.isModified());
     }
 
+    @Test
+    void testSetPropertyUpdatesExistingProperty() throws RepositoryException {
+        Property prop = this.node1.setProperty("prop", "value1");
+        this.session.save();
+
+        Property updated = this.node1.setProperty("prop", 5L);
+        assertEquals(5L, updated.getLong());
+        // existing property objects see the new value
+        assertEquals(5L, prop.getLong());
+        assertTrue(prop.isSame(updated));
+        assertFalse(updated.isNew());
+        assertTrue(updated.isModified());
+
+        this.session.refresh(false);
+        assertEquals("value1", prop.getString());
+        assertFalse(prop.isModified());
+    }
+
+    @Test
+    void testSetPropertyReplacesNode() throws RepositoryException {
+        this.node1.addNode("child");
+        Property prop = this.node1.setProperty("child", true);
+        assertTrue(prop.getBoolean());
+        assertTrue(this.node1.hasProperty("child"));
+        assertFalse(this.node1.hasNode("child"));
+    }
+
+    @Test
+    void testSetNewPropertyIsRevertedOnRefresh() throws RepositoryException {
+        this.session.save();
+        this.node1.setProperty("prop", 1.5d);
+        assertTrue(this.session.hasPendingChanges());
+
+        this.session.refresh(false);
+        assertFalse(this.node1.hasProperty("prop"));
+        assertFalse(this.session.hasPendingChanges());
+    }
+
     @Test
     void testOrderBefore() throws RepositoryException {
         Node foo = this.session.getRootNode().addNode("foo");
@@ -264,6 +371,26 @@ public class MockNodeTest extends AbstractItemTest {
         assertEquals(1, unprotectedNodes.size(), "Should have one unprotected child node");
     }
 
+    @Test
+    void testGetNodesAfterStructuralChanges() throws RepositoryException {
+        Node foo = this.session.getRootNode().addNode("foo");
+        foo.addNode("one");
+        foo.addNode("two");
+        foo.addNode("three");
+        foo.setProperty("prop1", "value1");
+        this.node11.addNode("four");
+
+        foo.getNode("two").remove();
+        this.session.move("/node1/node11/four", "/foo/four");
+        foo.orderBefore("four", "one");
+
+        assertArrayEquals(new String[] {"four", "one", "three"}, getNodeNames(foo.getNodes()));
+        assertEquals(3, foo.getNodes().getSize());
+        assertFalse(this.node11.hasNodes());
+        assertEquals(2, foo.getProperties().getSize());
+        assertTrue(foo.hasProperty("prop1"));
+    }
+
     public static List<Node> getUnprotectedChildNodes(Node src) throws RepositoryException {
         List<Node> result = new LinkedList<>();
         NodeIterator iterator = src.getNodes();
@@ -18,6 +18,7 @@
  */
 package org.apache.sling.testing.mock.jcr;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.PropertyType;
@@ -33,18 +34,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SystemUtils;
 import org.apache.jackrabbit.value.BinaryValue;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
 class MockPropertyTest extends AbstractItemTest {
 
@@ -218,6 +225,54 @@ class MockPropertyTest extends AbstractItemTest {
         assertEquals(value2, prop1.getValue().getDate());
     }
 
+    @Test
+    void testCalendarKeepsTimeZone() throws RepositoryException {
+        Calendar value = Calendar.getInstance(TimeZone.getTimeZone("America/New_York"));
+        value.setTimeInMillis(1700000000000L);
+
+        Property prop1 = this.node1.setProperty("prop1", value);
+        assertEquals(PropertyType.DATE, prop1.getType());
+        assertEquals(value, prop1.getDate());
+        assertEquals("America/New_York", prop1.getDate().getTimeZone().getID());
+        assertEquals("2023-11-14T17:13:20.000-05:00", prop1.getString());
+
+        // the returned calendar is a copy
+        prop1.getDate().add(Calendar.DAY_OF_MONTH, 1);
+        assertEquals(value, prop1.getDate());
+    }
+
+    @Test
+    void testValueConversions() throws RepositoryException {
+        Property longProp = this.node1.setProperty("long", 5L);
+        assertEquals(PropertyType.LONG, longProp.getType());
+        assertEquals("5", longProp.getString());
+        assertEquals(5d, longProp.getDouble(), 0.001d);
+        assertEquals(new BigDecimal("5"), longProp.getDecimal());
+
+        Property doubleProp = this.node1.setProperty("double", 2.5d);
+        assertEquals(PropertyType.DOUBLE, doubleProp.getType());
+        assertEquals("2.5", doubleProp.getString());
+        assertEquals(2L, doubleProp.getLong());
+
+        Property booleanProp = this.node1.setProperty("boolean", true);
+        assertEquals(PropertyType.BOOLEAN, booleanProp.getType());
+        assertEquals("true", booleanProp.getString());
+        assertThrows(ValueFormatException.class, booleanProp::getLong);
+
+        Property stringProp = this.node1.setProperty("string", "42");
+        assertEquals(PropertyType.STRING, stringProp.getType());
+        assertEquals(42L, stringProp.getLong());
+        assertEquals(42d, stringProp.getDouble(), 0.001d);
+        assertThrows(ValueFormatException.class, stringProp::getDate);
+
+        // values of compact types passed as value objects are converted as well
+        Property valueProp =
+                this.node1.setProperty("value", this.session.getValueFactory().createValue(7L));
+        assertEquals(PropertyType.LONG, valueProp.getType());
+        assertEquals(7L, valueProp.getLong());
+        assertEquals(7L, valueProp.getValue().getLong());
+    }
+
     @Test
     void testCalendarSetNullViaNode() throws RepositoryException {
         Calendar value1 = Calendar.getInstance();
@@ -307,6 +362,153 @@ class MockPropertyTest extends AbstractItemTest {
         assertFalse(this.node1.hasProperty("prop1"));
     }
 
+    @Test
+    void testBinaryAboveThreshold() throws RepositoryException, IOException {
+        MockJcr.setBinaryThreshold(this.session.getRepository(), 16);
+        byte[] small = new byte[16];
+        byte[] large = new byte[100];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+
+        this.node1.setProperty("small", new ByteArrayInputStream(small));
+        this.node1.setProperty("large", new BinaryValue(large).getBinary());
+        assertTrue(this.node1.getProperty("small").getBinary() instanceof MockBinary.Inline);
+        Binary binary = this.node1.getProperty("large").getBinary();
+        assertTrue(binary instanceof MockBinary.FileBacked);
+
+        assertEquals(100, binary.getSize());
+        assertArrayEquals(large, IOUtils.toByteArray(binary.getStream()));
+        assertArrayEquals(
+                large, IOUtils.toByteArray(this.node1.getProperty("large").getValue().getBinary().getStream()));
+
+        byte[] range = new byte[10];
+        assertEquals(10, binary.read(range, 50));
+        assertArrayEquals(Arrays.copyOfRange(large, 50, 60), range);
+        assertEquals(5, binary.read(range, 95));
+        assertEquals(-1, binary.read(range, 100));
+
+        // binaries are shared when a binary value is set on another property
+        this.node1.setProperty("copy", this.node1.getProperty("large").getValue());
+        assertSame(binary, this.node1.getProperty("copy").getBinary());
+    }
+
+    @Test
+    void testBinaryDeduplication() throws RepositoryException {
+        MockJcr.setBinaryThreshold(this.session.getRepository(), 16);
+        byte[] small = new byte[] {0x01, 0x02, 0x03};
+        byte[] large = new byte[100];
+        large[99] = 0x01;
+
+        this.node1.setProperty("small1", new ByteArrayInputStream(small));
+        this.node11.setProperty("small2", new BinaryValue(small).getBinary());
+        this.node1.setProperty("large1", new ByteArrayInputStream(large));
+        this.node11.setProperty("large2", new ByteArrayInputStream(large.clone()));
+        this.node11.setProperty("other", new ByteArrayInputStream(new byte[100]));
+
+        assertSame(
+                this.node1.getProperty("small1").getBinary(),
+                this.node11.getProperty("small2").getBinary());
+        assertSame(
+                this.node1.getProperty("large1").getBinary(),
+                this.node11.getProperty("large2").getBinary());
+        assertNotSame(
+                this.node1.getProperty("large1").getBinary(),
+                this.node11.getProperty("other").getBinary());
+        assertEquals(3, ((MockSession) this.session).getBinaryStore().size());
+    }
+
+    @Test
+    void testBinaryFilesDeletedWhenLastSessionLogsOut() throws RepositoryException, IOException {
+        assumeFalse(SystemUtils.IS_OS_WINDOWS, "mapped files cannot be deleted on Windows");
+        Repository repository = MockJcr.newRepository();
+        MockJcr.setBinaryThreshold(repository, 16);
+        Session session1 = repository.login();
+        Session session2 = repository.login();
+        byte[] large = new byte[100];
+        large[99] = 0x02;
+        session1.getRootNode().setProperty("large", new ByteArrayInputStream(large));
+        Binary binary = session1.getRootNode().getProperty("large").getBinary();
+        BinaryStore store = ((MockSession) session1).getBinaryStore();
+        assertEquals(1, store.fileCount());
+
+        session1.logout();
+        session1.logout();
+        assertEquals(1, store.fileCount());
+        session2.logout();
+        assertEquals(0, store.fileCount());
+
+        // the binary stays readable through its mapping
+        assertArrayEquals(large, IOUtils.toByteArray(binary.getStream()));
+    }
+
+    @Test
+    void testBinaryStillReferencedAfterLogout() throws RepositoryException, IOException {
+        Repository repository = MockJcr.newRepository();
+        MockJcr.setBinaryThreshold(repository, 16);
+        Session session = repository.login();
+        byte[] large = new byte[100];
+        large[0] = 0x03;
+        session.getRootNode().setProperty("large", new ByteArrayInputStream(large));
+        session.save();
+        Binary binary = session.getProperty("/large").getBinary();
+        BinaryStore store = ((MockSession) session).getBinaryStore();
+        MockRepositorySnapshot snapshot = MockJcr.snapshot(repository);
+        Session fork = MockJcr.newRepository(snapshot).login();
+
+        // the repository created from the snapshot still uses the store
+        session.logout();
+        assertEquals(1, store.fileCount());
+        assertArrayEquals(large, IOUtils.toByteArray(fork.getProperty("/large").getBinary().getStream()));
+
+        fork.logout();
+        assertArrayEquals(large, IOUtils.toByteArray(binary.getStream()));
+        Session other = MockJcr.newRepository(snapshot).login();
+        assertArrayEquals(large, IOUtils.toByteArray(other.getProperty("/large").getBinary().getStream()));
+    }
+
+    @Test
+    void testBinaryOfOtherRepositoryIsStoredAgain() throws RepositoryException, IOException {
+        MockJcr.setBinaryThreshold(this.session.getRepository(), 16);
+        Session other = MockJcr.newSession();
+        MockJcr.setBinaryThreshold(other.getRepository(), 16);
+        byte[] large = new byte[100];
+        large[0] = 0x04;
+        other.getRootNode().setProperty("large", new ByteArrayInputStream(large));
+        Binary otherBinary = other.getProperty("/large").getBinary();
+
+        this.node1.setProperty("large", otherBinary);
+        Binary binary = this.node1.getProperty("large").getBinary();
+        assertNotSame(otherBinary, binary);
+        assertSame(((MockSession) this.session).getBinaryStore(), ((MockBinary) binary).getStore());
+        assertEquals(1, ((MockSession) this.session).getBinaryStore().fileCount());
+        assertArrayEquals(large, IOUtils.toByteArray(binary.getStream()));
+
+        // binaries of the same store are shared
+        this.node11.setProperty("large", binary);
+        assertSame(binary, this.node11.getProperty("large").getBinary());
+    }
+
+    @Test
+    void testLength() throws RepositoryException {
+        MockJcr.setBinaryThreshold(this.session.getRepository(), 16);
+        this.node1.setProperty("binary", new ByteArrayInputStream(new byte[1000]));
+        this.node1.setProperty("long", -1234L);
+        this.node1.setProperty("minLong", Long.MIN_VALUE);
+        this.node1.setProperty("boolean", false);
+        this.node1.setProperty("double", 1.5d);
+        this.node1.setProperty("binaries", new Value[] {
+            new BinaryValue(new byte[5]), new BinaryValue(new byte[50])
+        });
+
+        assertEquals(1000, this.node1.getProperty("binary").getLength());
+        assertEquals(5, this.node1.getProperty("long").getLength());
+        assertEquals(Long.toString(Long.MIN_VALUE).length(), this.node1.getProperty("minLong").getLength());
+        assertEquals(5, this.node1.getProperty("boolean").getLength());
+        assertEquals(3, this.node1.getProperty("double").getLength());
+        assertArrayEquals(new long[] {5, 50}, this.node1.getProperty("binaries").getLengths());
+    }
+
     @Test
     void testValue() throws RepositoryException {
         this.node1.setProperty("prop1", this.session.getValueFactory().createValue("value1"));
@@ -18,20 +18,34 @@
  */
 package org.apache.sling.testing.mock.jcr;
 
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class MockRepositoryTest {
@@ -89,4 +103,311 @@ class MockRepositoryTest {
             // expected
         }
     }
+
+    @Test
+    void testSnapshotIsolation() throws RepositoryException {
+        Session session = repository.login();
+        session.getRootNode().addNode("content").addNode("page").setProperty("title", "original");
+        session.save();
+
+        MockRepositorySnapshot snapshot = MockJcr.snapshot(repository);
+        Session fork1 = MockJcr.newRepository(snapshot).login();
+        Session fork2 = MockJcr.newRepository(snapshot).login();
+
+        fork1.getNode("/content/page").setProperty("title", "fork1");
+        fork1.getNode("/content").addNode("other");
+        fork1.save();
+        fork2.getNode("/content/page").remove();
+        fork2.save();
+        session.getNode("/content/page").setProperty("title", "changed");
+        session.save();
+
+        assertEquals("fork1", fork1.getProperty("/content/page/title").getString());
+        assertTrue(fork1.nodeExists("/content/other"));
+        assertFalse(fork2.nodeExists("/content/page"));
+        assertFalse(fork2.nodeExists("/content/other"));
+        assertEquals("changed", session.getProperty("/content/page/title").getString());
+        assertFalse(session.nodeExists("/content/other"));
+
+        Session fork3 = MockJcr.newRepository(snapshot).login();
+        assertEquals("original", fork3.getProperty("/content/page/title").getString());
+        assertFalse(fork3.nodeExists("/content/other"));
+        assertEquals(
+                session.getNode("/content/page").getIdentifier(),
+                fork3.getNode("/content/page").getIdentifier());
+    }
+
+    @Test
+    void testSnapshotSharesUnchangedSiblings() throws RepositoryException {
+        Session session = repository.login();
+        Node parent = session.getRootNode().addNode("parent");
+        for (int i = 0; i < 10; i++) {
+            parent.addNode("child" + i).setProperty("prop", i);
+        }
+        session.save();
+
+        MockRepositorySnapshot snapshot = MockJcr.snapshot(repository);
+        MockSession fork = (MockSession) MockJcr.newRepository(snapshot).login();
+        fork.getNode("/parent/child5").setProperty("prop", 50L);
+
+        // the modified item and its ancestors are copied, including the child maps of the ancestors
+        ItemStore shared = snapshot.getItems();
+        assertNotSame(shared.get("/parent"), fork.getItemData("/parent"));
+        assertNotSame(shared.get("/parent/child5/prop"), fork.getItemData("/parent/child5/prop"));
+        for (int i = 0; i < 10; i++) {
+            if (i != 5) {
+                assertSame(shared.get("/parent/child" + i), fork.getItemData("/parent/child" + i));
+                assertSame(shared.get("/parent/child" + i + "/prop"), fork.getItemData("/parent/child" + i + "/prop"));
+            }
+        }
+    }
+
+    @Test
+    void testSnapshotItemsAcquiredBeforeModification() throws RepositoryException {
+        Session session = repository.login();
+        session.getRootNode().addNode("page").setProperty("title", "original");
+        session.save();
+
+        Session fork = MockJcr.newRepository(MockJcr.snapshot(repository)).login();
+        Node page = fork.getNode("/page");
+        Property title1 = fork.getProperty("/page/title");
+        Property title2 = fork.getProperty("/page/title");
+
+        title1.setValue("changed");
+        assertEquals("changed", title2.getString());
+        assertTrue(title2.isModified());
+
+        page.setPrimaryType("nt:folder");
+        assertEquals("nt:folder", fork.getNode("/page").getPrimaryNodeType().getName());
+        assertEquals("original", session.getProperty("/page/title").getString());
+        assertEquals(
+                "nt:unstructured", session.getNode("/page").getPrimaryNodeType().getName());
+    }
+
+    @Test
+    void testSnapshotRefreshAndOrder() throws RepositoryException {
+        Session session = repository.login();
+        Node parent = session.getRootNode().addNode("parent");
+        parent.addNode("a");
+        parent.addNode("b");
+        parent.addNode("c");
+        session.save();
+
+        MockRepositorySnapshot snapshot = MockJcr.snapshot(repository);
+        Session fork = MockJcr.newRepository(snapshot).login();
+        fork.getNode("/parent").orderBefore("c", "a");
+        fork.getNode("/parent/b").remove();
+        fork.getNode("/parent/a").setProperty("prop", "value");
+        assertEquals("c,a", childNames(fork.getNode("/parent")));
+
+        fork.refresh(false);
+        assertFalse(fork.hasPendingChanges());
+        assertEquals("a,b,c", childNames(fork.getNode("/parent")));
+        assertFalse(fork.itemExists("/parent/a/prop"));
+
+        fork.getNode("/parent").orderBefore("c", "a");
+        fork.save();
+        assertEquals("c,a,b", childNames(fork.getNode("/parent")));
+        assertEquals("a,b,c", childNames(MockJcr.newRepository(snapshot).login().getNode("/parent")));
+    }
+
+    @Test
+    void testSnapshotNodeTypesAndNamespaces() throws RepositoryException {
+        Session session = repository.login();
+        NamespaceRegistry namespaceRegistry = session.getWorkspace().getNamespaceRegistry();
+        namespaceRegistry.registerNamespace("test", "http://test");
+
+        MockRepositorySnapshot snapshot = MockJcr.snapshot(repository);
+        namespaceRegistry.registerNamespace("other", "http://other");
+
+        NamespaceRegistry forkRegistry =
+                MockJcr.newRepository(snapshot).login().getWorkspace().getNamespaceRegistry();
+        assertEquals("http://test", forkRegistry.getURI("test"));
+        assertNull(forkRegistry.getURI("other"));
+    }
+
+    private static String childNames(Node node) throws RepositoryException {
+        StringBuilder names = new StringBuilder();
+        NodeIterator nodes = node.getNodes();
+        while (nodes.hasNext()) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(nodes.nextNode().getName());
+        }
+        return names.toString();
+    }
+
+    @Test
+    void testConcurrentSessions() throws Exception {
+        Repository concurrentRepository = MockJcr.newConcurrentRepository();
+        Session setup = concurrentRepository.login();
+        setup.getRootNode().addNode("shared");
+        setup.save();
+
+        int threads = 8;
+        int nodesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String name = "thread" + t;
+                futures.add(executor.submit(() -> {
+                    Session session = concurrentRepository.login();
+                    Node own = session.getRootNode().addNode(name);
+                    Node shared = session.getNode("/shared");
+                    for (int i = 0; i < nodesPerThread; i++) {
+                        own.addNode("node" + i).setProperty("index", i);
+                        shared.addNode(name + "-" + i);
+                        session.getNode("/shared").getNodes().getSize();
+                    }
+                    session.save();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Session session = concurrentRepository.login();
+        assertEquals(
+                threads * nodesPerThread, session.getNode("/shared").getNodes().getSize());
+        for (int t = 0; t < threads; t++) {
+            Node own = session.getNode("/thread" + t);
+            assertEquals(nodesPerThread, own.getNodes().getSize());
+            assertEquals(
+                    nodesPerThread - 1,
+                    own.getNode("node" + (nodesPerThread - 1))
+                            .getProperty("index")
+                            .getLong());
+        }
+    }
+
+    @Test
+    void testIsolatedSessions() throws RepositoryException {
+        Repository isolatedRepository = MockJcr.newIsolatedRepository();
+        Session session1 = isolatedRepository.login();
+        Session session2 = isolatedRepository.login();
+
+        session1.getRootNode().addNode("test").setProperty("prop", "value1");
+        assertFalse(session2.nodeExists("/test"));
+        session1.save();
+        assertFalse(session2.nodeExists("/test"));
+
+        session2.refresh(true);
+        assertEquals("value1", session2.getProperty("/test/prop").getString());
+        assertFalse(session2.getNode("/test").isNew());
+
+        // a session keeps reading its snapshot while another session changes the content
+        session2.getNode("/test").setProperty("prop", "value2");
+        session2.save();
+        assertEquals("value1", session1.getProperty("/test/prop").getString());
+        session1.refresh(false);
+        assertEquals("value2", session1.getProperty("/test/prop").getString());
+    }
+
+    @Test
+    void testIsolatedSessionSharesUnchangedSiblings() throws RepositoryException {
+        MockRepository isolatedRepository = (MockRepository) MockJcr.newIsolatedRepository();
+        Session session1 = isolatedRepository.login();
+        Node parent = session1.getRootNode().addNode("parent");
+        for (int i = 0; i < 10; i++) {
+            parent.addNode("child" + i).setProperty("prop", i);
+        }
+        session1.save();
+
+        MockSession session2 = (MockSession) isolatedRepository.login();
+        session2.getNode("/parent/child5").setProperty("prop", 50L);
+
+        ItemStore committed = isolatedRepository.getCommittedItems();
+        assertNotSame(committed.get("/parent"), session2.getItemData("/parent"));
+        for (int i = 0; i < 10; i++) {
+            if (i != 5) {
+                assertSame(committed.get("/parent/child" + i), session2.getItemData("/parent/child" + i));
+            }
+        }
+    }
+
+    @Test
+    void testIsolatedSessionsMergeChanges() throws RepositoryException {
+        Repository isolatedRepository = MockJcr.newIsolatedRepository();
+        Session setup = isolatedRepository.login();
+        Node parent = setup.getRootNode().addNode("parent");
+        parent.addNode("a");
+        parent.addNode("b");
+        setup.save();
+
+        Session session1 = isolatedRepository.login();
+        Session session2 = isolatedRepository.login();
+        session1.getNode("/parent").addNode("c");
+        session1.getNode("/parent/a").setProperty("prop", "value");
+        session2.getNode("/parent").orderBefore("b", "a");
+        session2.getNode("/parent").setProperty("title", "parent");
+        session1.save();
+        session2.save();
+
+        Session session = isolatedRepository.login();
+        assertEquals("b,a,c", childNames(session.getNode("/parent")));
+        assertEquals("value", session.getProperty("/parent/a/prop").getString());
+        assertEquals("parent", session.getProperty("/parent/title").getString());
+        assertEquals("b,a,c", childNames(session2.getNode("/parent")));
+    }
+
+    @Test
+    void testIsolatedSessionsConflict() throws RepositoryException {
+        Repository isolatedRepository = MockJcr.newIsolatedRepository();
+        Session setup = isolatedRepository.login();
+        setup.getRootNode().addNode("parent");
+        setup.save();
+
+        Session session1 = isolatedRepository.login();
+        Session session2 = isolatedRepository.login();
+        session1.getNode("/parent").remove();
+        session1.save();
+        session2.getNode("/parent").addNode("child");
+        assertThrows(InvalidItemStateException.class, session2::save);
+        assertTrue(session2.hasPendingChanges());
+
+        session2.refresh(false);
+        assertFalse(session2.hasPendingChanges());
+        assertFalse(session2.nodeExists("/parent"));
+    }
+
+    @Test
+    void testIsolatedSessionsOnSeveralThreads() throws Exception {
+        Repository isolatedRepository = MockJcr.newIsolatedRepository();
+        Session setup = isolatedRepository.login();
+        setup.getRootNode().addNode("shared");
+        setup.save();
+
+        int threads = 8;
+        int nodesPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String name = "thread" + t;
+                futures.add(executor.submit(() -> {
+                    Session session = isolatedRepository.login();
+                    for (int i = 0; i < nodesPerThread; i++) {
+                        session.getNode("/shared").addNode(name + "-" + i);
+                        session.save();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Session session = isolatedRepository.login();
+        assertEquals(
+                threads * nodesPerThread, session.getNode("/shared").getNodes().getSize());
+    }
 }
@@ -18,6 +18,7 @@
  */
 package org.apache.sling.testing.mock.jcr;
 
+import javax.jcr.InvalidItemStateException;
 import javax.jcr.ItemExistsException;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.NamespaceRegistry;
@@ -25,6 +26,7 @@ import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
+import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.security.AccessControlManager;
@@ -40,7 +42,9 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -172,6 +176,30 @@ class MockSessionTest {
         assertFalse(session.propertyExists("/node1/prop1"));
     }
 
+    @Test
+    void testItemNamesAreShared() throws RepositoryException {
+        Session session = MockJcr.newSession();
+        Node node1 = session.getRootNode().addNode("node1");
+        Node node2 = session.getRootNode().addNode("node2");
+        node1.addNode(new String("jcr:content"));
+        node2.addNode(new String("jcr:content"));
+        node1.setProperty(new String("prop1"), "value1");
+        node2.setProperty(new String("prop1"), "value2");
+
+        ItemPath path1 = ((MockNode) session.getNode("/node1/jcr:content")).getItemData().getItemPath();
+        ItemPath path2 = ((MockNode) session.getNode("/node2/jcr:content")).getItemData().getItemPath();
+        assertSame(path1.getName(), path2.getName());
+        assertSame(((MockNode) node1).getItemData().getItemPath(), path1.getParent());
+        assertSame(
+                ((MockProperty) session.getProperty("/node1/prop1")).getItemData().getItemPath().getName(),
+                ((MockProperty) session.getProperty("/node2/prop1")).getItemData().getItemPath().getName());
+
+        assertTrue(session.nodeExists("/node1/jcr:content"));
+        assertFalse(session.propertyExists("/node1/jcr:content"));
+        assertTrue(session.propertyExists("/node1/prop1"));
+        assertFalse(session.itemExists("/node1/prop1/child"));
+    }
+
     @Test
     void testNodeNotFoundException() {
         Session session = MockJcr.newSession();
@@ -278,6 +306,141 @@ class MockSessionTest {
         assertFalse(session.hasPendingChanges());
     }
 
+    @Test
+    void testSaveAfterMove() throws RepositoryException {
+        Session session = MockJcr.newSession();
+
+        Node foo = session.getRootNode().addNode("foo");
+        foo.addNode("child").setProperty("prop1", "value1");
+        session.move("/foo", "/bar");
+        assertTrue(session.hasPendingChanges());
+        assertTrue(session.getNode("/bar/child").isNew());
+        assertTrue(session.getProperty("/bar/child/prop1").isNew());
+
+        session.save();
+        assertFalse(session.hasPendingChanges());
+        assertFalse(session.getNode("/bar/child").isNew());
+        assertFalse(session.getProperty("/bar/child/prop1").isNew());
+    }
+
+    @Test
+    void testRefreshDiscardsChanges() throws RepositoryException {
+        Session session = MockJcr.newSession();
+        Node foo = session.getRootNode().addNode("foo");
+        foo.setProperty("prop1", "value1");
+        foo.addNode("one").addNode("child");
+        foo.addNode("two");
+        foo.addNode("three");
+        session.save();
+
+        foo.setProperty("prop1", "value2");
+        foo.setProperty("prop2", "value2");
+        foo.getNode("one").setProperty("prop3", 3L);
+        foo.addNode("four");
+        foo.orderBefore("three", "one");
+        session.move("/foo/one", "/bar");
+        session.removeItem("/foo/two");
+        assertTrue(session.hasPendingChanges());
+
+        session.refresh(false);
+
+        assertFalse(session.hasPendingChanges());
+        assertEquals("value1", session.getProperty("/foo/prop1").getString());
+        assertFalse(session.propertyExists("/foo/prop2"));
+        assertFalse(session.propertyExists("/foo/one/prop3"));
+        assertFalse(session.nodeExists("/foo/four"));
+        assertFalse(session.nodeExists("/bar"));
+        assertTrue(session.nodeExists("/foo/one/child"));
+        assertFalse(foo.isModified());
+
+        NodeIterator nodes = foo.getNodes();
+        assertEquals("one", nodes.nextNode().getName());
+        assertEquals("two", nodes.nextNode().getName());
+        assertEquals("three", nodes.nextNode().getName());
+        assertFalse(nodes.hasNext());
+    }
+
+    @Test
+    void testRefreshDiscardsNewItems() throws RepositoryException {
+        Session session = MockJcr.newSession();
+        Node foo = session.getRootNode().addNode("foo");
+        String id = foo.getIdentifier();
+        foo.setProperty("prop1", "value1");
+
+        session.refresh(false);
+
+        assertFalse(session.hasPendingChanges());
+        assertFalse(session.nodeExists("/foo"));
+        assertThrows(ItemNotFoundException.class, () -> session.getNodeByIdentifier(id));
+        assertFalse(session.getRootNode().hasNodes());
+    }
+
+    @Test
+    void testRefreshKeepsItemsOfOtherSessions() throws RepositoryException {
+        Repository repository = MockJcr.newRepository();
+        Session session1 = repository.login();
+        Session session2 = repository.login();
+        session1.getRootNode().addNode("foo").setProperty("prop1", "value1");
+        session2.getNode("/foo").addNode("child");
+        session2.save();
+
+        assertThrows(InvalidItemStateException.class, () -> session1.refresh(false));
+        assertTrue(session1.hasPendingChanges());
+        assertTrue(session2.nodeExists("/foo/child"));
+
+        // the changes can still be saved, and later changes discarded
+        session1.save();
+        session1.getRootNode().addNode("bar").addNode("child");
+        session1.refresh(false);
+        assertFalse(session1.nodeExists("/bar"));
+        assertTrue(session1.nodeExists("/foo/child"));
+    }
+
+    @Test
+    void testRefreshKeepsModificationsOfOtherSessions() throws RepositoryException {
+        Repository repository = MockJcr.newRepository();
+        Session session1 = repository.login();
+        Session session2 = repository.login();
+        session1.getRootNode().addNode("foo").setProperty("prop1", "value1");
+        session1.save();
+
+        session1.getNode("/foo").setProperty("prop1", "value2");
+        session2.getNode("/foo").setProperty("prop1", "value3");
+        session2.save();
+        assertThrows(InvalidItemStateException.class, () -> session1.refresh(false));
+        assertEquals("value3", session2.getProperty("/foo/prop1").getString());
+        session1.save();
+
+        // changes of other properties of the same node are kept
+        session1.getNode("/foo").setProperty("prop1", "value4");
+        session2.getNode("/foo").setProperty("prop2", "value5");
+        session2.save();
+        session1.refresh(false);
+        assertEquals("value3", session1.getProperty("/foo/prop1").getString());
+        assertEquals("value5", session1.getProperty("/foo/prop2").getString());
+    }
+
+    @Test
+    void testRefreshKeepsItemsAddedAgainByOtherSessions() throws RepositoryException {
+        Repository repository = MockJcr.newRepository();
+        Session session1 = repository.login();
+        Session session2 = repository.login();
+        session1.getRootNode().addNode("foo").addNode("bar").setProperty("prop1", "value1");
+        session1.save();
+
+        session1.getNode("/foo/bar").remove();
+        session2.getNode("/foo").addNode("bar").setProperty("prop1", "value2");
+        session2.save();
+        assertThrows(InvalidItemStateException.class, () -> session1.refresh(false));
+        assertEquals("value2", session2.getProperty("/foo/bar/prop1").getString());
+        session1.save();
+
+        // a removal is undone if nothing was added in the meantime
+        session1.getNode("/foo/bar").remove();
+        session1.refresh(false);
+        assertEquals("value2", session1.getProperty("/foo/bar/prop1").getString());
+    }
+
     @Test
     void testGetRepository() {
         Session session = MockJcr.newSession();
@@ -411,6 +574,79 @@ class MockSessionTest {
         assertTrue(session.propertyExists("/node1/child2/grandchild1/prop1"));
     }
 
+    @Test
+    void testMoveKeepsChildOrder() throws Exception {
+        Session session = MockJcr.newSession();
+        Node node1 = session.getRootNode().addNode("node1");
+        Node child1 = node1.addNode("child1");
+        child1.addNode("b");
+        child1.addNode("a");
+        child1.addNode("c");
+        node1.addNode("child0");
+
+        session.move("/node1/child1", "/node1/child2");
+
+        NodeIterator nodes = session.getNode("/node1").getNodes();
+        assertEquals("child0", nodes.nextNode().getName());
+        assertEquals("child2", nodes.nextNode().getName());
+        assertFalse(nodes.hasNext());
+
+        NodeIterator children = session.getNode("/node1/child2").getNodes();
+        assertEquals("/node1/child2/b", children.nextNode().getPath());
+        assertEquals("/node1/child2/a", children.nextNode().getPath());
+        assertEquals("/node1/child2/c", children.nextNode().getPath());
+        assertFalse(children.hasNext());
+    }
+
+    @Test
+    void testMoveToDescendant() throws Exception {
+        Session session = MockJcr.newSession();
+        session.getRootNode().addNode("node1").addNode("child1");
+
+        assertThrows(RepositoryException.class, () -> session.move("/node1", "/node1/child1/node1"));
+        assertTrue(session.nodeExists("/node1/child1"));
+    }
+
+    @Test
+    void testRemoveSubtree() throws Exception {
+        Session session = MockJcr.newSession();
+        Node node1 = session.getRootNode().addNode("node1");
+        node1.addNode("child1").setProperty("prop1", "value1");
+        Node node10 = session.getRootNode().addNode("node10");
+
+        session.removeItem("/node1");
+
+        assertFalse(session.itemExists("/node1/child1"));
+        assertFalse(session.itemExists("/node1/child1/prop1"));
+        assertTrue(session.nodeExists("/node10"));
+        assertEquals(node10, session.getRootNode().getNodes().nextNode());
+    }
+
+    @Test
+    void testGetNodeByIdentifierAfterMoveAndRemove() throws Exception {
+        Session session = MockJcr.newSession();
+        Node node1 = session.getRootNode().addNode("node1");
+        Node child1 = node1.addNode("child1");
+        String node1Id = node1.getIdentifier();
+        String child1Id = child1.getIdentifier();
+
+        session.move("/node1", "/node2");
+        assertEquals("/node2", session.getNodeByIdentifier(node1Id).getPath());
+        assertEquals("/node2/child1", session.getNodeByUUID(child1Id).getPath());
+
+        session.removeItem("/node2");
+        assertThrows(ItemNotFoundException.class, () -> session.getNodeByIdentifier(node1Id));
+        assertThrows(ItemNotFoundException.class, () -> session.getNodeByIdentifier(child1Id));
+    }
+
+    @Test
+    void testAddNodeWithoutParent() throws Exception {
+        Session session = MockJcr.newSession();
+
+        assertThrows(PathNotFoundException.class, () -> session.getRootNode().addNode("node1/child1"));
+        assertFalse(session.itemExists("/node1/child1"));
+    }
+
     // --- jackrabbit session operations ---
 
     @Test
@@ -484,4 +720,66 @@ class MockSessionTest {
 
         assertEquals(mockAccessControlManager, s.getAccessControlManager());
     }
+
+    @Test
+    void testItemCacheDisabledByDefault() throws RepositoryException {
+        Session s = MockJcr.newSession();
+        s.getRootNode().addNode("node1");
+        assertNotSame(s.getNode("/node1"), s.getNode("/node1"));
+        assertEquals(0, MockJcr.getItemCacheStatistics(s).getHits());
+    }
+
+    @Test
+    void testItemCache() throws RepositoryException {
+        Session s = MockJcr.newSession();
+        MockJcr.setItemCacheEnabled(s, true);
+        Node node1 = s.getRootNode().addNode("node1");
+        node1.setProperty("prop1", "value1");
+
+        Node cached = s.getNode("/node1");
+        assertSame(cached, s.getNode("/node1"));
+        assertSame(cached, s.getRootNode().getNode("node1"));
+        assertSame(cached, s.getRootNode().getNodes().nextNode());
+        assertSame(cached, s.getNodeByIdentifier(node1.getIdentifier()));
+        assertSame(s.getProperty("/node1/prop1"), cached.getProperty("prop1"));
+        assertSame(cached, cached.getProperty("prop1").getParent());
+
+        MockItemCacheStatistics statistics = MockJcr.getItemCacheStatistics(s);
+        assertTrue(statistics.getHits() >= 5);
+        assertTrue(statistics.getHitRate() > 0.5d);
+        assertEquals(3, statistics.getSize());
+
+        MockJcr.setItemCacheEnabled(s, false);
+        assertNotSame(cached, s.getNode("/node1"));
+        assertEquals(0, MockJcr.getItemCacheStatistics(s).getSize());
+    }
+
+    @Test
+    void testItemCacheInvalidation() throws RepositoryException {
+        Session s = MockJcr.newSession();
+        MockJcr.setItemCacheEnabled(s, true);
+        s.getRootNode().addNode("node1").addNode("node11");
+        Node node1 = s.getNode("/node1");
+        Node node11 = s.getNode("/node1/node11");
+
+        // removed and re-added items are new objects, also below the removed node
+        node1.remove();
+        Node newNode1 = s.getRootNode().addNode("node1");
+        newNode1.addNode("node11");
+        assertNotSame(node1, s.getNode("/node1"));
+        assertNotSame(node11, s.getNode("/node1/node11"));
+        assertEquals(newNode1.getIdentifier(), s.getNode("/node1").getIdentifier());
+
+        // moved items
+        Node moved = s.getNode("/node1");
+        s.move("/node1", "/node2");
+        assertThrows(PathNotFoundException.class, () -> s.getNode("/node1"));
+        assertEquals(moved.getIdentifier(), s.getNode("/node2").getIdentifier());
+
+        // a property replaced by a node
+        s.getRootNode().setProperty("item", "value");
+        assertTrue(s.getItem("/item") instanceof Property);
+        s.getRootNode().addNode("item");
+        assertTrue(s.getItem("/item") instanceof Node);
+    }
 }
@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.testing.mock.jcr;
+
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.collections4.IteratorUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryEngineTest {
+
+    private Session session;
+    private QueryManager queryManager;
+
+    @BeforeEach
+    void setUp() throws RepositoryException {
+        session = MockJcr.newSession();
+        MockJcr.setQueryEngineEnabled(session.getRepository(), true);
+        queryManager = session.getWorkspace().getQueryManager();
+
+        Node content = session.getRootNode().addNode("content", "nt:unstructured");
+        for (int i = 1; i <= 5; i++) {
+            Node page = content.addNode("page" + i, "nt:unstructured");
+            page.setProperty("title", "Page " + i);
+            page.setProperty("rank", 6 - i);
+            page.addNode("child", "nt:unstructured").setProperty("title", "Child " + i);
+        }
+        content.getNode("page2").setProperty("tags", new String[] {"a", "b"});
+        session.save();
+    }
+
+    @Test
+    void testDisabled() throws RepositoryException {
+        MockJcr.setQueryEngineEnabled(session.getRepository(), false);
+        assertFalse(execute("SELECT * FROM [nt:base]").getNodes().hasNext());
+    }
+
+    @Test
+    void testPropertyConstraint() throws RepositoryException {
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Page 3'"), "/content/page3");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] AS s WHERE s.[rank] > 3"),
+                "/content/page1", "/content/page2");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] LIKE 'Child %' AND NOT [title] <> 'Child 4'"),
+                "/content/page4/child");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [tags] = 'b'"), "/content/page2");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] IN (1, 2) OR LOWER([title]) = 'page 1'"),
+                "/content/page1", "/content/page4", "/content/page5");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [child/title] = 'Child 2'"), "/content/page2");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE NAME() = 'page5'"), "/content/page5");
+    }
+
+    @Test
+    void testPathConstraints() throws RepositoryException {
+        assertPaths(execute("SELECT * FROM [nt:base] WHERE ISSAMENODE([/content/page1])"), "/content/page1");
+        assertPaths(execute("SELECT * FROM [nt:base] WHERE ISCHILDNODE([/content/page1])"),
+                "/content/page1/child");
+        assertPaths(execute("SELECT * FROM [nt:base] AS s WHERE ISDESCENDANTNODE(s, '/content') AND [rank] <= 2"),
+                "/content/page4", "/content/page5");
+        assertPaths(execute("SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE([/nonexisting])"));
+    }
+
+    @Test
+    void testOrderByWithLimitAndOffset() throws RepositoryException {
+        String statement = "SELECT * FROM [nt:unstructured] WHERE [rank] IS NOT NULL ORDER BY [rank]";
+        assertPaths(execute(statement), "/content/page5", "/content/page4", "/content/page3", "/content/page2",
+                "/content/page1");
+
+        Query query = queryManager.createQuery(statement + " DESC", Query.JCR_SQL2);
+        query.setOffset(1);
+        query.setLimit(2);
+        assertPaths(query.execute(), "/content/page2", "/content/page3");
+    }
+
+    @Test
+    void testResultSize() throws RepositoryException {
+        String statement = "SELECT * FROM [nt:unstructured] WHERE [rank] IS NOT NULL";
+        QueryResult result = execute(statement);
+        assertEquals(5, result.getNodes().getSize());
+        assertEquals(5, result.getRows().getSize());
+
+        Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
+        query.setLimit(2);
+        assertEquals(-1, query.execute().getNodes().getSize());
+        assertEquals(-1, query.execute().getRows().getSize());
+    }
+
+    @Test
+    void testBindVariables() throws RepositoryException {
+        Query query = queryManager.createQuery("SELECT * FROM [nt:base] WHERE [title] = $title", Query.JCR_SQL2);
+        assertThrows(InvalidQueryException.class, query::execute);
+
+        query.bindValue("title", session.getValueFactory().createValue("Page 2"));
+        assertPaths(query.execute(), "/content/page2");
+
+        query.bindValue("title", session.getValueFactory().createValue("Page 5"));
+        assertPaths(query.execute(), "/content/page5");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testRows() throws RepositoryException {
+        QueryResult result = execute("SELECT [title] FROM [nt:unstructured] AS page WHERE [rank] = 5");
+        assertArrayEquals(new String[] {"page"}, result.getSelectorNames());
+        List<Row> rows = IteratorUtils.toList(result.getRows());
+        assertEquals(1, rows.size());
+        assertEquals("Page 1", rows.get(0).getValue("title").getString());
+        assertEquals("/content/page1", rows.get(0).getPath("page"));
+    }
+
+    @Test
+    void testResultReflectsChanges() throws RepositoryException {
+        QueryResult result = execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Page 1'");
+        assertPaths(result, "/content/page1");
+        session.getNode("/content/page1").remove();
+        assertPaths(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testResultHandlerHasPriority() throws RepositoryException {
+        List<Node> nodes = List.of(session.getNode("/content"));
+        MockJcr.setQueryResult(session, nodes);
+        assertEquals(nodes, IteratorUtils.toList(execute("SELECT * FROM [nt:base]").getNodes()));
+    }
+
+    @Test
+    void testInvalidStatement() {
+        assertThrows(InvalidQueryException.class, () -> execute("SELECT * FROM"));
+        assertThrows(InvalidQueryException.class, () -> execute("SELECT * FROM [nt:base] WHERE [title] = "));
+    }
+
+    @Test
+    void testPropertyIndex() throws RepositoryException {
+        MockJcr.addPropertyIndex(session, "title");
+        PropertyIndex index = ((MockSession) session).getQueryIndexes().getPropertyIndex("title");
+        assertEquals(Set.of(ItemPath.of("/content/page3")), index.lookup(value("Page 3")));
+
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Page 3'"), "/content/page3");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] IN ('Child 2', 'Page 1', 'Page 9')"),
+                "/content/page1", "/content/page2/child");
+        assertPaths(execute("SELECT * FROM [nt:base] WHERE ISCHILDNODE('/content') AND [title] = 'Page 3'"),
+                "/content/page3");
+
+        // writes
+        session.getNode("/content/page3").setProperty("title", "Page 3b");
+        session.getNode("/content/page4").setProperty("title", "Page 3");
+        assertEquals(Set.of(ItemPath.of("/content/page4")), index.lookup(value("Page 3")));
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Page 3'"), "/content/page4");
+
+        // remove and move
+        session.getNode("/content/page4").remove();
+        session.move("/content/page2", "/content/moved");
+        assertEquals(Set.of(), index.lookup(value("Page 3")));
+        assertEquals(Set.of(ItemPath.of("/content/moved/child")), index.lookup(value("Child 2")));
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Child 2'"), "/content/moved/child");
+
+        // reverted changes are indexed again
+        session.refresh(false);
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Page 3'"), "/content/page3");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [title] = 'Child 2'"), "/content/page2/child");
+    }
+
+    @Test
+    void testPropertyIndexValueTypes() throws RepositoryException {
+        MockJcr.addPropertyIndex(session, "rank");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] = 2"), "/content/page4");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] = 2.0"), "/content/page4");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] = '2'"), "/content/page4");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] = CAST('2' AS DECIMAL)"), "/content/page4");
+    }
+
+    @Test
+    void testPropertyIndexIsolated() throws RepositoryException {
+        Repository repository = MockJcr.newIsolatedRepository();
+        MockJcr.setQueryEngineEnabled(repository, true);
+        Session session1 = repository.login();
+        Session session2 = repository.login();
+        session1.getRootNode().addNode("node").setProperty("prop", "value");
+        session1.save();
+        MockJcr.addPropertyIndex(session1, "prop");
+
+        session2.refresh(false);
+        session1.getNode("/node").remove();
+        String statement = "SELECT * FROM [nt:base] WHERE [prop] = 'value'";
+        assertPaths(session1.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2).execute());
+        assertPaths(
+                session2.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2).execute(),
+                "/node");
+    }
+
+    @Test
+    void testPropertyIndexIsolatedPurged() throws RepositoryException {
+        Repository repository = MockJcr.newIsolatedRepository();
+        MockJcr.setQueryEngineEnabled(repository, true);
+        Session session1 = repository.login();
+        Session session2 = repository.login();
+        MockJcr.addOrderedPropertyIndex(session1, "prop");
+        session1.getRootNode().addNode("node").setProperty("prop", 1L);
+        session1.save();
+        PropertyIndex index = ((MockSession) session1).getQueryIndexes().getPropertyIndex("prop");
+        ValueFactory valueFactory = session1.getValueFactory();
+
+        // the old value is kept while session2 still sees it
+        session2.refresh(false);
+        session1.getNode("/node").setProperty("prop", "value");
+        session1.save();
+        assertEquals(Set.of(ItemPath.of("/node")), index.lookup(valueFactory.createValue(1L)));
+        assertNull(index.getKeyType());
+        session2.refresh(false);
+        assertEquals(Set.of(), index.lookup(valueFactory.createValue(1L)));
+        assertEquals(PropertyIndex.KeyType.STRING, index.getKeyType());
+
+        // pending values of a session are kept when another session saves
+        session2.getNode("/node").setProperty("prop", "pending");
+        session1.getNode("/node").setProperty("prop", 2L);
+        session1.save();
+        assertPaths(
+                session2.getWorkspace()
+                        .getQueryManager()
+                        .createQuery("SELECT * FROM [nt:base] WHERE [prop] = 'pending'", Query.JCR_SQL2)
+                        .execute(),
+                "/node");
+        session2.logout();
+        assertEquals(Set.of(), index.lookup(valueFactory.createValue("pending")));
+        assertEquals(Set.of(), index.lookup(valueFactory.createValue("value")));
+        assertEquals(PropertyIndex.KeyType.NUMBER, index.getKeyType());
+
+        // discarded values are removed
+        session1.getRootNode().addNode("added").setProperty("prop", 3L);
+        session1.refresh(false);
+        assertEquals(Set.of(), index.lookup(valueFactory.createValue(3L)));
+        for (long i = 10; i < 20; i++) {
+            session1.getNode("/node").setProperty("prop", i);
+            session1.save();
+        }
+        assertEquals(Set.of(), index.lookup(valueFactory.createValue(18L)));
+        assertEquals(Set.of(ItemPath.of("/node")), index.lookup(valueFactory.createValue(19L)));
+    }
+
+    @Test
+    void testOrderedPropertyIndex() throws RepositoryException {
+        MockJcr.addOrderedPropertyIndex(session, "rank");
+        PropertyIndex index = ((MockSession) session).getQueryIndexes().getPropertyIndex("rank");
+        assertTrue(index.isOrdered());
+        assertEquals(
+                Set.of(ItemPath.of("/content/page1"), ItemPath.of("/content/page2")),
+                index.lookup(session.getValueFactory().createValue(4L), QueryConstraint.Operator.GREATER_THAN_OR_EQUAL_TO));
+
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] > 2 AND [rank] <= 4"),
+                "/content/page2", "/content/page3");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] < '3'"), "/content/page4", "/content/page5");
+
+        // ordering read from the index
+        Query query = queryManager.createQuery(
+                "SELECT * FROM [nt:unstructured] WHERE [rank] IS NOT NULL ORDER BY [rank] DESC", Query.JCR_SQL2);
+        query.setOffset(1);
+        query.setLimit(2);
+        assertPaths(query.execute(), "/content/page2", "/content/page3");
+
+        // nodes with the same key are sorted by the other orderings
+        session.getNode("/content/page5").setProperty("rank", 3L);
+        assertPaths(
+                execute("SELECT * FROM [nt:unstructured] WHERE [rank] IS NOT NULL ORDER BY [rank], [title] DESC"),
+                "/content/page4", "/content/page5", "/content/page3", "/content/page2", "/content/page1");
+
+        // values of other types
+        session.getNode("/content/page4").setProperty("rank", "x");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE [rank] <= 3"), "/content/page3", "/content/page5");
+    }
+
+    @Test
+    void testIndexedResultsInDocumentOrder() throws RepositoryException {
+        Node list = session.getRootNode().addNode("list", "nt:unstructured");
+        for (String name : new String[] {"c", "a", "b", "aa"}) {
+            Node item = list.addNode(name, "nt:unstructured");
+            item.setProperty("kind", "item");
+            item.setProperty("weight", 1L);
+            item.addNode("z", "nt:unstructured").setProperty("kind", "item");
+        }
+        list.orderBefore("b", "c");
+        session.save();
+        String statement = "SELECT * FROM [nt:unstructured] WHERE [kind] = 'item'";
+        String ordered = "SELECT * FROM [nt:unstructured] WHERE [weight] IS NOT NULL ORDER BY [weight]";
+        List<String> traversed = paths(execute(statement));
+        List<String> traversedOrdered = paths(execute(ordered));
+        assertEquals(
+                List.of("/list/b", "/list/b/z", "/list/c", "/list/c/z", "/list/a", "/list/a/z", "/list/aa",
+                        "/list/aa/z"),
+                traversed);
+        assertEquals(List.of("/list/b", "/list/c", "/list/a", "/list/aa"), traversedOrdered);
+
+        MockJcr.addPropertyIndex(session, "kind");
+        MockJcr.addOrderedPropertyIndex(session, "weight");
+        assertEquals(traversed, paths(execute(statement)));
+        assertEquals(traversedOrdered, paths(execute(ordered)));
+    }
+
+    @Test
+    void testFullTextSearch() throws RepositoryException {
+        addText();
+        assertFullTextSearch();
+    }
+
+    @Test
+    void testFullTextIndex() throws RepositoryException {
+        addText();
+        MockJcr.addFullTextIndex(session);
+        FullTextIndex index = ((MockSession) session).getQueryIndexes().getFullTextIndex();
+        assertEquals(
+                Set.of(ItemPath.of("/content/page1"), ItemPath.of("/content/page3")),
+                index.lookup(FullTextExpression.parse("brown"), null));
+        assertEquals(Set.of(ItemPath.of("/content/page1")), index.lookup(FullTextExpression.parse("brown fox"), null));
+        assertEquals(Set.of(), index.lookup(FullTextExpression.parse("brown"), "title"));
+        assertNull(index.lookup(FullTextExpression.parse("-brown"), null));
+        assertFullTextSearch();
+
+        // writes
+        session.getNode("/content/page3").setProperty("text", "Quick");
+        session.getNode("/content/page1").getProperty("text").remove();
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'quick')"),
+                "/content/page2", "/content/page3");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'brown')"));
+    }
+
+    @Test
+    void testFullTextSearchBinary() throws RepositoryException {
+        Node file = session.getNode("/content/page1").addNode("file", "nt:unstructured");
+        file.setProperty("jcr:mimeType", "text/plain");
+        file.setProperty(
+                "jcr:data",
+                session.getValueFactory()
+                        .createBinary(new ByteArrayInputStream("Hello World".getBytes(StandardCharsets.UTF_8))));
+        MockJcr.addFullTextIndex(session);
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'hello')"), "/content/page1/file");
+
+        file.setProperty("jcr:mimeType", "application/octet-stream");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'hello')"));
+    }
+
+    @Test
+    void testFullTextSearchInvalid() {
+        assertThrows(
+                InvalidQueryException.class,
+                () -> execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, ' - ')"));
+    }
+
+    private void addText() throws RepositoryException {
+        session.getNode("/content/page1").setProperty("text", "The quick brown fox");
+        session.getNode("/content/page2").setProperty("text", "Quick foxes, quick dogs");
+        session.getNode("/content/page3").setProperty("text", "Brown dog");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertFullTextSearch() throws RepositoryException {
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'QUICK')"),
+                "/content/page1", "/content/page2");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] AS a WHERE CONTAINS(a.[text], 'quick brown')"),
+                "/content/page1");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS([text], 'fox OR dog')"),
+                "/content/page1", "/content/page3");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, '\"brown fox\"')"), "/content/page1");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, '\"fox brown\"')"));
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'quick -fox')"), "/content/page2");
+        assertPaths(execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS([title], 'page 3')"), "/content/page3");
+        assertPaths(xpath("/jcr:root/content/*[jcr:contains(., 'quick -fox')]"), "/content/page2");
+
+        // ordered by score
+        QueryResult result =
+                execute("SELECT * FROM [nt:unstructured] WHERE CONTAINS(*, 'quick') ORDER BY SCORE() DESC");
+        assertPaths(result, "/content/page2", "/content/page1");
+        List<Row> rows = IteratorUtils.toList(result.getRows());
+        assertEquals(2.0, rows.get(0).getScore());
+        assertEquals(1.0, rows.get(1).getScore());
+        assertPaths(xpath("/jcr:root/content/*[jcr:contains(@text, 'quick')] order by @jcr:score descending"),
+                "/content/page2", "/content/page1");
+    }
+
+    private Value value(String value) throws RepositoryException {
+        return session.getValueFactory().createValue(value);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    void testXPath() throws RepositoryException {
+        assertPaths(xpath("/jcr:root/content/element(*, nt:unstructured)[@title = 'Page 3']"), "/content/page3");
+        assertPaths(xpath("/jcr:root/content//*[@title = 'Child 2' or @rank >= 5]"),
+                "/content/page1", "/content/page2/child");
+        assertPaths(xpath("/jcr:root/content/page1/child"), "/content/page1/child");
+        assertPaths(xpath("//element(child, nt:unstructured)[jcr:like(@title, '%3')]"), "/content/page3/child");
+        assertPaths(xpath("/jcr:root/content/*[child/@title = 'Child 4' and not(@tags)]"), "/content/page4");
+        assertPaths(xpath("/jcr:root/content/*[fn:lower-case(@title) = 'page 5']"), "/content/page5");
+        assertPaths(xpath("/jcr:root/content/*[@rank] order by @rank descending"), "/content/page1",
+                "/content/page2", "/content/page3", "/content/page4", "/content/page5");
+
+        Query query = queryManager.createQuery("/jcr:root/content//*[@rank > $rank] order by @rank", Query.XPATH);
+        query.bindValue("rank", session.getValueFactory().createValue(2));
+        query.setLimit(2);
+        assertPaths(query.execute(), "/content/page3", "/content/page2");
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    void testXPathMatchesSql2() throws RepositoryException {
+        assertEquals(
+                paths(execute("SELECT * FROM [nt:unstructured] AS a "
+                        + "WHERE ISDESCENDANTNODE(a, '/content') AND a.[title] LIKE 'Page%' ORDER BY a.[rank]")),
+                paths(xpath("/jcr:root/content//element(*, nt:unstructured)[jcr:like(@title, 'Page%')] order by @rank")));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    void testXPathUnsupported() {
+        assertThrows(InvalidQueryException.class, () -> xpath("/jcr:root/content//*/child"));
+        assertThrows(InvalidQueryException.class, () -> xpath("/jcr:root/content/*[@title = ]"));
+    }
+
+    @SuppressWarnings("deprecation")
+    private QueryResult xpath(String statement) throws RepositoryException {
+        return queryManager.createQuery(statement, Query.XPATH).execute();
+    }
+
+    private QueryResult execute(String statement) throws RepositoryException {
+        return queryManager.createQuery(statement, Query.JCR_SQL2).execute();
+    }
+
+    private static void assertPaths(QueryResult result, String... expected) throws RepositoryException {
+        assertEquals(List.of(expected), paths(result));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> paths(QueryResult result) throws RepositoryException {
+        List<String> paths = new ArrayList<>();
+        for (Node node : (List<Node>) IteratorUtils.toList(result.getNodes())) {
+            paths.add(node.getPath());
+        }
+        return paths;
+    }
+}
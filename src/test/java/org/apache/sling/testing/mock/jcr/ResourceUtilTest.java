@@ -22,6 +22,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class ResourceUtilTest {
@@ -124,6 +125,15 @@ class ResourceUtilTest {
         assertEquals("", ResourceUtil.normalize(""));
     }
 
+    @Test
+    void testNormalizedPathIsReturnedUnchanged() {
+        String path = "/a/b:c/d";
+        assertSame(path, ResourceUtil.normalize(path));
+        assertSame("/", ResourceUtil.normalize("/"));
+        assertEquals("/a/b", ResourceUtil.normalize("/a/b/"));
+        assertEquals("/a/.b", ResourceUtil.normalize("/a/.b"));
+    }
+
     @Test
     void testGetParent() {
         assertNull(ResourceUtil.getParent("/"));